@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/** The batch command: runs a script of commands, one per line, in one
+ *  process and against one Session, so that each line costs only its
+ *  own work.  Words on a line are separated by blanks; a word in double
+ *  quotes may contain blanks (and \" or \\).  Blank lines and lines
+ *  starting with # are skipped.  The refs and staging maps are written
+ *  after each command that succeeds (staging a file appends one record
+ *  to the journal of the staging area), and the stat cache at the end of
+ *  the script.  A line that fails prints its message, as it would on its
+ *  own, and whatever it changed is discarded, without losing the changes
+ *  of the lines before it; the script goes on.  An unexpected error
+ *  ends the script, after discarding the changes of its line.
+ *  @author Bella Chang
+ */
+class Batch {
+
+    /** Commands that cannot appear in a script. */
+    static final Set<String> FORBIDDEN = Set.of("batch", "daemon");
+
+    /** Run the script in the file named ARGS[1], or on the standard input
+     *  if there is none, on CURRENT. */
+    static void run(Repo current, String... args) throws IOException {
+        if (args.length > 2) {
+            throw Utils.error("Incorrect operands.");
+        }
+        Reader source;
+        if (args.length == 2) {
+            try {
+                source = Files.newBufferedReader(
+                    Repo.CWD.toPath().resolve(args[1]),
+                    StandardCharsets.UTF_8);
+            } catch (NoSuchFileException excp) {
+                throw Utils.error("File does not exist.");
+            }
+        } else {
+            source = new InputStreamReader(System.in,
+                                           StandardCharsets.UTF_8);
+        }
+        try (BufferedReader in = new BufferedReader(source)) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                try {
+                    String[] words = split(line);
+                    if (words.length == 0 || words[0].startsWith("#")) {
+                        continue;
+                    }
+                    if (FORBIDDEN.contains(words[0])) {
+                        throw Utils.error("Cannot run %s in a batch.",
+                                          words[0]);
+                    }
+                    Main.run(current, words);
+                    current.checkpoint();
+                } catch (GitletException excp) {
+                    current.discard();
+                    System.out.println(excp.getMessage());
+                } catch (RuntimeException excp) {
+                    current.discard();
+                    throw excp;
+                }
+            }
+        } finally {
+            current.flush();
+        }
+    }
+
+    /** Return the words of LINE. */
+    static String[] split(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false, quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    i += 1;
+                    word.append(line.charAt(i));
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '"') {
+                quoted = inWord = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inWord) {
+                    result.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quoted) {
+            throw Utils.error("Unterminated quotation: %s", line);
+        }
+        if (inWord) {
+            result.add(word.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+}
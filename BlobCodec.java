@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The stored representation of blobs.  A stored blob starts with a
+ *  four-byte header: the three bytes of MAGIC followed by an encoding
+ *  byte, then the encoded contents.  Blobs written before the header was
+ *  introduced held their contents verbatim; the format upgrade to
+ *  Format.BLOB_HEADERS gives each of them a RAW header.
+ *  @author Bella Chang
+ */
+class BlobCodec {
+
+    /** Leading bytes of every stored blob with a header. */
+    static final byte[] MAGIC = { 0, 'g', 'b' };
+
+    /** Length of the header. */
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /** Encoding of contents stored verbatim. */
+    static final byte RAW = 0;
+
+    /** Encoding of contents compressed with Deflater. */
+    static final byte DEFLATE = 1;
+
+    /** Encoding of a Deflate-compressed delta payload (see Delta). */
+    static final byte DELTA = 2;
+
+    /** Encoding of a chunk manifest (see Chunker). */
+    static final byte CHUNKED = 3;
+
+    /** Return the deflate level configured for new blobs. */
+    static int level() {
+        return Config.getInt(Config.COMPRESSION,
+                             Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /** Return the encoding used for new blobs at deflate level LEVEL. */
+    static byte encodingFor(int level) {
+        return level == 0 ? RAW : DEFLATE;
+    }
+
+    /** Write the header for ENCODING to OUT. */
+    static void writeHeader(OutputStream out, byte encoding)
+        throws IOException {
+        out.write(MAGIC);
+        out.write(encoding);
+    }
+
+    /** Copy everything in SRC to OUT, encoded at the configured level
+     *  (header included).  Does not close either stream. */
+    static void encode(InputStream src, OutputStream out) throws IOException {
+        int level = level();
+        byte encoding = encodingFor(level);
+        writeHeader(out, encoding);
+        if (encoding == RAW) {
+            src.transferTo(out);
+        } else {
+            Deflater deflater = new Deflater(level);
+            DeflaterOutputStream z =
+                new DeflaterOutputStream(out, deflater, Utils.BUFFER_SIZE);
+            src.transferTo(z);
+            z.finish();
+            deflater.end();
+        }
+    }
+
+    /** Return CONTENTS in stored form at the configured level. */
+    static byte[] encode(byte[] contents) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encode(new ByteArrayInputStream(contents), out);
+            return out.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the stored form of the delta payload PAYLOAD. */
+    static byte[] encodeDelta(byte[] payload) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeHeader(out, DELTA);
+            Deflater deflater = new Deflater(level());
+            DeflaterOutputStream z = new DeflaterOutputStream(out, deflater);
+            z.write(payload);
+            z.finish();
+            deflater.end();
+            return out.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream of the contents of the blob with ID, whose stored
+     *  form is read from STORED, decoding them as they are
+     *  read.  Deltas are rebuilt in memory; chunked blobs are read chunk
+     *  by chunk.  Closing the result closes STORED. */
+    static InputStream decode(ObjectId id, InputStream stored)
+        throws IOException {
+        BufferedInputStream in =
+            new BufferedInputStream(stored, Utils.BUFFER_SIZE);
+        switch (readEncoding(in)) {
+        case RAW:
+            return in;
+        case DEFLATE:
+            return new InflaterInputStream(in);
+        case DELTA:
+            try (InputStream payload = new InflaterInputStream(in)) {
+                return new ByteArrayInputStream(
+                    Delta.reconstruct(id, payload));
+            }
+        case CHUNKED:
+            return Chunker.open(in);
+        default:
+            throw new IOException("unknown blob encoding");
+        }
+    }
+
+    /** Return the delta chain length of the blob whose stored form is read
+     *  from STORED: 0 unless it is stored as a delta.  Closes STORED. */
+    static int depth(InputStream stored) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(stored)) {
+            if (readEncoding(in) != DELTA) {
+                return 0;
+            }
+            return Delta.depth(new InflaterInputStream(in));
+        }
+    }
+
+    /** Return true iff the blob with ID whose stored form is read from
+     *  STORED was written without a header.  That is so if it does not
+     *  start with MAGIC or, should its contents happen to, if what is
+     *  stored hashes to ID.  Closes STORED. */
+    static boolean isLegacy(ObjectId id, InputStream stored)
+        throws IOException {
+        try (InputStream in = stored) {
+            byte[] header = in.readNBytes(HEADER_LENGTH);
+            if (!hasMagic(header)) {
+                return true;
+            }
+            return ObjectId.hash(new SequenceInputStream(
+                       new ByteArrayInputStream(header), in)).equals(id);
+        }
+    }
+
+    /** Read the header from IN and return its encoding.  Throws
+     *  IOException if IN does not start with a header. */
+    private static byte readEncoding(InputStream in) throws IOException {
+        byte[] header = in.readNBytes(HEADER_LENGTH);
+        if (!hasMagic(header)) {
+            throw new IOException("blob has no header");
+        }
+        return header[MAGIC.length];
+    }
+
+    /** Return true iff HEADER is a complete header starting with MAGIC. */
+    private static boolean hasMagic(byte[] header) {
+        if (header.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Differential checkout: brings the working directory to a snapshot by
+ *  writing only the files whose contents differ from it.  The IDs of the
+ *  working files are found through WorkTree (so unchanged files are only
+ *  stat'ed), and the files that differ are written on several threads.
+ *  Each is written to a temporary file in Repo.GITLET and renamed over
+ *  the old one, so a working file is always either its old or its new
+ *  version, never a partial one, and its new stat data are recorded in
+ *  the StatCache with the blob ID written, so that it is not read again
+ *  by the next command.
+ *  @author Bella Chang
+ */
+class Checkout {
+
+    /** Fewest files worth handing to another worker. */
+    static final int MIN_SPLIT = 8;
+
+    /** Make the working directory hold the files TARGET (name to blob ID),
+     *  after deleting the files REMOVE, using and updating CACHE.  Return
+     *  the number of files written. */
+    static int to(StatCache cache, Map<String, ObjectId> target,
+                  Collection<String> remove) {
+        for (String name : remove) {
+            if (!target.containsKey(name)) {
+                Utils.join(Repo.CWD, name).delete();
+            }
+        }
+        Map<String, ObjectId> working =
+            WorkTree.hash(cache, new ArrayList<>(target.keySet()));
+        List<Map.Entry<String, ObjectId>> changed = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> e : target.entrySet()) {
+            if (!e.getValue().equals(working.get(e.getKey()))) {
+                changed.add(e);
+            }
+        }
+        int threads = Config.getInt(Config.WORKTREE_THREADS,
+                                    Runtime.getRuntime()
+                                    .availableProcessors());
+        if (threads <= 1 || changed.size() <= MIN_SPLIT) {
+            for (Map.Entry<String, ObjectId> e : changed) {
+                write(cache, e.getKey(), e.getValue());
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new WriteTask(cache, changed, 0,
+                                          changed.size()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return changed.size();
+    }
+
+    /** Replace the working file NAME with the blob ID, through a
+     *  temporary file of the calling thread, and record it in CACHE. */
+    private static void write(StatCache cache, String name, ObjectId id) {
+        File file = Utils.join(Repo.CWD, name);
+        Path dest = file.toPath();
+        Path tmp = Utils.join(Repo.GITLET, "checkout-"
+                              + Thread.currentThread().getId()
+                              + ".tmp").toPath();
+        try {
+            ObjectStore.copyBlobTo(id, tmp.toFile());
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            cache.recordWritten(name, StatCache.stat(file), id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+        }
+    }
+
+    /** Writes a range of files. */
+    private static class WriteTask extends RecursiveAction {
+
+        /** Writes FILES[FROM .. TO-1], recording them in CACHE. */
+        WriteTask(StatCache cache, List<Map.Entry<String, ObjectId>> files,
+                  int from, int to) {
+            _cache = cache;
+            _files = files;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from > MIN_SPLIT) {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new WriteTask(_cache, _files, _from, mid),
+                          new WriteTask(_cache, _files, mid, _to));
+                return;
+            }
+            for (int i = _from; i < _to; i += 1) {
+                write(_cache, _files.get(i).getKey(),
+                      _files.get(i).getValue());
+            }
+        }
+
+        /** The stat cache updated. */
+        private final StatCache _cache;
+        /** All files being written. */
+        private final List<Map.Entry<String, ObjectId>> _files;
+        /** The range of _files written by this task. */
+        private final int _from, _to;
+    }
+}
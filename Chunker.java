@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Content-defined chunking of large blobs with FastCDC.  A large file is
+ *  cut where a rolling "gear" hash of its bytes matches a mask, so a
+ *  local edit moves only nearby boundaries.  Each chunk is stored as an
+ *  ordinary blob under its own SHA-1, which makes identical chunks shared
+ *  across files and versions, and the file's blob ID names a manifest
+ *  listing the chunks in order: the total length, the number of chunks,
+ *  and each chunk's raw ID and length.
+ *  @author Bella Chang
+ */
+class Chunker {
+
+    /** Default size, in bytes, from which files are chunked. */
+    static final int DEFAULT_THRESHOLD = 4 << 20;
+
+    /** Default average chunk size. */
+    static final int DEFAULT_AVG_SIZE = 64 << 10;
+
+    /** Ratio of the average chunk size to the minimum, and of the maximum
+     *  to the average. */
+    static final int SPREAD = 4;
+
+    /** Seed of the gear table.  Changing it changes every boundary. */
+    static final long GEAR_SEED = 0x6769746c6574L;
+
+    /** Number of bits in a long. */
+    static final int LONG_BITS = 64;
+
+    /** Return true iff a file of LENGTH bytes is stored in chunks under the
+     *  current configuration. */
+    static boolean wanted(long length) {
+        int threshold = Config.getInt(Config.CHUNK_THRESHOLD,
+                                      DEFAULT_THRESHOLD);
+        return threshold > 0 && length >= threshold;
+    }
+
+    /** A chunker producing chunks of AVGSIZE bytes on average, which
+     *  should be a power of two. */
+    Chunker(int avgSize) {
+        int bits = Integer.numberOfTrailingZeros(Integer.highestOneBit(
+                       Math.max(avgSize, SPREAD * SPREAD)));
+        _avg = 1 << bits;
+        _min = _avg / SPREAD;
+        _max = _avg * SPREAD;
+        _maskS = topBits(bits + 1);
+        _maskL = topBits(bits - 1);
+    }
+
+    /** Return the length of the chunk starting at BUF[OFF], where LEN
+     *  bytes are available; LEN is less than the maximum chunk size only
+     *  at the end of the input.  Before the average size a stricter mask
+     *  is used, and after it a looser one (normalized chunking). */
+    int cut(byte[] buf, int off, int len) {
+        if (len <= _min) {
+            return len;
+        }
+        int n = Math.min(len, _max);
+        int normal = Math.min(n, _avg);
+        long fp = 0;
+        int i;
+        for (i = _min; i < normal; i += 1) {
+            fp = (fp << 1) + GEAR[buf[off + i] & Pack.BYTE_MASK];
+            if ((fp & _maskS) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            fp = (fp << 1) + GEAR[buf[off + i] & Pack.BYTE_MASK];
+            if ((fp & _maskL) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the maximum chunk size. */
+    int maxSize() {
+        return _max;
+    }
+
+    /** Store the contents of SOURCE as a chunked blob and return its ID:
+     *  write each chunk not already present, then the manifest.  The ID is
+     *  the hash of the chunks as they are cut, so it matches what is
+     *  stored even if SOURCE changes while it is read.  At most two
+     *  maximum-size chunks are held in memory at a time. */
+    static ObjectId store(File source) {
+        Chunker chunker = new Chunker(Config.getInt(Config.CHUNK_AVG_SIZE,
+                                                    DEFAULT_AVG_SIZE));
+        MessageDigest md = ObjectId.newDigest();
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(manifest);
+            byte[] buf = new byte[2 * chunker.maxSize()];
+            int start, end, count;
+            start = end = count = 0;
+            long total = 0;
+            boolean eof = false;
+            while (!eof || start < end) {
+                if (!eof && end - start < chunker.maxSize()) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int n = in.readNBytes(buf, end, buf.length - end);
+                    eof = end + n < buf.length;
+                    end += n;
+                    continue;
+                }
+                int len = chunker.cut(buf, start, end - start);
+                md.update(buf, start, len);
+                byte[] chunk = Arrays.copyOfRange(buf, start, start + len);
+                ObjectId chunkId = ObjectId.hash(chunk);
+                ObjectStore.writeBlob(chunkId, chunk);
+                out.write(chunkId.raw());
+                out.writeInt(len);
+                count += 1;
+                total += len;
+                start += len;
+            }
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            BlobCodec.writeHeader(stored, BlobCodec.CHUNKED);
+            DataOutputStream header = new DataOutputStream(stored);
+            header.writeLong(total);
+            header.writeInt(count);
+            manifest.writeTo(stored);
+            ObjectId id = ObjectId.fromRaw(md.digest());
+            ObjectStore.write(ObjectStore.BLOB, id, stored.toByteArray());
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream of the contents of a chunked blob whose manifest
+     *  (after the header) is read from MANIFEST.  Chunks are opened one at
+     *  a time as the result is read.  Closes MANIFEST. */
+    static InputStream open(InputStream manifest) throws IOException {
+        List<ObjectId> chunks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(manifest)) {
+            in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                chunks.add(
+                    ObjectId.fromRaw(in.readNBytes(ObjectId.RAW_LENGTH)));
+                in.readInt();
+            }
+        }
+        List<InputStream> parts = new ArrayList<>();
+        for (ObjectId chunk : chunks) {
+            parts.add(new LazyInputStream(chunk));
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    /** A stream over one chunk that is opened on first read. */
+    private static class LazyInputStream extends InputStream {
+        /** A stream over the blob with ID. */
+        LazyInputStream(ObjectId id) {
+            _id = id;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return stream().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return stream().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_in != null) {
+                _in.close();
+            }
+        }
+
+        /** Return the underlying stream, opening it if needed. */
+        private InputStream stream() {
+            if (_in == null) {
+                _in = ObjectStore.openBlob(_id);
+            }
+            return _in;
+        }
+
+        /** ID of the chunk. */
+        private final ObjectId _id;
+        /** The open chunk, or null. */
+        private InputStream _in;
+    }
+
+    /** Return a mask of the top BITS bits of a long. */
+    private static long topBits(int bits) {
+        return ((1L << bits) - 1) << (LONG_BITS - bits);
+    }
+
+    /** Return the gear table: one pseudo-random value per byte value. */
+    private static long[] gear() {
+        Random random = new Random(GEAR_SEED);
+        long[] result = new long[Pack.FANOUT];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = random.nextLong();
+        }
+        return result;
+    }
+
+    /** Values mixed into the rolling hash for each byte value. */
+    private static final long[] GEAR = gear();
+
+    /** Average, minimum and maximum chunk sizes. */
+    private final int _avg, _min, _max;
+
+    /** Masks used before and after the average size. */
+    private final long _maskS, _maskL;
+}
@@ -1,85 +1,110 @@
 package gitlet;
 
-import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-
-/** Creating a commit class.
+import java.util.Map;
+
+/** Creating a commit class.  A commit cannot be changed once it is
+ * made: its SHA-1 ID is the hash of its canonical encoding (see
+ * CommitCodec), computed once when it is created.  The tracked files are
+ * held in a Tree, of which the commit records only the root ID; the
+ * file tracker map is read from it when first asked for.  Trackers are
+ * PersistentMaps, and the last few are cached by tree ID: a new one is
+ * derived from the most recently used cached tracker by applying the
+ * Tree.diff between them, so the trackers of related commits (as in a
+ * merge or a walk through history) share most of their memory and cost
+ * time in proportion to how much they differ.
  * @author Bella Chang
  * */
-public class Commit implements Serializable {
+public class Commit {
 
     /** Message of the commit. */
-    private String _message;
+    private final String _message;
 
     /** Timestamp of the commit. */
-    private Date _timestamp;
+    private final Date _timestamp;
+
+    /** Parent SHA-1 ID, or null if none. */
+    private final ObjectId _parent;
 
-    /** Parent SHA-1 ID. */
-    private String _parent;
+    /** Merged parent SHA-1 ID, or null if none. */
+    private final ObjectId _mergedParent;
 
-    /** Merged parent SHA-1 ID. */
-    private String _mergedParent;
+    /** SHA-1 ID of the root tree, or null for a commit read from an old
+     * repository, which has only a file tracker map. */
+    private final ObjectId _tree;
 
-    /** File tracker map. */
-    private LinkedHashMap<String, String> _fileTracker;
+    /** File tracker map, or null if not read yet. */
+    private PersistentMap<String, ObjectId> _fileTracker;
+
+    /** SHA-1 ID of the commit. */
+    private final ObjectId _id;
 
     /** Constructor for a new commit.
      * @param message message;
-     * @param parent SHA-1 of parent;
+     * @param parent SHA-1 of parent, or null if none;
      * */
-    public Commit(String message, String parent) {
+    public Commit(String message, ObjectId parent) {
         _message = message;
         _parent = parent;
-        if (_parent.equals("")) {
+        if (_parent == null) {
             _timestamp = new Date(0);
         } else {
             _timestamp = new Date();
         }
-        _fileTracker = new LinkedHashMap<>();
-        _mergedParent = "";
+        _tree = Tree.EMPTY;
+        _mergedParent = null;
+        _id = ObjectId.hash(ObjectStore.encodeCommit(this));
     }
 
-    /** Copy constructor for a commit.
+    /** Constructor for a commit of a snapshot.
      * @param message message;
      * @param timestamp timestamp;
-     * @param parent SHA-1 of parent;
-     * @param parentTracker map of parent;
+     * @param parent parent SHA-1;
+     * @param mergedParent merged parent SHA-1, or null if none;
+     * @param tree SHA-1 of the root tree of the tracked files;
      * */
-    public Commit(String message, Date timestamp, String parent,
-                  LinkedHashMap<String, String> parentTracker) {
+    public Commit(String message, Date timestamp, ObjectId parent,
+                  ObjectId mergedParent, ObjectId tree) {
         _message = message;
         _parent = parent;
         _timestamp = timestamp;
-        _fileTracker = new LinkedHashMap<>();
-        for (String key : parentTracker.keySet()) {
-            _fileTracker.put(key, parentTracker.get(key));
-        }
-        _mergedParent = "";
+        _tree = tree;
+        _mergedParent = mergedParent;
+        _id = ObjectId.hash(ObjectStore.encodeCommit(this));
     }
 
-    /** Constructor for a merged commit.
+    /** Constructor for a commit read back from the object store, whose
+     * ID is already known.
+     * @param id SHA-1 ID;
      * @param message message;
      * @param timestamp timestamp;
-     * @param parent parent SHA-1;
-     * @param mergedParent merged parent SHA-1;
-     * @param trackedFiles map of commit;
+     * @param parent parent SHA-1, or null;
+     * @param mergedParent merged parent SHA-1, or null;
+     * @param tree root tree SHA-1, or null if TRACKEDFILES is given;
+     * @param trackedFiles map of commit, or null;
      * */
-    public Commit(String message, Date timestamp, String parent, String
-            mergedParent, LinkedHashMap<String, String> trackedFiles) {
+    Commit(ObjectId id, String message, Date timestamp, ObjectId parent,
+           ObjectId mergedParent, ObjectId tree,
+           LinkedHashMap<String, ObjectId> trackedFiles) {
         _message = message;
         _parent = parent;
         _timestamp = timestamp;
-        _fileTracker = trackedFiles;
+        _tree = tree;
+        if (trackedFiles != null) {
+            _fileTracker = PersistentMap.of(trackedFiles);
+        }
         _mergedParent = mergedParent;
+        _id = id;
     }
 
     /** Format for a date object (for log).
      * @param date date;
      * @return
      * */
-    public String dateFormat(Date date) {
+    public static String dateFormat(Date date) {
         SimpleDateFormat f = new SimpleDateFormat("EEE MMM dd HH:mm:ss YYYY Z");
         return f.format(date);
     }
@@ -98,58 +123,101 @@ public class Commit implements Serializable {
         return _timestamp;
     }
 
-    /** Add to file tracker map.
-     * @param file file;
-     * @param sha1 sha1;
+    /** Getter method for the parent SHA-1 ID, null if none.
      * @return
      * */
-    public void addToFileTracker(String file, String sha1) {
-        _fileTracker.put(file, sha1);
+    public ObjectId getParent() {
+        return _parent;
     }
 
-    /** Remove to file tracker map.
-     * @param file file;
-     * @param sha1 sha1;
+    /** Checks to see if a commit has a parent.
      * @return
      * */
-    public void removeFromFileTracker(String file, String sha1) {
-        _fileTracker.remove(file, sha1);
+    public boolean hasParent() {
+        return _parent != null;
     }
 
-    /** Getter method for the parent SHA-1 ID.
+    /** Getter method for merged parent SHA-1 ID, null if none.
      * @return
      * */
-    public String getParent() {
-        return _parent;
+    public ObjectId getMergedParent() {
+        return _mergedParent;
     }
 
-    /** Checks to see if a commit has a parent.
+    /** Checks to see if a commit is a merge.
      * @return
      * */
-    public boolean hasParent() {
-        return !(_parent.equals(""));
+    public boolean hasMergedParent() {
+        return _mergedParent != null;
     }
 
-    /** Getter method for merged parent SHA-1 ID.
+    /** Getter method for the root tree SHA-1 ID.
      * @return
      * */
-    public String getMergedParent() {
-        return _mergedParent;
+    public ObjectId getTree() {
+        return _tree;
     }
 
-    /** Getter method for file tracker map.
+    /** Getter method for the SHA-1 ID.
      * @return
      * */
-    public LinkedHashMap<String, String> getFileTracker() {
+    public ObjectId getId() {
+        return _id;
+    }
+
+    /** Getter method for file tracker map, which must not be changed.
+     * @return
+     * */
+    public Map<String, ObjectId> getFileTracker() {
+        if (_fileTracker == null) {
+            _fileTracker = tracker(_tree);
+        }
         return _fileTracker;
     }
 
+    /** Return the file tracker map of the tree with SHA-1 ID TREE, from
+     * the cache if possible.
+     * @param tree tree SHA-1;
+     * @return
+     * */
+    private static PersistentMap<String, ObjectId> tracker(ObjectId tree) {
+        PersistentMap<String, ObjectId> result = TRACKERS.get(tree);
+        if (result == null) {
+            Iterator<Map.Entry<ObjectId, PersistentMap<String, ObjectId>>>
+                it = TRACKERS.entrySet().iterator();
+            Map.Entry<ObjectId, PersistentMap<String, ObjectId>> latest =
+                null;
+            while (it.hasNext()) {
+                latest = it.next();
+            }
+            if (latest == null) {
+                result = PersistentMap.of(Tree.files(tree));
+            } else {
+                result = latest.getValue().plusAll(
+                    Tree.diff(latest.getKey(), tree));
+            }
+            TRACKERS.put(tree, result);
+        }
+        return result;
+    }
+
     /** Gets SHA-1 ID of a commit.
      * @return
      * */
     public String toString() {
-        String timeInString = _timestamp.toString();
-        String files = _fileTracker.toString();
-        return Utils.sha1(files, _parent, _message, timeInString);
+        return _id.toString();
     }
+
+    /** Number of file tracker maps kept in TRACKERS. */
+    static final int TRACKER_CACHE_SIZE = 16;
+
+    /** Recently used file tracker maps by tree ID, least recent first. */
+    private static final Map<ObjectId, PersistentMap<String, ObjectId>>
+        TRACKERS = new LinkedHashMap<>(TRACKER_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<ObjectId, PersistentMap<String, ObjectId>> eldest) {
+                return size() > TRACKER_CACHE_SIZE;
+            }
+        };
 }
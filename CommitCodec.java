@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/** The binary encoding of commits.  An encoded commit is:
+ *  <pre>
+ *    'g' 'c' VERSION
+ *    int message length, message bytes (UTF-8)
+ *    long timestamp (milliseconds since the epoch)
+ *    byte number of parents, then each parent as a raw 20-byte ID
+ *    raw 20-byte ID of the root Tree
+ *  </pre>
+ *  A commit's ID is the SHA-1 of its encoding, which is canonical: equal
+ *  commits encode to equal bytes.  Versions 1 and 2 ended instead with the
+ *  tracked files: an int count, then for each in path order its int path
+ *  length, path bytes (UTF-8) and raw 20-byte blob ID.  Version 1 commits
+ *  were identified differently, so their IDs are not checked when they are
+ *  read.  A codec reuses its encoding buffer across calls, so one codec
+ *  should be used by one thread at a time.
+ *  @author Bella Chang
+ */
+class CommitCodec {
+
+    /** Leading bytes of an encoded commit. */
+    static final byte[] MAGIC = { 'g', 'c' };
+
+    /** Version of the encoding. */
+    static final byte VERSION = 3;
+
+    /** Version of the encoding that lists the tracked files. */
+    static final byte FLAT_VERSION = 2;
+
+    /** Version of the encoding that lists the tracked files and whose
+     *  commits are not identified by the hash of their encoding. */
+    static final byte UNHASHED_VERSION = 1;
+
+    /** Initial size of the encoding buffer. */
+    static final int INITIAL_SIZE = 1 << 12;
+
+    /** Return true iff DATA holds a commit in this encoding (as opposed to
+     *  a Java-serialized commit written by older versions). */
+    static boolean isEncoded(byte[] data) {
+        return data.length > MAGIC.length && data[0] == MAGIC[0]
+            && data[1] == MAGIC[1];
+    }
+
+    /** Return the encoding of COMMIT. */
+    byte[] encode(Commit commit) {
+        _buf.clear();
+        _buf.put(MAGIC);
+        _buf.put(VERSION);
+        putString(commit.getMessage());
+        ensure(Long.BYTES + 1 + 3 * ObjectId.RAW_LENGTH);
+        _buf.putLong(commit.getTimestamp().getTime());
+        List<ObjectId> parents = new ArrayList<>();
+        if (commit.hasParent()) {
+            parents.add(commit.getParent());
+        }
+        if (commit.hasMergedParent()) {
+            parents.add(commit.getMergedParent());
+        }
+        _buf.put((byte) parents.size());
+        for (ObjectId parent : parents) {
+            parent.putTo(_buf);
+        }
+        commit.getTree().putTo(_buf);
+        byte[] result = new byte[_buf.position()];
+        _buf.flip();
+        _buf.get(result);
+        return result;
+    }
+
+    /** Return the commit with ID encoded in DATA.  Throws
+     *  IllegalArgumentException if DATA is not an encoded commit of a
+     *  known version, or is not the encoding of the commit named ID. */
+    Commit decode(ObjectId id, byte[] data) {
+        byte version = isEncoded(data) ? data[MAGIC.length] : 0;
+        if (version != VERSION && version != FLAT_VERSION
+            && version != UNHASHED_VERSION) {
+            throw new IllegalArgumentException("unknown commit encoding");
+        }
+        if (version != UNHASHED_VERSION && !ObjectId.hash(data).equals(id)) {
+            throw new IllegalArgumentException("corrupt commit " + id);
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        in.position(MAGIC.length + 1);
+        String message = getString(in);
+        Date timestamp = new Date(in.getLong());
+        int nparents = in.get();
+        ObjectId parent = nparents > 0 ? ObjectId.fromRaw(in) : null;
+        ObjectId mergedParent = nparents > 1 ? ObjectId.fromRaw(in) : null;
+        if (version == VERSION) {
+            return new Commit(id, message, timestamp, parent, mergedParent,
+                              ObjectId.fromRaw(in), null);
+        }
+        int nfiles = in.getInt();
+        LinkedHashMap<String, ObjectId> tracker = new LinkedHashMap<>();
+        for (int i = 0; i < nfiles; i += 1) {
+            String path = getString(in);
+            tracker.put(path, ObjectId.fromRaw(in));
+        }
+        return new Commit(id, message, timestamp, parent, mergedParent,
+                          null, tracker);
+    }
+
+    /** Append S, length first, to the buffer. */
+    private void putString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensure(Integer.BYTES + bytes.length);
+        _buf.putInt(bytes.length);
+        _buf.put(bytes);
+    }
+
+    /** Return the length-prefixed string at the position of IN. */
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        String result = new String(in.array(), in.position(), length,
+                                   StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return result;
+    }
+
+    /** Grow the buffer, if needed, so that N more bytes fit. */
+    private void ensure(int n) {
+        if (_buf.remaining() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(
+                Math.max(2 * _buf.capacity(), _buf.position() + n));
+            _buf.flip();
+            bigger.put(_buf);
+            _buf = bigger;
+        }
+    }
+
+    /** Encoding buffer, reused across calls. */
+    private ByteBuffer _buf = ByteBuffer.allocate(INITIAL_SIZE);
+}
@@ -0,0 +1,491 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/** The commit graph: a dense table of every commit's parents, generation
+ *  number, time and message, so that ancestry questions, logs and
+ *  searches by message are answered without reading commit objects.  The
+ *  file (Repo.COMMIT_GRAPH) holds a header (magic, version) followed by
+ *  fixed-size records of the form
+ *  <pre>
+ *    raw 20-byte commit ID
+ *    int position of the first parent, or NONE
+ *    int position of the merged parent, or NONE
+ *    int generation (1 for a root, else 1 + that of its highest parent)
+ *    long commit time (milliseconds since the epoch)
+ *    long position of the message in Repo.COMMIT_MESSAGES
+ *  </pre>
+ *  where the messages file is a heap of entries (int length, then that
+ *  many bytes of UTF-8).  Every commit's parents come before it, so new
+ *  commits are appended without rewriting either file; messages are
+ *  written before the records that refer to them.  Both files are
+ *  memory-mapped, the messages file in pieces of SEGMENT_SIZE bytes so
+ *  that it may grow past 2 GiB.  Positions are found by ID in the
+ *  IdIndex, by binary search, and for the commits added since it was
+ *  last written, in an open-addressing table built when the graph is
+ *  opened; so opening the graph does not read every record.  Every commit made
+ *  in the repository is added, so the records are also a catalog of all
+ *  commits, in the order they were made.
+ *  @author Bella Chang
+ */
+class CommitGraph {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x47434731;
+
+    /** Current format version. */
+    static final int VERSION = 2;
+
+    /** Size of the header (magic, version). */
+    static final int HEADER_SIZE = 8;
+
+    /** Position in the header of the version. */
+    static final int VERSION_POS = 4;
+
+    /** Size of one record. */
+    static final int RECORD_SIZE = ObjectId.RAW_LENGTH + 3 * Integer.BYTES
+        + 2 * Long.BYTES;
+
+    /** Offsets within a record of its fields. */
+    static final int PARENT_POS = ObjectId.RAW_LENGTH,
+        MERGED_POS = PARENT_POS + Integer.BYTES,
+        GENERATION_POS = MERGED_POS + Integer.BYTES,
+        TIME_POS = GENERATION_POS + Integer.BYTES,
+        MESSAGE_POS = TIME_POS + Long.BYTES;
+
+    /** Parent position of a commit without that parent. */
+    static final int NONE = -1;
+
+    /** Size of the pieces in which the messages file is mapped. */
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    /** Return the commit graph of the repository, opening it if needed.
+     *  A missing file is an empty graph.  If IdIndex.MIN_REWRITE commits
+     *  or more are not in the IdIndex, it is rewritten first. */
+    static CommitGraph get() {
+        if (_current == null) {
+            CommitGraph graph = open();
+            if (graph._count - graph._ids.covered() >= IdIndex.MIN_REWRITE) {
+                graph._ids.rewrite(graph);
+                graph = open();
+            }
+            _current = graph;
+        }
+        return _current;
+    }
+
+    /** Close the open graph if its file has been changed by another
+     *  process, so that get opens it again. */
+    static void revalidate() {
+        if (_current != null
+            && !Arrays.equals(_current._stamp,
+                              StatCache.stat(_current._file))) {
+            _current = null;
+        }
+    }
+
+    /** Append COMMIT, and any of its ancestors not yet present, to the
+     *  graph file.  Ancestors already in the graph are not read. */
+    static void add(Commit commit) {
+        add(List.of(commit));
+    }
+
+    /** Append COMMITS, and any of their ancestors not yet present, to the
+     *  graph file.  Ancestors already in the graph or among COMMITS are
+     *  not read. */
+    static void add(List<Commit> commits) {
+        CommitGraph graph = get();
+        HashMap<ObjectId, Commit> seen = new HashMap<>();
+        for (Commit c : commits) {
+            seen.put(c.getId(), c);
+        }
+        HashSet<ObjectId> done = new HashSet<>();
+        List<Commit> missing = new ArrayList<>();
+        ArrayDeque<Commit> todo = new ArrayDeque<>();
+        for (Commit c : commits) {
+            if (done.contains(c.getId()) || graph.find(c.getId()) >= 0) {
+                continue;
+            }
+            todo.push(c);
+            while (!todo.isEmpty()) {
+                Commit top = todo.peek();
+                ObjectId next = null;
+                for (ObjectId p : parents(top)) {
+                    if (!done.contains(p) && graph.find(p) < 0) {
+                        next = p;
+                        break;
+                    }
+                }
+                if (next == null) {
+                    done.add(top.getId());
+                    missing.add(todo.pop());
+                } else {
+                    Commit parent = seen.get(next);
+                    if (parent == null) {
+                        parent = ObjectStore.readCommit(next);
+                        seen.put(next, parent);
+                    }
+                    todo.push(parent);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            append(graph, missing);
+        }
+    }
+
+    /** Write the graph file afresh from every commit in the object
+     *  store.  Since commits may change positions, the IdIndex and
+     *  MessageIndex are dropped. */
+    static void build() {
+        HashMap<ObjectId, Commit> all = new HashMap<>();
+        for (ObjectId id : ObjectStore.ids(ObjectStore.COMMIT)) {
+            all.put(id, ObjectStore.readCommit(id));
+        }
+        List<Commit> ordered = new ArrayList<>();
+        HashSet<ObjectId> done = new HashSet<>();
+        for (Commit c : all.values()) {
+            ArrayDeque<Commit> todo = new ArrayDeque<>();
+            todo.push(c);
+            while (!todo.isEmpty()) {
+                Commit top = todo.peek();
+                if (done.contains(top.getId())) {
+                    todo.pop();
+                    continue;
+                }
+                Commit next = null;
+                for (ObjectId p : parents(top)) {
+                    if (!done.contains(p)) {
+                        next = all.get(p);
+                        break;
+                    }
+                }
+                if (next == null) {
+                    done.add(top.getId());
+                    ordered.add(todo.pop());
+                } else {
+                    todo.push(next);
+                }
+            }
+        }
+        File tmp = new File(Repo.GITLET, "commit-graph.tmp");
+        File messagesTmp = new File(Repo.GITLET, "commit-messages.tmp");
+        tmp.delete();
+        messagesTmp.delete();
+        append(new CommitGraph(tmp, messagesTmp, null), ordered);
+        Repo.COMMIT_IDS.delete();
+        try {
+            Files.move(messagesTmp.toPath(), Repo.COMMIT_MESSAGES.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmp.toPath(), Repo.COMMIT_GRAPH.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Repo.MESSAGE_INDEX.delete();
+        _current = null;
+    }
+
+    /** Return the number of commits in this graph. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the position of the commit ID in this graph, or -1 if it is
+     *  not present. */
+    int find(ObjectId id) {
+        int mask = _table.length - 1;
+        for (int h = id.hashCode() & mask; _table[h] != 0;
+             h = (h + 1) & mask) {
+            int k = _table[h] - 1;
+            if (id.compareTo(_data, record(k)) == 0) {
+                return k;
+            }
+        }
+        return _ids.find(id);
+    }
+
+    /** Return the IdIndex of this graph. */
+    IdIndex ids() {
+        return _ids;
+    }
+
+    /** Return the ID of the commit at position K. */
+    ObjectId id(int k) {
+        return ObjectId.fromRaw(_data, record(k));
+    }
+
+    /** Return the position of the first parent of the commit at K, or
+     *  NONE. */
+    int parent(int k) {
+        return _data.getInt(record(k) + PARENT_POS);
+    }
+
+    /** Return the position of the merged parent of the commit at K, or
+     *  NONE. */
+    int mergedParent(int k) {
+        return _data.getInt(record(k) + MERGED_POS);
+    }
+
+    /** Return the generation number of the commit at K. */
+    int generation(int k) {
+        return _data.getInt(record(k) + GENERATION_POS);
+    }
+
+    /** Return the time, in milliseconds since the epoch, of the commit at
+     *  K. */
+    long time(int k) {
+        return _data.getLong(record(k) + TIME_POS);
+    }
+
+    /** Return the message of the commit at K. */
+    String message(int k) {
+        long pos = messagePosition(k);
+        byte[] length = new byte[Integer.BYTES];
+        readMessages(pos, length);
+        byte[] bytes = new byte[ByteBuffer.wrap(length).getInt()];
+        readMessages(pos + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return the position in the messages file of the entry of the
+     *  commit at K. */
+    private long messagePosition(int k) {
+        return _data.getLong(record(k) + MESSAGE_POS);
+    }
+
+    /** Fill DEST with the bytes of the messages file from POS on, which
+     *  may span segments. */
+    private void readMessages(long pos, byte[] dest) {
+        for (int done = 0; done < dest.length; ) {
+            ByteBuffer segment = _messages[(int) (pos / SEGMENT_SIZE)];
+            int off = (int) (pos % SEGMENT_SIZE);
+            int n = Math.min(dest.length - done, segment.capacity() - off);
+            segment.get(off, dest, done, n);
+            done += n;
+            pos += n;
+        }
+    }
+
+    /** Return the graph of the repository, as it is in its files. */
+    private static CommitGraph open() {
+        return new CommitGraph(Repo.COMMIT_GRAPH, Repo.COMMIT_MESSAGES,
+                               Repo.COMMIT_IDS);
+    }
+
+    /** Opens the graph in FILE, whose messages are in MESSAGES and whose
+     *  IdIndex is in IDS, any of which may not exist yet (and IDS may be
+     *  null).  Throws IllegalArgumentException if they are malformed. */
+    private CommitGraph(File file, File messages, File ids) {
+        _file = file;
+        _messagesFile = messages;
+        _stamp = StatCache.stat(file);
+        _messages = mapSegments(messages);
+        if (!file.isFile()) {
+            _data = ByteBuffer.allocate(HEADER_SIZE);
+            _count = 0;
+        } else {
+            _data = map(file);
+            if (_data.capacity() < HEADER_SIZE
+                    || _data.getInt(0) != MAGIC
+                    || _data.getInt(VERSION_POS) != VERSION) {
+                throw new IllegalArgumentException("bad commit graph");
+            }
+            _count = (_data.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        }
+        _ids = new IdIndex(ids, this);
+        int recent = _count - _ids.covered();
+        _table = new int[Integer.highestOneBit(Math.max(1, recent)) << 2];
+        int mask = _table.length - 1;
+        for (int k = _ids.covered(); k < _count; k += 1) {
+            int h = _data.getInt(record(k)) & mask;
+            while (_table[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            _table[h] = k + 1;
+        }
+    }
+
+    /** Return the contents of FILE, mapped, or an empty buffer if it does
+     *  not exist. */
+    private static ByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of FILE, mapped in pieces of SEGMENT_SIZE
+     *  bytes, of which there are none if it does not exist. */
+    private static ByteBuffer[] mapSegments(File file) {
+        if (!file.isFile()) {
+            return new ByteBuffer[0];
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = ch.size();
+            int segments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            ByteBuffer[] result = new ByteBuffer[segments];
+            for (int i = 0; i < result.length; i += 1) {
+                long pos = (long) i * SEGMENT_SIZE;
+                result[i] = ch.map(FileChannel.MapMode.READ_ONLY, pos,
+                                   Math.min(SEGMENT_SIZE, size - pos));
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the position in the file of record K. */
+    private static int record(int k) {
+        return HEADER_SIZE + k * RECORD_SIZE;
+    }
+
+    /** Return the parents of COMMIT, first parent first. */
+    private static List<ObjectId> parents(Commit commit) {
+        List<ObjectId> result = new ArrayList<>(2);
+        if (commit.hasParent()) {
+            result.add(commit.getParent());
+        }
+        if (commit.hasMergedParent()) {
+            result.add(commit.getMergedParent());
+        }
+        return result;
+    }
+
+    /** Append records for COMMITS, each of whose parents is in GRAPH or
+     *  earlier in COMMITS, to the file of GRAPH, writing its header first
+     *  if it is new, and their messages to its messages file.  Anything
+     *  after the last whole record of GRAPH (as left by an interrupted
+     *  append) is overwritten. */
+    private static void append(CommitGraph graph, List<Commit> commits) {
+        long[] messages = appendMessages(graph._messagesFile, commits);
+        Map<ObjectId, Integer> added = new HashMap<>();
+        Map<ObjectId, Integer> generations = new HashMap<>();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE
+                                             + commits.size() * RECORD_SIZE);
+        boolean fresh = !graph._file.isFile();
+        if (fresh) {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+        }
+        for (int j = 0; j < commits.size(); j += 1) {
+            Commit c = commits.get(j);
+            int[] positions = { NONE, NONE };
+            int generation = 1;
+            List<ObjectId> parents = parents(c);
+            for (int i = 0; i < parents.size(); i += 1) {
+                ObjectId p = parents.get(i);
+                int k = graph.find(p);
+                int g;
+                if (k >= 0) {
+                    g = graph.generation(k);
+                } else {
+                    k = added.get(p);
+                    g = generations.get(p);
+                }
+                positions[i] = k;
+                generation = Math.max(generation, g + 1);
+            }
+            added.put(c.getId(), graph._count + added.size());
+            generations.put(c.getId(), generation);
+            c.getId().putTo(out);
+            out.putInt(positions[0]);
+            out.putInt(positions[1]);
+            out.putInt(generation);
+            out.putLong(c.getTimestamp().getTime());
+            out.putLong(messages[j]);
+        }
+        out.flip();
+        long pos = fresh ? 0 : record(graph._count);
+        try (FileChannel ch = FileChannel.open(graph._file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ch.truncate(pos);
+            while (out.hasRemaining()) {
+                pos += ch.write(out, pos);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (graph == _current) {
+            _current = null;
+        }
+    }
+
+    /** Append the messages of COMMITS to the file MESSAGES.  Return their
+     *  positions in it. */
+    private static long[] appendMessages(File messages,
+                                         List<Commit> commits) {
+        long[] result = new long[commits.size()];
+        long pos = messages.length();
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(messages, true),
+                     Utils.BUFFER_SIZE))) {
+            for (int j = 0; j < commits.size(); j += 1) {
+                byte[] bytes = commits.get(j).getMessage()
+                    .getBytes(StandardCharsets.UTF_8);
+                result[j] = pos;
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                pos += Integer.BYTES + bytes.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** The graph file. */
+    private final File _file;
+
+    /** The messages file. */
+    private final File _messagesFile;
+
+    /** Stat data of the file when opened, or null if it did not exist. */
+    private final long[] _stamp;
+
+    /** The mapped file, or an empty header if there is no file. */
+    private final ByteBuffer _data;
+
+    /** The mapped messages file, in segments of SEGMENT_SIZE bytes. */
+    private final ByteBuffer[] _messages;
+
+    /** Number of commits. */
+    private final int _count;
+
+    /** The index of the IDs of the first commits. */
+    private final IdIndex _ids;
+
+    /** Open-addressing table of the positions plus one (0 is empty) of
+     *  the commits not in _ids, indexed by the leading bits of each ID. */
+    private final int[] _table;
+
+    /** The open graph of the repository, or null if not yet opened. */
+    private static CommitGraph _current;
+}
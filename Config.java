@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/** Tunable settings of a repository.  Settings are read from the
+ *  properties file Repo.CONFIG, if present, and may be overridden for a
+ *  single run with a system property of the same name prefixed by
+ *  "gitlet." (e.g. -Dgitlet.core.compression=0).
+ *  @author Bella Chang
+ */
+class Config {
+
+    /** Deflate level for stored blobs, 0 (store uncompressed) to 9, or -1
+     *  for the Deflater default. */
+    static final String COMPRESSION = "core.compression";
+
+    /** Longest chain of deltas allowed when storing a blob as a delta. */
+    static final String DELTA_MAX_DEPTH = "delta.maxDepth";
+
+    /** Largest blob, in bytes, that is stored as or used as a delta
+     *  base. */
+    static final String DELTA_MAX_SIZE = "delta.maxSize";
+
+    /** Bound, in bytes, on the cache of blobs rebuilt from deltas. */
+    static final String DELTA_CACHE_SIZE = "delta.cacheSize";
+
+    /** Size, in bytes, from which files are stored in content-defined
+     *  chunks; 0 or less turns chunking off. */
+    static final String CHUNK_THRESHOLD = "chunk.threshold";
+
+    /** Average size, in bytes, of chunks (a power of two). */
+    static final String CHUNK_AVG_SIZE = "chunk.avgSize";
+
+    /** Number of threads that hash working files. */
+    static final String WORKTREE_THREADS = "worktree.threads";
+
+    /** Bound, in bytes, on the working files being hashed at once. */
+    static final String WORKTREE_MAX_BYTES = "worktree.maxBytesInFlight";
+
+    /** Number of decoded commits, and of decoded trees, kept in memory
+     *  while a command runs. */
+    static final String CACHE_SIZE = "core.cacheSize";
+
+    /** Return the integer setting KEY, or DEFAULT if it is not set.
+     *  Throws a GitletException if the setting is not an integer. */
+    static int getInt(String key, int dflt) {
+        String value = get(key);
+        if (value == null) {
+            return dflt;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s: %s", key, value);
+        }
+    }
+
+    /** Return the setting KEY, or null if it is not set. */
+    static String get(String key) {
+        String value = System.getProperty("gitlet." + key);
+        if (value != null) {
+            return value;
+        }
+        return properties().getProperty(key);
+    }
+
+    /** Forget the settings read, so that they are read again when next
+     *  needed. */
+    static synchronized void reload() {
+        _properties = null;
+    }
+
+    /** Return the settings in Repo.CONFIG, reading them if needed. */
+    private static synchronized Properties properties() {
+        if (_properties == null) {
+            _properties = new Properties();
+            if (Repo.CONFIG.isFile()) {
+                try (InputStream in =
+                         Files.newInputStream(Repo.CONFIG.toPath())) {
+                    _properties.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return _properties;
+    }
+
+    /** Settings read from Repo.CONFIG, or null if not yet read. */
+    private static Properties _properties;
+}
@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** A long-running server for one repository, so that a sequence of
+ *  commands pays for starting and warming up the JVM once, and finds the
+ *  commits, trees, refs and stat data it has already read still in
+ *  memory.  The daemon listens on the Unix domain socket
+ *  Repo.DAEMON_SOCKET.  Main forwards each command to it when the socket
+ *  exists, as
+ *  <pre>
+ *    int number of arguments, then each argument (DataOutput.writeUTF)
+ *  </pre>
+ *  and copies back what the command prints, as a sequence of frames
+ *  <pre>
+ *    byte OUT or ERR, int length, that many bytes
+ *  </pre>
+ *  ended by the byte END and an int exit status.  Commands are run one at
+ *  a time, which serializes them as separate processes would not, and
+ *  before each one every cache whose file has been changed since it was
+ *  read (by a process not using the daemon) is dropped.
+ *  @author Bella Chang
+ */
+class Daemon {
+
+    /** Frame kinds: standard output, standard error, and end of
+     *  command. */
+    static final byte END = 0, OUT = 1, ERR = 2;
+
+    /** Serve commands for the repository in the current directory until
+     *  asked to stop (by "daemon --stop").  Throws a GitletException if
+     *  there is no repository. */
+    static void serve() throws IOException {
+        if (!Repo.GITLET.exists()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        Path path = Repo.DAEMON_SOCKET.toPath();
+        Files.deleteIfExists(path);
+        Repo repo = new Repo();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(path));
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(repo, client);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /** Return true iff a daemon answers on Repo.DAEMON_SOCKET.  The
+     *  connection is closed at once, which the daemon ignores. */
+    static boolean running() {
+        try (SocketChannel ch = SocketChannel.open(
+                 UnixDomainSocketAddress.of(Repo.DAEMON_SOCKET.toPath()))) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Run the command ARGS in the daemon, if there is one, printing what
+     *  it prints.  Return its exit status, or -1 if no daemon could be
+     *  reached, in which case nothing has been run.  If the output can no
+     *  longer be printed (as when it is a pipe whose reader has exited),
+     *  stop reading, which ends the command in the daemon too. */
+    static int forward(String... args) {
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(
+                UnixDomainSocketAddress.of(Repo.DAEMON_SOCKET.toPath()));
+        } catch (IOException excp) {
+            return -1;
+        }
+        try (ch) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(ch)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                Channels.newInputStream(ch));
+            byte[] buf = new byte[Utils.BUFFER_SIZE];
+            for (byte kind = in.readByte(); kind != END;
+                 kind = in.readByte()) {
+                PrintStream dest = kind == ERR ? System.err : System.out;
+                for (int n = in.readInt(); n > 0; ) {
+                    int k = in.read(buf, 0, Math.min(n, buf.length));
+                    if (k < 0) {
+                        throw new IOException("daemon closed connection");
+                    }
+                    dest.write(buf, 0, k);
+                    n -= k;
+                }
+                if (dest.checkError()) {
+                    return 0;
+                }
+            }
+            System.out.flush();
+            System.err.flush();
+            return in.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Run the command read from CLIENT on REPO, sending back its output.
+     *  Return false iff the command asks the daemon to stop. */
+    private static boolean handle(Repo repo, SocketChannel client)
+        throws IOException {
+        DataInputStream in = new DataInputStream(
+            Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream stdout = System.out, stderr = System.err;
+        PrintStream cmdOut = new PrintStream(new Frames(out, OUT));
+        PrintStream cmdErr = new PrintStream(new Frames(out, ERR));
+        boolean daemon = args.length > 0 && args[0].equals("daemon");
+        boolean stop = daemon && args.length > 1
+            && args[1].equals("--stop");
+        int status = 0;
+        System.setOut(cmdOut);
+        System.setErr(cmdErr);
+        try {
+            if (daemon && !stop) {
+                throw Utils.error("A daemon is already running.");
+            }
+            if (!daemon) {
+                Config.reload();
+                ObjectStore.revalidate();
+                CommitGraph.revalidate();
+                repo.revalidate();
+                Main.run(repo, args);
+                repo.flush();
+            }
+        } catch (GitletException excp) {
+            repo.discard();
+            System.out.println(excp.getMessage());
+        } catch (RuntimeException | IOException excp) {
+            repo.discard();
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        cmdOut.flush();
+        cmdErr.flush();
+        out.writeByte(END);
+        out.writeInt(status);
+        out.flush();
+        return !stop;
+    }
+
+    /** An output stream that sends what is written to it as frames of one
+     *  kind. */
+    private static class Frames extends OutputStream {
+
+        /** Frames of kind KIND, sent to OUT. */
+        Frames(DataOutputStream out, byte kind) {
+            _out = out;
+            _kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.writeByte(_kind);
+                _out.writeInt(len);
+                _out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /** Where frames are sent. */
+        private final DataOutputStream _out;
+        /** Kind of the frames. */
+        private final byte _kind;
+    }
+}
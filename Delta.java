@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line-level deltas between blobs, computed with Diff.  A delta payload
+ *  holds the raw ID of its base blob, the length of its chain (1 for a
+ *  delta against a full blob), the length of the result, and a sequence
+ *  of operations that either copy a run of lines from the base or insert
+ *  new lines.  Lines keep their terminators, so reconstruction is exact
+ *  for any bytes.  Recently reconstructed blobs are kept in a cache
+ *  bounded by total size so that walking a chain stays cheap.
+ *  @author Bella Chang
+ */
+class Delta {
+
+    /** Operation copying lines from the base. */
+    static final byte COPY = 0;
+
+    /** Operation inserting new lines. */
+    static final byte INSERT = 1;
+
+    /** Largest memo table Diff may use for one gap between anchors. */
+    static final long MAX_CELLS = 1L << 22;
+
+    /** Default bound on chain length. */
+    static final int DEFAULT_MAX_DEPTH = 10;
+
+    /** Default size bound for delta-compressed blobs and their bases. */
+    static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+    /** Default size bound of the cache of reconstructed blobs. */
+    static final int DEFAULT_CACHE_SIZE = 32 << 20;
+
+    /** Return a delta payload that turns the blob with ID BASEID into
+     *  TARGET, or null if a delta is not allowed (chain too
+     *  long, blobs too large) or would not save at least half of TARGET.
+     *  The edit comes from Diff.anchoredDiffs, so cost stays near linear
+     *  when the versions differ in a few places. */
+    static byte[] encode(ObjectId baseId, byte[] target) {
+        int maxSize = Config.getInt(Config.DELTA_MAX_SIZE, DEFAULT_MAX_SIZE);
+        int depth = ObjectStore.blobDepth(baseId) + 1;
+        if (target.length > maxSize || depth
+            > Config.getInt(Config.DELTA_MAX_DEPTH, DEFAULT_MAX_DEPTH)) {
+            return null;
+        }
+        byte[] base = ObjectStore.readBlob(baseId, maxSize);
+        if (base == null) {
+            return null;
+        }
+        List<String> targetLines = lines(target);
+        Diff diff = new Diff();
+        diff.setSequences(lines(base), targetLines);
+        int[] edits = diff.anchoredDiffs(MAX_CELLS);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(baseId.raw());
+            out.writeInt(depth);
+            out.writeInt(target.length);
+            writeOps(out, edits, diff.sequence1().size(), targetLines);
+            out.close();
+            return 2 * bytes.size() > target.length ? null
+                : bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the chain length recorded in the delta payload read from
+     *  PAYLOAD. */
+    static int depth(InputStream payload) throws IOException {
+        DataInputStream in = new DataInputStream(payload);
+        in.skipNBytes(ObjectId.RAW_LENGTH);
+        return in.readInt();
+    }
+
+    /** Return the contents of the blob with ID, rebuilt from the delta
+     *  payload read from PAYLOAD, and cache them. */
+    static byte[] reconstruct(ObjectId id, InputStream payload)
+        throws IOException {
+        DataInputStream in = new DataInputStream(payload);
+        ObjectId baseId =
+            ObjectId.fromRaw(in.readNBytes(ObjectId.RAW_LENGTH));
+        in.readInt();
+        int length = in.readInt();
+        byte[] base = ObjectStore.readBlob(baseId);
+        cache(baseId, base);
+        List<String> baseLines = lines(base);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        int nops = in.readInt();
+        for (int i = 0; i < nops; i += 1) {
+            if (in.readByte() == COPY) {
+                int start = in.readInt(), count = in.readInt();
+                for (int k = start; k < start + count; k += 1) {
+                    out.write(baseLines.get(k)
+                              .getBytes(StandardCharsets.ISO_8859_1));
+                }
+            } else {
+                out.write(in.readNBytes(in.readInt()));
+            }
+        }
+        byte[] result = out.toByteArray();
+        cache(id, result);
+        return result;
+    }
+
+    /** Return the cached contents of the blob with ID, or null if they are
+     *  not cached. */
+    static synchronized byte[] cached(ObjectId id) {
+        return CACHE.get(id);
+    }
+
+    /** Write the operations for the edit EDITS (as from Diff.diffs) of a
+     *  base with BASESIZE lines into TARGET to OUT. */
+    private static void writeOps(DataOutputStream out, int[] edits,
+                                 int baseSize, List<String> target)
+        throws IOException {
+        ByteArrayOutputStream ops = new ByteArrayOutputStream();
+        DataOutputStream opsOut = new DataOutputStream(ops);
+        int nops, pos;
+        nops = pos = 0;
+        for (int k = 0; k < edits.length; k += 4) {
+            if (edits[k] > pos) {
+                writeCopy(opsOut, pos, edits[k] - pos);
+                nops += 1;
+            }
+            if (edits[k + 3] > 0) {
+                ByteArrayOutputStream inserted = new ByteArrayOutputStream();
+                for (int j = edits[k + 2]; j < edits[k + 2] + edits[k + 3];
+                     j += 1) {
+                    inserted.write(target.get(j)
+                                   .getBytes(StandardCharsets.ISO_8859_1));
+                }
+                opsOut.writeByte(INSERT);
+                opsOut.writeInt(inserted.size());
+                inserted.writeTo(opsOut);
+                nops += 1;
+            }
+            pos = edits[k] + edits[k + 1];
+        }
+        if (pos < baseSize) {
+            writeCopy(opsOut, pos, baseSize - pos);
+            nops += 1;
+        }
+        out.writeInt(nops);
+        ops.writeTo(out);
+    }
+
+    /** Write a COPY of COUNT lines starting at START to OUT. */
+    private static void writeCopy(DataOutputStream out, int start, int count)
+        throws IOException {
+        out.writeByte(COPY);
+        out.writeInt(start);
+        out.writeInt(count);
+    }
+
+    /** Return the lines of CONTENTS, each with its terminating newline (if
+     *  any), as Strings holding one char per byte. */
+    static List<String> lines(byte[] contents) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (contents[i] == '\n') {
+                result.add(new String(contents, start, i + 1 - start,
+                                      StandardCharsets.ISO_8859_1));
+                start = i + 1;
+            }
+        }
+        if (start < contents.length) {
+            result.add(new String(contents, start, contents.length - start,
+                                  StandardCharsets.ISO_8859_1));
+        }
+        return result;
+    }
+
+    /** Remember CONTENTS as those of the blob with ID, evicting the least
+     *  recently used entries to stay within the configured cache size. */
+    private static synchronized void cache(ObjectId id,
+                                           byte[] contents) {
+        int limit = Config.getInt(Config.DELTA_CACHE_SIZE,
+                                  DEFAULT_CACHE_SIZE);
+        if (contents.length > limit || CACHE.containsKey(id)) {
+            return;
+        }
+        CACHE.put(id, contents);
+        _cacheBytes += contents.length;
+        Iterator<byte[]> it = CACHE.values().iterator();
+        while (_cacheBytes > limit && it.hasNext()) {
+            _cacheBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /** Reconstructed blobs by ID, least recently used first. */
+    private static final Map<ObjectId, byte[]> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of the contents in CACHE. */
+    private static long _cacheBytes;
+}
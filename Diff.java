@@ -9,6 +9,7 @@ import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
@@ -224,6 +225,128 @@ public class Diff {
         return toIntArr(result);
     }
 
+    /** Return the same kind of edit as diffs(), but computed only over the
+     *  lines between the longest common prefix and the longest common
+     *  suffix of the current sequences, which is far cheaper when they
+     *  differ in a few places.  Returns null if the remaining middle parts
+     *  would need a memo table of more than MAXCELLS entries. */
+    public int[] trimmedDiffs(long maxCells) {
+        checkData();
+        int n1 = _lines1.size(), n2 = _lines2.size();
+        int pre, suf;
+        pre = 0;
+        while (pre < n1 && pre < n2
+               && _lines1.get(pre).equals(_lines2.get(pre))) {
+            pre += 1;
+        }
+        suf = 0;
+        while (suf < n1 - pre && suf < n2 - pre
+               && _lines1.get(n1 - 1 - suf).equals(_lines2.get(n2 - 1 - suf))) {
+            suf += 1;
+        }
+        if ((long) (n1 - pre - suf + 1) * (n2 - pre - suf + 1) > maxCells) {
+            return null;
+        }
+        List<String> all1 = _lines1, all2 = _lines2;
+        setSequences(all1.subList(pre, n1 - suf), all2.subList(pre, n2 - suf));
+        int[] result = diffs();
+        _lines1 = all1;
+        _lines2 = all2;
+        _lls = null;
+        _todo = null;
+        for (int k = 0; k < result.length; k += 4) {
+            result[k] += pre;
+            result[k + 2] += pre;
+        }
+        return result;
+    }
+
+    /** Return the same kind of edit as diffs(), for sequences too long to
+     *  compare as a whole.  Lines that occur exactly once in each sequence
+     *  are paired up, the longest run of pairs in increasing order in both
+     *  sequences is kept as fixed anchors, and only the gaps between
+     *  consecutive anchors are compared with trimmedDiffs(MAXCELLS).  A gap
+     *  that is still too large is treated as wholly replaced. */
+    public int[] anchoredDiffs(long maxCells) {
+        checkData();
+        int[][] anchors = uniqueAnchors();
+        ArrayList<Integer> result = new ArrayList<>();
+        List<String> all1 = _lines1, all2 = _lines2;
+        int i0, j0;
+        i0 = j0 = 0;
+        for (int k = 0; k <= anchors[0].length; k += 1) {
+            int i1 = k < anchors[0].length ? anchors[0][k] : all1.size();
+            int j1 = k < anchors[1].length ? anchors[1][k] : all2.size();
+            if (i1 > i0 || j1 > j0) {
+                Diff gap = new Diff();
+                gap.setSequences(all1.subList(i0, i1), all2.subList(j0, j1));
+                int[] edits = gap.trimmedDiffs(maxCells);
+                if (edits == null) {
+                    edits = new int[] { 0, i1 - i0, 0, j1 - j0 };
+                }
+                for (int e = 0; e < edits.length; e += 4) {
+                    result.add(edits[e] + i0);
+                    result.add(edits[e + 1]);
+                    result.add(edits[e + 2] + j0);
+                    result.add(edits[e + 3]);
+                }
+            }
+            i0 = i1 + 1;
+            j0 = j1 + 1;
+        }
+        return toIntArr(result);
+    }
+
+    /** Return the anchors for anchoredDiffs as two parallel arrays of line
+     *  positions in the first and second sequences, both increasing. */
+    private int[][] uniqueAnchors() {
+        HashMap<String, Integer> pos1 = uniquePositions(_lines1);
+        HashMap<String, Integer> pos2 = uniquePositions(_lines2);
+        ArrayList<int[]> pairs = new ArrayList<>();
+        for (int j = 0; j < _lines2.size(); j += 1) {
+            Integer i = pos1.get(_lines2.get(j));
+            if (i != null && i >= 0 && pos2.get(_lines2.get(j)) >= 0) {
+                pairs.add(new int[] { i, j });
+            }
+        }
+        int n = pairs.size();
+        int[] tails = new int[n], prev = new int[n];
+        int len = 0;
+        for (int p = 0; p < n; p += 1) {
+            int lo = 0, hi = len;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[0] < pairs.get(p)[0]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            prev[p] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            len = Math.max(len, lo + 1);
+        }
+        int[][] result = new int[2][len];
+        for (int k = len - 1, p = len > 0 ? tails[len - 1] : -1; k >= 0;
+             k -= 1, p = prev[p]) {
+            result[0][k] = pairs.get(p)[0];
+            result[1][k] = pairs.get(p)[1];
+        }
+        return result;
+    }
+
+    /** Return a map from each line of LINES to its position if it occurs
+     *  once, or to -1 if it occurs more than once. */
+    private static HashMap<String, Integer> uniquePositions(
+        List<String> lines) {
+        HashMap<String, Integer> result = new HashMap<>();
+        for (int i = 0; i < lines.size(); i += 1) {
+            result.put(lines.get(i),
+                       result.containsKey(lines.get(i)) ? -1 : i);
+        }
+        return result;
+    }
+
     /** Raise an exception if there are no current data sequences for
      *  comparison. */
     private void checkData() {
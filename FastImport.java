@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Reads a stream of blobs and commits into the object store, for
+ *  bringing in history made elsewhere without a command per file and per
+ *  commit.  Everything is written to one new pack, and the branches it
+ *  names are moved only once the whole stream has been read, so a stream
+ *  that fails part way changes nothing.  The stream is a sequence of
+ *  commands, each a line (in UTF-8), some followed by data:
+ *  <pre>
+ *    blob
+ *    mark :N                 (optional)
+ *    data LENGTH
+ *    LENGTH bytes of contents
+ *
+ *    commit BRANCH
+ *    mark :N                 (optional)
+ *    time MILLIS             (optional; default now)
+ *    data LENGTH
+ *    LENGTH bytes of message
+ *    from REV                (optional)
+ *    merge REV               (optional)
+ *    M REV FILE              (FILE now holds the blob REV)
+ *    M inline FILE           (followed by data LENGTH and the contents)
+ *    D FILE                  (FILE is no longer tracked)
+ *  </pre>
+ *  A REV is a mark (:N), the 40-digit ID of an object, or the name of a
+ *  branch.  A commit without a from line continues BRANCH, or the current
+ *  branch if BRANCH is new.  Blank lines, and lines starting with #,
+ *  between commands are ignored; a line feed after data is optional.
+ *  @author Bella Chang
+ */
+class FastImport {
+
+    /** An import into a repository whose branches are BRANCHES and whose
+     *  current branch is CURRENT. */
+    FastImport(Map<String, ObjectId> branches, String current) {
+        _branches = new LinkedHashMap<>(branches);
+        _current = current;
+    }
+
+    /** Read the stream IN, storing its objects.  Return the branches as
+     *  they stand at its end.  Throws GitletException if the stream is
+     *  malformed, in which case nothing has been stored. */
+    LinkedHashMap<String, ObjectId> run(InputStream in) throws IOException {
+        _in = new BufferedInputStream(in, Utils.BUFFER_SIZE);
+        ObjectStore.startPack();
+        try {
+            for (String line = nextCommand(); line != null;
+                 line = nextCommand()) {
+                if (line.equals("blob")) {
+                    blob();
+                } else if (line.startsWith("commit ")) {
+                    commit(line.substring("commit ".length()));
+                } else {
+                    throw error("unknown command: %s", line);
+                }
+            }
+            ObjectStore.finishPack();
+        } catch (IOException | RuntimeException excp) {
+            ObjectStore.abortPack();
+            throw excp;
+        }
+        CommitGraph.add(_commits);
+        return _branches;
+    }
+
+    /** Read a blob command, after its first line. */
+    private void blob() throws IOException {
+        String line = readLine();
+        Integer mark = null;
+        if (line != null && line.startsWith("mark ")) {
+            mark = parseMark(line.substring("mark ".length()));
+            line = readLine();
+        }
+        ObjectId id = blobData(line);
+        if (mark != null) {
+            _marks.put(mark, id);
+        }
+    }
+
+    /** Store the blob whose data command is LINE, and return its ID. */
+    private ObjectId blobData(String line) throws IOException {
+        byte[] contents = data(line);
+        ObjectId id = ObjectId.hash(contents);
+        ObjectStore.writeBlob(id, contents);
+        return id;
+    }
+
+    /** Read a commit command onto BRANCH, after its first line. */
+    private void commit(String branch) throws IOException {
+        if (branch.isEmpty()) {
+            throw error("missing branch name");
+        }
+        String line = readLine();
+        Integer mark = null;
+        if (line != null && line.startsWith("mark ")) {
+            mark = parseMark(line.substring("mark ".length()));
+            line = readLine();
+        }
+        Date time = new Date();
+        if (line != null && line.startsWith("time ")) {
+            time = new Date(parseLong(line.substring("time ".length())));
+            line = readLine();
+        }
+        String message = new String(data(line), StandardCharsets.UTF_8);
+        ObjectId parent = _branches.containsKey(branch)
+            ? _branches.get(branch) : _branches.get(_current);
+        ObjectId merged = null;
+        TreeMap<String, ObjectId> changes = new TreeMap<>();
+        for (line = peekLine(); line != null; line = peekLine()) {
+            if (line.startsWith("from ")) {
+                parent = commitRev(line.substring("from ".length()));
+            } else if (line.startsWith("merge ")) {
+                merged = commitRev(line.substring("merge ".length()));
+            } else if (line.startsWith("M ")) {
+                int sep = line.indexOf(' ', 2);
+                if (sep < 0) {
+                    throw error("bad file line: %s", line);
+                }
+                String rev = line.substring(2, sep);
+                String file = checkFile(line.substring(sep + 1));
+                if (rev.equals("inline")) {
+                    readLine();
+                    changes.put(file, blobData(readLine()));
+                    continue;
+                }
+                changes.put(file, rev(rev, ObjectStore.BLOB));
+            } else if (line.startsWith("D ")) {
+                changes.put(checkFile(line.substring(2)), null);
+            } else {
+                break;
+            }
+            readLine();
+        }
+        ObjectId tree = Tree.apply(parent == null ? Tree.EMPTY
+                                   : treeOf(parent), changes);
+        Commit commit = new Commit(message, time, parent, merged, tree);
+        ObjectStore.writeCommit(commit);
+        _commits.add(commit);
+        _trees.put(commit.getId(), tree);
+        _branches.put(branch, commit.getId());
+        if (mark != null) {
+            _marks.put(mark, commit.getId());
+        }
+    }
+
+    /** Return the root tree of the commit with ID. */
+    private ObjectId treeOf(ObjectId id) {
+        ObjectId tree = _trees.get(id);
+        if (tree == null) {
+            tree = ObjectStore.readCommit(id).getTree();
+            _trees.put(id, tree);
+        }
+        return tree;
+    }
+
+    /** Return the commit named by REV. */
+    private ObjectId commitRev(String rev) {
+        if (_branches.containsKey(rev)) {
+            return _branches.get(rev);
+        }
+        return rev(rev, ObjectStore.COMMIT);
+    }
+
+    /** Return the object of kind KIND named by REV (a mark or an ID). */
+    private ObjectId rev(String rev, byte kind) {
+        ObjectId id;
+        if (rev.startsWith(":")) {
+            id = _marks.get(parseMark(rev));
+        } else if (ObjectId.isHex(rev)) {
+            id = ObjectId.fromHex(rev);
+        } else {
+            id = null;
+        }
+        if (id == null || !ObjectStore.contains(kind, id)) {
+            throw error("no such %s: %s",
+                        kind == ObjectStore.BLOB ? "blob" : "commit", rev);
+        }
+        return id;
+    }
+
+    /** Return FILE, checking that it can be a working file. */
+    private String checkFile(String file) {
+        if (file.isEmpty() || file.indexOf(Tree.SEPARATOR) >= 0
+            || file.equals(".") || file.equals("..")) {
+            throw error("bad file name: %s", file);
+        }
+        return file;
+    }
+
+    /** Return the number of the mark MARK (of the form :N). */
+    private int parseMark(String mark) {
+        if (!mark.startsWith(":")) {
+            throw error("bad mark: %s", mark);
+        }
+        return (int) parseLong(mark.substring(1));
+    }
+
+    /** Return the value of the decimal number S. */
+    private long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException excp) {
+            throw error("bad number: %s", s);
+        }
+    }
+
+    /** Return the bytes following the data command LINE. */
+    private byte[] data(String line) throws IOException {
+        if (line == null || !line.startsWith("data ")) {
+            throw error("expected data");
+        }
+        long length = parseLong(line.substring("data ".length()));
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw error("bad data length: %d", length);
+        }
+        byte[] result = _in.readNBytes((int) length);
+        if (result.length < length) {
+            throw error("unexpected end of data");
+        }
+        for (byte b : result) {
+            if (b == '\n') {
+                _lineNumber += 1;
+            }
+        }
+        _in.mark(1);
+        if (_in.read() == '\n') {
+            _lineNumber += 1;
+        } else {
+            _in.reset();
+        }
+        return result;
+    }
+
+    /** Return the next line that starts a command, skipping blank lines
+     *  and comments, or null at the end of the stream. */
+    private String nextCommand() throws IOException {
+        String line = readLine();
+        while (line != null && (line.isEmpty() || line.startsWith("#"))) {
+            line = readLine();
+        }
+        return line;
+    }
+
+    /** Return the next line without consuming it, or null at the end of
+     *  the stream. */
+    private String peekLine() throws IOException {
+        if (_peeked == null) {
+            _peeked = readLine();
+        }
+        return _peeked;
+    }
+
+    /** Return the next line, without its line feed, or null at the end of
+     *  the stream. */
+    private String readLine() throws IOException {
+        if (_peeked != null) {
+            String result = _peeked;
+            _peeked = null;
+            return result;
+        }
+        _line.reset();
+        int c = _in.read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0 && c != '\n') {
+            _line.write(c);
+            c = _in.read();
+        }
+        _lineNumber += 1;
+        return _line.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Return an error for FORMAT and ARGS, with the line number. */
+    private GitletException error(String format, Object... args) {
+        return Utils.error("fast-import: line %d: %s", _lineNumber,
+                           String.format(format, args));
+    }
+
+    /** Branches, as changed so far. */
+    private final LinkedHashMap<String, ObjectId> _branches;
+
+    /** Name of the current branch. */
+    private final String _current;
+
+    /** Commits made, in order. */
+    private final ArrayList<Commit> _commits = new ArrayList<>();
+
+    /** Objects by mark. */
+    private final HashMap<Integer, ObjectId> _marks = new HashMap<>();
+
+    /** Root trees of commits made or read so far. */
+    private final HashMap<ObjectId, ObjectId> _trees = new HashMap<>();
+
+    /** The stream being read. */
+    private BufferedInputStream _in;
+
+    /** A line read by peekLine and not yet consumed, or null. */
+    private String _peeked;
+
+    /** Bytes of the line being read. */
+    private final ByteArrayOutputStream _line = new ByteArrayOutputStream();
+
+    /** Number of lines read. */
+    private int _lineNumber;
+}
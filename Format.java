@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/** The on-disk format version of a repository, and the in-place
+ *  upgrades from older versions.  Repositories created before the
+ *  version was recorded are taken to be version 1.
+ *  @author Bella Chang
+ */
+class Format {
+
+    /** Version 1: one flat directory each for commits and blobs. */
+    static final int FLAT = 1;
+
+    /** Version 2: loose objects sharded by the first two ID digits. */
+    static final int SHARDED = 2;
+
+    /** Version 3: commits in the binary encoding of CommitCodec. */
+    static final int BINARY_COMMITS = 3;
+
+    /** Version 4: commits identified by the SHA-1 of their encoding. */
+    static final int CANONICAL_IDS = 4;
+
+    /** Version 5: commits refer to a root Tree instead of listing their
+     *  files. */
+    static final int TREES = 5;
+
+    /** Version 6: a commit graph (see CommitGraph) indexes the
+     *  history. */
+    static final int COMMIT_GRAPH = 6;
+
+    /** Version 7: the commit graph also holds every commit's message. */
+    static final int COMMIT_MESSAGES = 7;
+
+    /** Version 8: the staging area is a StagingIndex instead of two
+     *  serialized maps. */
+    static final int STAGING_INDEX = 8;
+
+    /** Version 9: every stored blob starts with a BlobCodec header. */
+    static final int BLOB_HEADERS = 9;
+
+    /** Version written by this implementation. */
+    static final int CURRENT = BLOB_HEADERS;
+
+    /** Last version that changed how commits are encoded or identified;
+     *  older repositories have their history rewritten. */
+    static final int COMMIT_FORMAT = TREES;
+
+    /** Return the format version of the repository in Repo.GITLET. */
+    static int read() {
+        if (!Repo.FORMAT.isFile()) {
+            return FLAT;
+        }
+        return Integer.parseInt(Utils.readContentsAsString(Repo.FORMAT)
+                                .trim());
+    }
+
+    /** Record VERSION as the format of the repository. */
+    static void write(int version) {
+        Utils.writeContents(Repo.FORMAT, version + "\n");
+    }
+
+    /** Bring the repository in Repo.GITLET up to the current format,
+     *  applying each upgrade step in turn.  Does nothing if it is already
+     *  current.  Throws a GitletException if the repository was written by
+     *  a newer version of Gitlet. */
+    static void upgrade() {
+        int version = read();
+        if (version > CURRENT) {
+            throw Utils.error("Repository format %d is not supported.",
+                              version);
+        }
+        if (version < SHARDED) {
+            ObjectStore.shardLooseObjects();
+            version = SHARDED;
+            write(version);
+        }
+        if (version < COMMIT_FORMAT) {
+            rewriteHistory();
+            version = COMMIT_FORMAT;
+            write(version);
+        }
+        if (version < COMMIT_MESSAGES) {
+            CommitGraph.build();
+            version = COMMIT_MESSAGES;
+            write(version);
+        }
+        if (version < STAGING_INDEX) {
+            migrateStaging();
+            version = STAGING_INDEX;
+            write(version);
+        }
+        if (version < BLOB_HEADERS) {
+            ObjectStore.addBlobHeaders();
+            version = BLOB_HEADERS;
+            write(version);
+        }
+    }
+
+    /** Move the staging maps in Repo.ADDING and Repo.REMOVAL into a
+     *  StagingIndex. */
+    private static void migrateStaging() {
+        StagingIndex index = new StagingIndex();
+        if (Repo.ADDING.length() > 0) {
+            index.replace(StagingIndex.ADD, Repo.readIds(Repo.ADDING));
+        }
+        if (Repo.REMOVAL.length() > 0) {
+            index.replace(StagingIndex.REMOVE, Repo.readIds(Repo.REMOVAL));
+        }
+        index.write();
+        Repo.ADDING.delete();
+        Repo.REMOVAL.delete();
+    }
+
+    /** Re-encode every commit in the current commit format.  Since a
+     *  commit's ID depends on its parents' IDs, commits are rewritten
+     *  parents first and each one refers to its parents' new IDs.  The new
+     *  commits are written to a single pack before the branches are moved
+     *  and the old commits are deleted, so an interrupted upgrade leaves a
+     *  readable repository. */
+    private static void rewriteHistory() {
+        HashMap<ObjectId, Commit> old = new HashMap<>();
+        for (ObjectId id : ObjectStore.ids(ObjectStore.COMMIT)) {
+            old.put(id, ObjectStore.readCommit(id));
+        }
+        HashMap<ObjectId, ObjectId> renamed = new HashMap<>();
+        PackWriter writer = new PackWriter(Repo.PACKS);
+        for (ObjectId id : old.keySet()) {
+            ArrayDeque<ObjectId> todo = new ArrayDeque<>();
+            todo.push(id);
+            while (!todo.isEmpty()) {
+                ObjectId top = todo.peek();
+                Commit c = old.get(top);
+                if (renamed.containsKey(top)) {
+                    todo.pop();
+                } else if (c.hasParent()
+                           && !renamed.containsKey(c.getParent())) {
+                    todo.push(c.getParent());
+                } else if (c.hasMergedParent()
+                           && !renamed.containsKey(c.getMergedParent())) {
+                    todo.push(c.getMergedParent());
+                } else {
+                    todo.pop();
+                    Commit copy = new Commit(c.getMessage(),
+                        c.getTimestamp(),
+                        c.hasParent() ? renamed.get(c.getParent()) : null,
+                        c.hasMergedParent()
+                            ? renamed.get(c.getMergedParent()) : null,
+                        Tree.write(c.getFileTracker()));
+                    renamed.put(top, copy.getId());
+                    writer.add(ObjectStore.COMMIT, copy.getId(),
+                               ObjectStore.encodeCommit(copy));
+                }
+            }
+        }
+        File pack = writer.finish();
+        LinkedHashMap<String, ObjectId> branches =
+            Repo.readIds(Repo.BRANCHES);
+        for (String branch : branches.keySet()) {
+            branches.put(branch, renamed.get(branches.get(branch)));
+        }
+        Repo.writeIds(Repo.BRANCHES, branches);
+        ObjectStore.removeAll(ObjectStore.COMMIT, pack);
+    }
+}
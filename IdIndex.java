@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A sorted index of the IDs of all commits, each with its position in
+ *  CommitGraph, so that a commit is found by ID, and an abbreviated ID
+ *  resolved, by binary search rather than by hashing every ID in the
+ *  graph or listing the object store.  The file Repo.COMMIT_IDS covers
+ *  the first N commits of the graph:
+ *  <pre>
+ *    int MAGIC, int VERSION, int N, raw ID of the commit at N - 1
+ *    N entries in increasing order of ID, each a raw 20-byte ID and an
+ *      int position in the graph
+ *  </pre>
+ *  The graph looks up the commits added since through a table of their
+ *  own, and once there are MIN_REWRITE of them it rewrites the file to
+ *  cover them too, so opening the graph takes the same time however long
+ *  the history is.
+ *  @author Bella Chang
+ */
+class IdIndex {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x47494431;
+
+    /** Current format version. */
+    static final int VERSION = 2;
+
+    /** Size of the header. */
+    static final int HEADER_SIZE = 3 * Integer.BYTES + ObjectId.RAW_LENGTH;
+
+    /** Positions in the header of its fields. */
+    static final int VERSION_POS = 4, COVERED_POS = 8, LAST_POS = 12;
+
+    /** Size of one entry. */
+    static final int ENTRY_SIZE = ObjectId.RAW_LENGTH + Integer.BYTES;
+
+    /** Fewest commits not in the file that cause it to be rewritten. */
+    static final int MIN_REWRITE = 1024;
+
+    /** Return the IDs, in increasing order, of at most LIMIT commits whose
+     *  hexadecimal IDs start with PREFIX, which is lower-case hexadecimal
+     *  of at most ObjectId.HEX_LENGTH digits. */
+    static List<ObjectId> withPrefix(String prefix, int limit) {
+        CommitGraph graph = CommitGraph.get();
+        IdIndex index = graph.ids();
+        String padded = prefix + "0".repeat(ObjectId.HEX_LENGTH
+                                            - prefix.length());
+        ObjectId low = ObjectId.fromHex(padded);
+        List<ObjectId> result = new ArrayList<>();
+        for (int i = index.search(low);
+             i < index._covered && result.size() < limit; i += 1) {
+            ObjectId id = index.id(i);
+            if (!id.toString().startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (int k = index._covered; k < graph.size(); k += 1) {
+            ObjectId id = graph.id(k);
+            if (id.toString().startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        Collections.sort(result);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /** The index in FILE, if it exists and fits GRAPH, which is being
+     *  opened and is complete but for its lookups by ID: it must cover no
+     *  more commits than GRAPH has, and the last of them must be the one
+     *  at the same position in GRAPH (which it is not if the graph has
+     *  been rebuilt since).  Otherwise the index is empty.  FILE may be
+     *  null. */
+    IdIndex(File file, CommitGraph graph) {
+        ByteBuffer data = null;
+        if (file != null && file.isFile()) {
+            try (FileChannel ch = FileChannel.open(
+                     file.toPath(), StandardOpenOption.READ)) {
+                data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            int covered = data.capacity() < HEADER_SIZE ? -1
+                : data.getInt(COVERED_POS);
+            if (covered < 0 || data.getInt(0) != MAGIC
+                || data.getInt(VERSION_POS) != VERSION
+                || covered > graph.size()
+                || data.capacity() < position(covered)
+                || covered > 0 && !graph.id(covered - 1).equals(
+                       ObjectId.fromRaw(data, LAST_POS))) {
+                data = null;
+            }
+        }
+        _data = data == null ? ByteBuffer.allocate(HEADER_SIZE) : data;
+        _covered = _data.getInt(COVERED_POS);
+    }
+
+    /** Return the number of commits, from the start of the graph, in the
+     *  file. */
+    int covered() {
+        return _covered;
+    }
+
+    /** Return the graph position of the commit ID, or -1 if it is not in
+     *  the file. */
+    int find(ObjectId id) {
+        int i = search(id);
+        if (i < _covered && id.compareTo(_data, position(i)) == 0) {
+            return _data.getInt(position(i) + ObjectId.RAW_LENGTH);
+        }
+        return -1;
+    }
+
+    /** Write the file afresh to cover every commit in GRAPH, merging the
+     *  IDs of this index, which must be GRAPH's, with those of the commits
+     *  added since. */
+    void rewrite(CommitGraph graph) {
+        List<Integer> recent = new ArrayList<>();
+        for (int k = _covered; k < graph.size(); k += 1) {
+            recent.add(k);
+        }
+        recent.sort((a, b) -> graph.id(a).compareTo(graph.id(b)));
+        File tmp = new File(Repo.GITLET, "commit-ids.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp),
+                                          Utils.BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.size());
+            out.write(graph.size() == 0 ? new byte[ObjectId.RAW_LENGTH]
+                      : graph.id(graph.size() - 1).raw());
+            int i = 0;
+            for (int k : recent) {
+                ObjectId id = graph.id(k);
+                for (; i < _covered && id.compareTo(_data, position(i)) > 0;
+                     i += 1) {
+                    writeEntry(out, i);
+                }
+                out.write(id.raw());
+                out.writeInt(k);
+            }
+            for (; i < _covered; i += 1) {
+                writeEntry(out, i);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), Repo.COMMIT_IDS.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy entry I of the file to OUT. */
+    private void writeEntry(DataOutputStream out, int i) throws IOException {
+        out.write(id(i).raw());
+        out.writeInt(_data.getInt(position(i) + ObjectId.RAW_LENGTH));
+    }
+
+    /** Return the position in the file of entry I. */
+    private static int position(int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    /** Return ID I of the file. */
+    private ObjectId id(int i) {
+        return ObjectId.fromRaw(_data, position(i));
+    }
+
+    /** Return the index of the first ID in the file not less than ID. */
+    private int search(ObjectId id) {
+        int lo = 0, hi = _covered;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (id.compareTo(_data, position(mid)) > 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** The mapped file, or an empty header if there is none. */
+    private final ByteBuffer _data;
+
+    /** Number of commits, from the start of the graph, in the file. */
+    private final int _covered;
+}
@@ -0,0 +1,76 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A commit as Java-serialized by versions of Gitlet that predate
+ *  CommitCodec.  Those commits were written as instances of Commit, which
+ *  is no longer Serializable; reading substitutes this class, whose fields
+ *  mirror the old ones, so that Commit itself is free to change.
+ *  @author Bella Chang
+ */
+class LegacyCommit implements Serializable {
+
+    /** Name of the class old commits were serialized as. */
+    static final String SERIALIZED_NAME = "gitlet.Commit";
+
+    /** Return the old commit serialized in DATA.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static LegacyCommit read(byte[] data) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(data)) {
+                 @Override
+                 protected ObjectStreamClass readClassDescriptor()
+                     throws IOException, ClassNotFoundException {
+                     ObjectStreamClass desc = super.readClassDescriptor();
+                     if (desc.getName().equals(SERIALIZED_NAME)) {
+                         return ObjectStreamClass.lookup(LegacyCommit.class);
+                     }
+                     return desc;
+                 }
+             }) {
+            return (LegacyCommit) in.readObject();
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return this commit as a Commit with ID (its ID under the old
+     *  scheme). */
+    Commit toCommit(ObjectId id) {
+        LinkedHashMap<String, ObjectId> tracker = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : _fileTracker.entrySet()) {
+            tracker.put(e.getKey(), ObjectId.fromHex(e.getValue()));
+        }
+        return new Commit(id, _message, _timestamp, toId(_parent),
+                          toId(_mergedParent), null, tracker);
+    }
+
+    /** Return the ID whose hexadecimal form is HEX, or null if HEX is
+     *  empty, as it was for a missing parent. */
+    private static ObjectId toId(String hex) {
+        return hex == null || hex.isEmpty() ? null : ObjectId.fromHex(hex);
+    }
+
+    /** Message of the commit. */
+    private String _message;
+
+    /** Timestamp of the commit. */
+    private Date _timestamp;
+
+    /** Parent SHA-1 ID. */
+    private String _parent;
+
+    /** Merged parent SHA-1 ID. */
+    private String _mergedParent;
+
+    /** File tracker map. */
+    private LinkedHashMap<String, String> _fileTracker;
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/** Streaming output for log and global-log.  Entries are printed as the
+ *  commits are reached, in chunks of about Utils.BUFFER_SIZE characters,
+ *  so the output starts before the walk ends and memory does not grow
+ *  with the history.  The walk stops as soon as the requested entries
+ *  have been printed, or once standard output reports an error (as when
+ *  it is a pipe whose reader has exited).  Both read only CommitGraph,
+ *  which holds each commit's parents, time and message, so no commit
+ *  object is decoded.  Options (for log) are
+ *  <pre>
+ *    -n N, --max-count=N     print at most N entries
+ *    --skip=N                leave out the first N entries
+ *    --since=DATE            stop at the first commit older than DATE
+ *  </pre>
+ *  where DATE is yyyy-MM-dd, optionally followed by a space or T and
+ *  HH:mm or HH:mm:ss, in the local time zone.
+ *  @author Bella Chang
+ */
+class Log {
+
+    /** A log with the options OPTIONS.  Throws GitletException if they
+     *  are malformed. */
+    Log(String... options) {
+        for (int i = 0; i < options.length; i += 1) {
+            String opt = options[i];
+            if (opt.equals("-n") && i + 1 < options.length) {
+                i += 1;
+                _maxCount = count(options[i]);
+            } else if (opt.startsWith("--max-count=")) {
+                _maxCount = count(opt.substring("--max-count=".length()));
+            } else if (opt.startsWith("--skip=")) {
+                _skip = count(opt.substring("--skip=".length()));
+            } else if (opt.startsWith("--since=")) {
+                _since = date(opt.substring("--since=".length()));
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+    }
+
+    /** Print the first-parent history of HEAD, newest first. */
+    void firstParent(Commit head) {
+        CommitGraph graph = CommitGraph.get();
+        int k = graph.find(head.getId());
+        if (k < 0) {
+            CommitGraph.add(head);
+            graph = CommitGraph.get();
+            k = graph.find(head.getId());
+        }
+        for (; k != CommitGraph.NONE && more(); k = graph.parent(k)) {
+            if (graph.time(k) < _since) {
+                break;
+            }
+            if (_skip > 0) {
+                _skip -= 1;
+                continue;
+            }
+            entry(graph, k);
+        }
+        finish();
+    }
+
+    /** Print every commit in the repository, newest first (and so the
+     *  initial commit last), in one pass over the commit graph. */
+    void all() {
+        CommitGraph graph = CommitGraph.get();
+        for (int k = graph.size() - 1; k >= 0 && more(); k -= 1) {
+            entry(graph, k);
+        }
+        finish();
+    }
+
+    /** Add the entry for the commit at K in GRAPH to the output, printing
+     *  what has accumulated if there is enough of it.  Entries are
+     *  separated by blank lines. */
+    private void entry(CommitGraph graph, int k) {
+        if (_printed > 0) {
+            _out.append('\n');
+        }
+        _out.append("===\ncommit ").append(graph.id(k)).append('\n')
+            .append("Date: ")
+            .append(Commit.dateFormat(new Date(graph.time(k))))
+            .append('\n').append(graph.message(k)).append('\n');
+        _printed += 1;
+        if (_out.length() >= Utils.BUFFER_SIZE) {
+            flushOut();
+        }
+    }
+
+    /** Return true iff more entries are wanted and can be printed. */
+    private boolean more() {
+        return !_closed && _printed < _maxCount;
+    }
+
+    /** Print what is left of the output. */
+    private void finish() {
+        if (_out.length() > 0) {
+            flushOut();
+        }
+        System.out.flush();
+    }
+
+    /** Print the accumulated output, noting whether standard output has
+     *  stopped accepting it. */
+    private void flushOut() {
+        System.out.print(_out);
+        _out.setLength(0);
+        _closed = System.out.checkError();
+    }
+
+    /** Return the count S. */
+    private static int count(String s) {
+        try {
+            int n = Integer.parseInt(s);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw Utils.error("Incorrect operands.");
+    }
+
+    /** Return the time, in milliseconds since the epoch, denoted by S. */
+    private static long date(String s) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (s.length() == "yyyy-MM-dd".length()) {
+                return LocalDate.parse(s).atStartOfDay(zone)
+                    .toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(s.replace(' ', 'T'),
+                                       DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+                .atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    /** Most entries to print. */
+    private int _maxCount = Integer.MAX_VALUE;
+
+    /** Entries still to leave out. */
+    private int _skip;
+
+    /** Oldest commit time shown, in milliseconds since the epoch. */
+    private long _since = Long.MIN_VALUE;
+
+    /** Number of entries printed so far. */
+    private int _printed;
+
+    /** True once standard output has reported an error. */
+    private boolean _closed;
+
+    /** Output not yet printed. */
+    private final StringBuilder _out = new StringBuilder();
+}
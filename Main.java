@@ -2,6 +2,8 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Bella Chang
@@ -9,14 +11,48 @@ import java.io.IOException;
  */
 public class Main {
 
+    /** Commands that may read the standard input, and so are never sent
+     *  to a daemon.  They change refs and staging state over many steps,
+     *  so they are refused while a daemon is running, which could change
+     *  the same state in between. */
+    static final Set<String> LOCAL_ONLY = Set.of("batch", "fast-import");
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) throws IOException {
-        if (args.length == 0) {
-            System.out.println("Please enter a command.");
+        boolean local = args.length > 0 && LOCAL_ONLY.contains(args[0]);
+        if (Repo.DAEMON_SOCKET.exists() && !local) {
+            int status = Daemon.forward(args);
+            if (status > 0) {
+                System.exit(status);
+            } else if (status == 0) {
+                return;
+            }
+        }
+        try {
+            if (local && Repo.DAEMON_SOCKET.exists() && Daemon.running()) {
+                throw Utils.error("Cannot run %s while a daemon is running.",
+                                  args[0]);
+            }
+            Repo current = new Repo();
+            run(current, args);
+            current.flush();
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
             System.exit(0);
         }
-        Repo current = new Repo();
+    }
+
+    /** Run the command in ARGS on CURRENT.  Errors are reported by
+     *  throwing GitletException, before the command has written any
+     *  refs or staging state. */
+    static void run(Repo current, String... args) throws IOException {
+        if (args.length == 0) {
+            throw Utils.error("Please enter a command.");
+        }
+        if (!args[0].equals("init") && Repo.GITLET.exists()) {
+            Format.upgrade();
+        }
         if (args[0].equals("init")) {
             current.init();
         } else if (args[0].equals("add")) {
@@ -40,13 +76,15 @@ public class Main {
         } else if (args[0].equals("status")) {
             current.status();
         } else if (args[0].equals("log")) {
-            current.log();
+            current.log(Arrays.copyOfRange(args, 1, args.length));
         } else if (args[0].equals("rm")) {
             current.rm(args[1]);
         } else if (args[0].equals("branch")) {
             current.branch(args[1]);
         } else if (args[0].equals("find")) {
-            if (args.length == 2) {
+            if (args.length == 3 && MessageIndex.MODES.contains(args[1])) {
+                current.find(args[1], args[2]);
+            } else if (args.length == 2) {
                 current.find(args[1]);
             } else {
                 String s = "";
@@ -63,9 +101,22 @@ public class Main {
             current.reset(args[1]);
         } else if (args[0].equals("merge")) {
             current.merge(args[1]);
+        } else if (args[0].equals("repack")) {
+            current.repack();
+        } else if (args[0].equals("fast-import")) {
+            if (args.length > 2) {
+                throw Utils.error("Incorrect operands.");
+            }
+            current.fastImport(args.length == 2 ? args[1] : null);
+        } else if (args[0].equals("batch")) {
+            Batch.run(current, args);
+        } else if (args[0].equals("daemon")) {
+            if (args.length > 1 && args[1].equals("--stop")) {
+                throw Utils.error("No daemon is running.");
+            }
+            Daemon.serve();
         } else {
-            System.out.println("No command with that name exists.");
-            System.exit(0);
+            throw Utils.error("No command with that name exists.");
         }
     }
 }
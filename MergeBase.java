@@ -0,0 +1,202 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Merge bases of commits, found in the commit graph.  The best common
+ *  ancestors of two commits are found by painting: both commits are
+ *  queued, each marked with its own side, and commits are taken from the
+ *  queue highest generation first (then latest), passing their marks on
+ *  to their parents.  A commit that carries both marks is a common
+ *  ancestor; it is recorded, and its ancestors are marked stale, since
+ *  none of them can be a better answer.  The walk stops as soon as every
+ *  queued commit is stale, so it visits only the history between the two
+ *  commits and their merge bases, not all of it.  After a criss-cross
+ *  merge there may be several candidates, some of which are ancestors of
+ *  others; those are removed with walks cut off by generation number.
+ *  Every commit asked about must already be in CommitGraph.
+ *  @author Bella Chang
+ */
+class MergeBase {
+
+    /** Return the best common ancestor of the commits with IDs A and B, or
+     *  null if they have none.  When there are several (after criss-cross
+     *  merges), the one with the highest generation is chosen, then the
+     *  latest. */
+    static ObjectId find(ObjectId a, ObjectId b) {
+        List<ObjectId> all = all(a, b);
+        return all.isEmpty() ? null : all.get(0);
+    }
+
+    /** Return every best common ancestor of the commits with IDs A and B:
+     *  the common ancestors that are not ancestors of another common
+     *  ancestor.  The list is in order of preference, as for find. */
+    static List<ObjectId> all(ObjectId a, ObjectId b) {
+        CommitGraph graph = CommitGraph.get();
+        List<ObjectId> result = new ArrayList<>();
+        for (int k : bases(graph, position(graph, a), position(graph, b))) {
+            result.add(graph.id(k));
+        }
+        return result;
+    }
+
+    /** Return true iff the commit with ID ANCESTOR is the commit with ID
+     *  DESCENDANT or one of its ancestors. */
+    static boolean isAncestor(ObjectId ancestor, ObjectId descendant) {
+        CommitGraph graph = CommitGraph.get();
+        return reaches(graph, position(graph, descendant),
+                       position(graph, ancestor), new byte[graph.size()]);
+    }
+
+    /** Mark of commits reached from the first commit. */
+    private static final byte PARENT1 = 1;
+
+    /** Mark of commits reached from the second commit. */
+    private static final byte PARENT2 = 2;
+
+    /** Mark of commits that are ancestors of a common ancestor. */
+    private static final byte STALE = 4;
+
+    /** Mark of commits already recorded as candidates. */
+    private static final byte RESULT = 8;
+
+    /** Mark of commits visited by reaches. */
+    private static final byte SEEN = 16;
+
+    /** Mark of commits in the queue of paint. */
+    private static final byte QUEUED = 32;
+
+    /** Return the position in GRAPH of the commit ID.  Throws
+     *  IllegalArgumentException if it is not there. */
+    private static int position(CommitGraph graph, ObjectId id) {
+        int k = graph.find(id);
+        if (k < 0) {
+            throw new IllegalArgumentException("commit not in graph: " + id);
+        }
+        return k;
+    }
+
+    /** Return the positions in GRAPH of the best common ancestors of the
+     *  commits at A and B, in order of preference. */
+    private static List<Integer> bases(CommitGraph graph, int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        List<Integer> candidates = paint(graph, a, b);
+        byte[] marks = new byte[graph.size()];
+        for (int k : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != k && reaches(graph, other, k, marks)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(k);
+            }
+        }
+        result.sort(order(graph));
+        return result;
+    }
+
+    /** Return the common ancestors of the commits at A and B in GRAPH
+     *  found by painting down from both, which include all the best ones
+     *  but possibly some of their ancestors too.  A commit is queued at most
+     *  once at a time, and a count of the queued commits not marked STALE
+     *  is kept as commits are queued, taken and marked, so that each step
+     *  costs only the queue operations. */
+    private static List<Integer> paint(CommitGraph graph, int a, int b) {
+        byte[] marks = new byte[graph.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(order(graph));
+        List<Integer> result = new ArrayList<>();
+        marks[a] |= PARENT1 | QUEUED;
+        marks[b] |= PARENT2 | QUEUED;
+        queue.add(a);
+        queue.add(b);
+        int nonStale = 2;
+        while (nonStale > 0) {
+            int k = queue.poll();
+            marks[k] &= ~QUEUED;
+            if ((marks[k] & STALE) == 0) {
+                nonStale -= 1;
+            }
+            byte flags = (byte) (marks[k] & (PARENT1 | PARENT2 | STALE));
+            if (flags == (PARENT1 | PARENT2)) {
+                if ((marks[k] & RESULT) == 0) {
+                    marks[k] |= RESULT;
+                    result.add(k);
+                }
+                flags |= STALE;
+            }
+            for (int p : new int[] {graph.parent(k), graph.mergedParent(k)}) {
+                if (p == CommitGraph.NONE || (marks[p] & flags) == flags) {
+                    continue;
+                }
+                if ((marks[p] & QUEUED) == 0) {
+                    marks[p] |= flags | QUEUED;
+                    queue.add(p);
+                    if ((marks[p] & STALE) == 0) {
+                        nonStale += 1;
+                    }
+                } else {
+                    if ((flags & STALE) != 0 && (marks[p] & STALE) == 0) {
+                        nonStale -= 1;
+                    }
+                    marks[p] |= flags;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff the commit at TO in GRAPH is the commit at FROM or
+     *  one of its ancestors.  Commits whose generation is not above that
+     *  of TO cannot lead to it and are not followed.  MARKS holds SEEN
+     *  marks, which are cleared again before returning. */
+    private static boolean reaches(CommitGraph graph, int from, int to,
+                                   byte[] marks) {
+        int min = graph.generation(to);
+        ArrayDeque<Integer> todo = new ArrayDeque<>();
+        List<Integer> seen = new ArrayList<>();
+        todo.push(from);
+        boolean found = false;
+        while (!todo.isEmpty() && !found) {
+            int k = todo.pop();
+            if (k == to) {
+                found = true;
+            } else if ((marks[k] & SEEN) == 0 && graph.generation(k) > min) {
+                marks[k] |= SEEN;
+                seen.add(k);
+                for (int p : new int[] {graph.parent(k),
+                                        graph.mergedParent(k)}) {
+                    if (p != CommitGraph.NONE) {
+                        todo.push(p);
+                    }
+                }
+            }
+        }
+        for (int k : seen) {
+            marks[k] &= ~SEEN;
+        }
+        return found;
+    }
+
+    /** Return the order of preference of commits in GRAPH: highest
+     *  generation first, then latest, then latest added. */
+    private static Comparator<Integer> order(CommitGraph graph) {
+        return (x, y) -> {
+            int c = Integer.compare(graph.generation(y),
+                                    graph.generation(x));
+            if (c == 0) {
+                c = Long.compare(graph.time(y), graph.time(x));
+            }
+            return c != 0 ? c : Integer.compare(y, x);
+        };
+    }
+}
@@ -0,0 +1,543 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/** An inverted index of commit messages, for find.  Commits are named by
+ *  their positions in CommitGraph, whose messages are both what is
+ *  indexed and what candidates are checked against, so a query reads no
+ *  commit object.  The terms of a message are its words (maximal runs of
+ *  letters and digits) and its trigrams (runs of three characters), all
+ *  in lower case.  The file Repo.MESSAGE_INDEX covers the first N
+ *  commits of the graph:
+ *  <pre>
+ *    int MAGIC, int VERSION, int N, int number of terms T,
+ *    int position of the term table
+ *    terms in increasing order (of their UTF-8 bytes), each
+ *      int length L, L bytes of UTF-8 (a kind byte, then the term),
+ *      int number of commits P, P increasing commit positions
+ *    the term table: T ints, the position of each term
+ *  </pre>
+ *  Commits made since are indexed in memory when a query is run, and once
+ *  there are enough of them the file is rewritten to cover them too, so
+ *  the graph itself serves as the index's journal.
+ *  @author Bella Chang
+ */
+class MessageIndex {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x474d4931;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Size of the header. */
+    static final int HEADER_SIZE = 5 * Integer.BYTES;
+
+    /** Positions in the header of its fields. */
+    static final int VERSION_POS = 4, COVERED_POS = 8, COUNT_POS = 12,
+        TABLE_POS = 16;
+
+    /** Fewest commits not in the file that cause it to be rewritten. */
+    static final int MIN_REWRITE = 1024;
+
+    /** Kinds of term. */
+    static final byte WORD = 'w', TRIGRAM = 't';
+
+    /** Query modes: whole message, words, word prefixes, substring and
+     *  regular expression. */
+    static final String EXACT = "--exact", TOKEN = "--token",
+        PREFIX = "--prefix", SUBSTRING = "--substring", REGEX = "--regex";
+
+    /** All query modes. */
+    static final Set<String> MODES =
+        Set.of(EXACT, TOKEN, PREFIX, SUBSTRING, REGEX);
+
+    /** Return the IDs of the commits whose messages match QUERY in MODE,
+     *  newest first.  Throws GitletException if QUERY is not a valid
+     *  regular expression in REGEX mode. */
+    static List<ObjectId> find(String mode, String query) {
+        CommitGraph graph = CommitGraph.get();
+        MessageIndex index = new MessageIndex(graph);
+        if (graph.size() - index._covered
+            >= Math.max(MIN_REWRITE, index._covered / 8)) {
+            index.rewrite();
+            index = new MessageIndex(graph);
+        }
+        Predicate<String> matcher = matcher(mode, query);
+        int[] candidates = index.candidates(mode, query);
+        List<ObjectId> result = new ArrayList<>();
+        if (candidates == null) {
+            for (int k = graph.size() - 1; k >= 0; k -= 1) {
+                if (matcher.test(graph.message(k))) {
+                    result.add(graph.id(k));
+                }
+            }
+        } else {
+            for (int i = candidates.length - 1; i >= 0; i -= 1) {
+                int k = candidates[i];
+                if (matcher.test(graph.message(k))) {
+                    result.add(graph.id(k));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the lower-case words of TEXT, in order. */
+    static List<String> words(String text) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            i += Character.charCount(c);
+            if (Character.isLetterOrDigit(c)) {
+                word.appendCodePoint(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                result.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            result.add(word.toString());
+        }
+        return result;
+    }
+
+    /** Return the lower-case trigrams of TEXT.  Each character is lowered
+     *  on its own, and no trigram holds half of a surrogate pair (as a
+     *  substring cut in the middle of one would), so that the trigrams of
+     *  a substring of TEXT are always among those of TEXT. */
+    static Set<String> trigrams(String text) {
+        int[] chars = text.codePoints().map(Character::toLowerCase)
+            .toArray();
+        Set<String> result = new HashSet<>();
+        int start = 0;
+        for (int i = 0; i < chars.length; i += 1) {
+            if (chars[i] <= Character.MAX_VALUE
+                && Character.isSurrogate((char) chars[i])) {
+                start = i + 1;
+            } else if (i + 1 - start >= 3) {
+                result.add(new String(chars, i - 2, 3));
+            }
+        }
+        return result;
+    }
+
+    /** Return the test of messages for QUERY in MODE. */
+    private static Predicate<String> matcher(String mode, String query) {
+        switch (mode) {
+        case TOKEN:
+            List<String> wanted = words(query);
+            return m -> new HashSet<>(words(m)).containsAll(wanted);
+        case PREFIX:
+            List<String> prefixes = words(query);
+            return m -> {
+                List<String> words = words(m);
+                for (String p : prefixes) {
+                    if (words.stream().noneMatch(w -> w.startsWith(p))) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+        case SUBSTRING:
+            return m -> m.contains(query);
+        case REGEX:
+            try {
+                Pattern pattern = Pattern.compile(query);
+                return m -> pattern.matcher(m).find();
+            } catch (PatternSyntaxException excp) {
+                throw Utils.error("Invalid regular expression: %s", query);
+            }
+        default:
+            return m -> m.equals(query);
+        }
+    }
+
+    /** Return the positions, in increasing order, of the commits that
+     *  could match QUERY in MODE, or null if the index does not narrow
+     *  them down. */
+    private int[] candidates(String mode, String query) {
+        List<int[]> lists = new ArrayList<>();
+        switch (mode) {
+        case TOKEN:
+            for (String w : words(query)) {
+                lists.add(postings(term(WORD, w)));
+            }
+            break;
+        case PREFIX:
+            for (String w : words(query)) {
+                lists.add(prefixPostings(term(WORD, w)));
+            }
+            break;
+        case REGEX:
+            for (String literal : literals(query)) {
+                for (String t : trigrams(literal)) {
+                    lists.add(postings(term(TRIGRAM, t)));
+                }
+            }
+            break;
+        default:
+            for (String t : trigrams(query)) {
+                lists.add(postings(term(TRIGRAM, t)));
+            }
+            break;
+        }
+        if (lists.isEmpty()) {
+            return null;
+        }
+        lists.sort((a, b) -> a.length - b.length);
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i += 1) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    /** Return the runs of literal characters that every match of the
+     *  regular expression REGEX must contain.  Anything the expression
+     *  makes optional or variable (classes, groups, quantified
+     *  characters, escapes other than of punctuation) ends a run, and an
+     *  expression with an alternative or with flags has none. */
+    static List<String> literals(String regex) {
+        List<String> result = new ArrayList<>();
+        if (regex.indexOf('|') >= 0 || regex.contains("(?")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()
+                && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                i += 1;
+                run.append(regex.charAt(i));
+                continue;
+            }
+            if (c == '*' || c == '?' || c == '{') {
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                if (c == '{') {
+                    i = Math.max(i, regex.indexOf('}', i));
+                }
+            } else if (c == '\\') {
+                while (i + 1 < regex.length()
+                       && (Character.isLetterOrDigit(regex.charAt(i + 1))
+                           || "{}<>_".indexOf(regex.charAt(i + 1)) >= 0)) {
+                    i += 1;
+                }
+            } else if (c == '[') {
+                i = skip(regex, i, '[', ']');
+            } else if (c == '(') {
+                i = skip(regex, i, '(', ')');
+            } else if ("+.^$)]".indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            }
+            if (run.length() > 0) {
+                result.add(run.toString());
+                run.setLength(0);
+            }
+        }
+        if (run.length() > 0) {
+            result.add(run.toString());
+        }
+        return result;
+    }
+
+    /** Return the index in REGEX of the CLOSE matching the OPEN at I, or
+     *  the end of REGEX if there is none. */
+    private static int skip(String regex, int i, char open, char close) {
+        int depth = 0;
+        for (; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 1;
+            } else if (c == open) {
+                depth += 1;
+            } else if (c == close) {
+                depth -= 1;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return regex.length();
+    }
+
+    /** Return the key of the term TEXT of kind KIND. */
+    private static byte[] term(byte kind, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[bytes.length + 1];
+        result[0] = kind;
+        System.arraycopy(bytes, 0, result, 1, bytes.length);
+        return result;
+    }
+
+    /** Return the increasing elements common to increasing A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** The index of the messages in GRAPH, as the file has it plus the
+     *  commits added since. */
+    private MessageIndex(CommitGraph graph) {
+        _graph = graph;
+        ByteBuffer data = null;
+        if (Repo.MESSAGE_INDEX.isFile()) {
+            try (FileChannel ch = FileChannel.open(
+                     Repo.MESSAGE_INDEX.toPath(), StandardOpenOption.READ)) {
+                data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC
+                || data.getInt(VERSION_POS) != VERSION
+                || data.getInt(COVERED_POS) > graph.size()) {
+                data = null;
+            }
+        }
+        if (data == null) {
+            _data = ByteBuffer.allocate(HEADER_SIZE);
+            _data.putInt(TABLE_POS, HEADER_SIZE);
+        } else {
+            _data = data;
+        }
+        _covered = _data.getInt(COVERED_POS);
+        _count = _data.getInt(COUNT_POS);
+        for (int k = _covered; k < graph.size(); k += 1) {
+            String message = graph.message(k);
+            Set<String> words = new HashSet<>(words(message));
+            for (String w : words) {
+                addRecent(term(WORD, w), k);
+            }
+            for (String t : trigrams(message)) {
+                addRecent(term(TRIGRAM, t), k);
+            }
+        }
+    }
+
+    /** Note that the commit at K, not in the file, has the term KEY. */
+    private void addRecent(byte[] key, int k) {
+        List<Integer> list = _recent.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            _recent.put(key, list);
+        }
+        list.add(k);
+    }
+
+    /** Return the positions, in increasing order, of the commits with the
+     *  term KEY. */
+    private int[] postings(byte[] key) {
+        int i = search(key);
+        int[] old = i < _count && compare(i, key) == 0 ? filed(i)
+            : new int[0];
+        return concat(old, _recent.get(key));
+    }
+
+    /** Return the positions, in increasing order, of the commits with a
+     *  term starting with KEY. */
+    private int[] prefixPostings(byte[] key) {
+        Set<Integer> found = new HashSet<>();
+        for (int i = search(key); i < _count && startsWith(i, key);
+             i += 1) {
+            for (int k : filed(i)) {
+                found.add(k);
+            }
+        }
+        byte[] end = Arrays.copyOf(key, key.length + 1);
+        end[key.length] = (byte) 0xff;
+        for (List<Integer> list : _recent.subMap(key, true, end, true)
+                 .values()) {
+            found.addAll(list);
+        }
+        return found.stream().mapToInt(Integer::intValue).sorted()
+            .toArray();
+    }
+
+    /** Return OLD followed by the elements of RECENT (which may be
+     *  null). */
+    private static int[] concat(int[] old, List<Integer> recent) {
+        if (recent == null) {
+            return old;
+        }
+        int[] result = Arrays.copyOf(old, old.length + recent.size());
+        for (int j = 0; j < recent.size(); j += 1) {
+            result[old.length + j] = recent.get(j);
+        }
+        return result;
+    }
+
+    /** Return the index of the first term in the file not less than
+     *  KEY. */
+    private int search(byte[] key) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the position in the file of term I. */
+    private int termPosition(int i) {
+        return _data.getInt(_data.getInt(TABLE_POS) + i * Integer.BYTES);
+    }
+
+    /** Return the bytes of term I of the file. */
+    private byte[] termKey(int i) {
+        int pos = termPosition(i);
+        byte[] result = new byte[_data.getInt(pos)];
+        _data.get(pos + Integer.BYTES, result);
+        return result;
+    }
+
+    /** Compare term I of the file with KEY. */
+    private int compare(int i, byte[] key) {
+        return Arrays.compareUnsigned(termKey(i), key);
+    }
+
+    /** Return true iff term I of the file starts with KEY. */
+    private boolean startsWith(int i, byte[] key) {
+        byte[] term = termKey(i);
+        return term.length >= key.length
+            && Arrays.equals(term, 0, key.length, key, 0, key.length);
+    }
+
+    /** Return the commit positions of term I of the file. */
+    private int[] filed(int i) {
+        int pos = termPosition(i);
+        pos += Integer.BYTES + _data.getInt(pos);
+        int[] result = new int[_data.getInt(pos)];
+        _data.slice(pos + Integer.BYTES, result.length * Integer.BYTES)
+            .asIntBuffer().get(result);
+        return result;
+    }
+
+    /** Write the file afresh to cover every commit in the graph, merging
+     *  the terms of the file with those of the commits added since. */
+    private void rewrite() {
+        File tmp = new File(Repo.GITLET, "message-index.tmp");
+        tmp.delete();
+        try (FileChannel ch = FileChannel.open(tmp.toPath(),
+                 StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(ch),
+                                         Utils.BUFFER_SIZE));
+            out.write(new byte[HEADER_SIZE]);
+            List<Integer> positions = new ArrayList<>();
+            int i = 0;
+            byte[] old = _count > 0 ? termKey(0) : null;
+            for (Map.Entry<byte[], List<Integer>> e : _recent.entrySet()) {
+                while (old != null
+                       && Arrays.compareUnsigned(old, e.getKey()) < 0) {
+                    positions.add(out.size());
+                    writeTerm(out, old, filed(i), null);
+                    i += 1;
+                    old = i < _count ? termKey(i) : null;
+                }
+                positions.add(out.size());
+                if (old != null && Arrays.equals(old, e.getKey())) {
+                    writeTerm(out, old, filed(i), e.getValue());
+                    i += 1;
+                    old = i < _count ? termKey(i) : null;
+                } else {
+                    writeTerm(out, e.getKey(), new int[0], e.getValue());
+                }
+            }
+            for (; old != null; old = i < _count ? termKey(i) : null) {
+                positions.add(out.size());
+                writeTerm(out, old, filed(i), null);
+                i += 1;
+            }
+            int table = out.size();
+            for (int pos : positions) {
+                out.writeInt(pos);
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(_graph.size())
+                .putInt(positions.size()).putInt(table).flip();
+            ch.write(header, 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), Repo.MESSAGE_INDEX.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the term KEY, with the commit positions OLD followed by
+     *  RECENT (which may be null), to OUT. */
+    private static void writeTerm(DataOutputStream out, byte[] key,
+                                  int[] old, List<Integer> recent)
+        throws IOException {
+        int[] all = concat(old, recent);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(all.length);
+        for (int k : all) {
+            out.writeInt(k);
+        }
+    }
+
+    /** The commit graph indexed. */
+    private final CommitGraph _graph;
+
+    /** The mapped file, or an empty header if there is none. */
+    private final ByteBuffer _data;
+
+    /** Number of commits, from the start of the graph, in the file. */
+    private final int _covered;
+
+    /** Number of terms in the file. */
+    private final int _count;
+
+    /** Commit positions, in increasing order, of the terms of commits not
+     *  in the file. */
+    private final TreeMap<byte[], List<Integer>> _recent =
+        new TreeMap<>(Arrays::compareUnsigned);
+}
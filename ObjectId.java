@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** The SHA-1 ID of an object, held as 20 raw bytes in three words so that
+ *  IDs compare and hash without touching their hexadecimal form, which is
+ *  produced only for display and file names.  Also hashes contents into
+ *  IDs with a MessageDigest kept per thread.
+ *  @author Bella Chang
+ */
+final class ObjectId implements Comparable<ObjectId> {
+
+    /** Length of a raw ID. */
+    static final int RAW_LENGTH = 20;
+
+    /** Length of the hexadecimal form of an ID. */
+    static final int HEX_LENGTH = 2 * RAW_LENGTH;
+
+    /** Return the ID whose raw bytes are RAW[OFF .. OFF+19]. */
+    static ObjectId fromRaw(byte[] raw, int off) {
+        return fromRaw(ByteBuffer.wrap(raw, off, RAW_LENGTH));
+    }
+
+    /** Return the ID whose raw bytes are RAW. */
+    static ObjectId fromRaw(byte[] raw) {
+        return fromRaw(raw, 0);
+    }
+
+    /** Return the ID whose raw bytes are the next 20 bytes of BUF,
+     *  advancing its position past them. */
+    static ObjectId fromRaw(ByteBuffer buf) {
+        return new ObjectId(buf.getLong(), buf.getLong(), buf.getInt());
+    }
+
+    /** Return the ID whose raw bytes are at absolute position POS of BUF,
+     *  which is big-endian. */
+    static ObjectId fromRaw(ByteBuffer buf, int pos) {
+        return new ObjectId(buf.getLong(pos), buf.getLong(pos + Long.BYTES),
+                            buf.getInt(pos + 2 * Long.BYTES));
+    }
+
+    /** Return true iff S is the hexadecimal form of an ID (40 hex digits,
+     *  in either case). */
+    static boolean isHex(String s) {
+        if (s.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i += 1) {
+            if (Character.digit(s.charAt(i), HEX_RADIX) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the ID whose hexadecimal form is HEX.  Throws
+     *  IllegalArgumentException if HEX is not a valid ID. */
+    static ObjectId fromHex(String hex) {
+        if (!isHex(hex)) {
+            throw new IllegalArgumentException("not an object ID: " + hex);
+        }
+        return new ObjectId(hexWord(hex, 0, WORD_DIGITS),
+                            hexWord(hex, WORD_DIGITS, WORD_DIGITS),
+                            (int) hexWord(hex, 2 * WORD_DIGITS,
+                                          WORD_DIGITS / 2));
+    }
+
+    /** Return the ID of CONTENTS[OFF .. OFF+LEN-1]. */
+    static ObjectId hash(byte[] contents, int off, int len) {
+        MessageDigest md = digest();
+        md.update(contents, off, len);
+        return fromRaw(md.digest());
+    }
+
+    /** Return the ID of CONTENTS. */
+    static ObjectId hash(byte[] contents) {
+        return hash(contents, 0, contents.length);
+    }
+
+    /** Return the ID of the remaining bytes of CONTENTS, consuming them. */
+    static ObjectId hash(ByteBuffer contents) {
+        MessageDigest md = digest();
+        md.update(contents);
+        return fromRaw(md.digest());
+    }
+
+    /** Return the ID of everything read from IN, which is not closed. */
+    static ObjectId hash(InputStream in) throws IOException {
+        MessageDigest md = digest();
+        byte[] buf = BUFFER.get();
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            md.update(buf, 0, n);
+        }
+        return fromRaw(md.digest());
+    }
+
+    /** Return the ID of the contents of FILE, which is read in fixed-size
+     *  pieces.  Throws IllegalArgumentException in case of problems. */
+    static ObjectId hash(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return hash(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return this thread's SHA-1 digest, reset. */
+    static MessageDigest digest() {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /** Write the raw bytes of this ID to BUF at its position, advancing
+     *  it. */
+    void putTo(ByteBuffer buf) {
+        buf.putLong(_w1);
+        buf.putLong(_w2);
+        buf.putInt(_w3);
+    }
+
+    /** Return the raw bytes of this ID. */
+    byte[] raw() {
+        byte[] result = new byte[RAW_LENGTH];
+        putTo(ByteBuffer.wrap(result));
+        return result;
+    }
+
+    /** Return the Kth raw byte of this ID, from 0 to 255. */
+    int byteAt(int k) {
+        long word = k < Long.BYTES ? _w1
+            : k < 2 * Long.BYTES ? _w2 : _w3;
+        int shift = k < 2 * Long.BYTES
+            ? (Long.BYTES - 1 - k % Long.BYTES) * Byte.SIZE
+            : (Integer.BYTES - 1 - (k - 2 * Long.BYTES)) * Byte.SIZE;
+        return (int) (word >>> shift) & BYTE_MASK;
+    }
+
+    /** Return the hexadecimal form of this ID. */
+    @Override
+    public String toString() {
+        char[] result = new char[HEX_LENGTH];
+        putHex(result, 0, _w1, WORD_DIGITS);
+        putHex(result, WORD_DIGITS, _w2, WORD_DIGITS);
+        putHex(result, 2 * WORD_DIGITS, _w3, WORD_DIGITS / 2);
+        return new String(result);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _w1 == other._w1 && _w2 == other._w2 && _w3 == other._w3;
+    }
+
+    /** The first four raw bytes, which are already uniformly
+     *  distributed. */
+    @Override
+    public int hashCode() {
+        return (int) (_w1 >>> Integer.SIZE);
+    }
+
+    /** Compare by raw bytes, as unsigned values. */
+    @Override
+    public int compareTo(ObjectId other) {
+        int c = Long.compareUnsigned(_w1, other._w1);
+        if (c == 0) {
+            c = Long.compareUnsigned(_w2, other._w2);
+        }
+        if (c == 0) {
+            c = Integer.compareUnsigned(_w3, other._w3);
+        }
+        return c;
+    }
+
+    /** Compare this ID with the raw ID at absolute position POS of BUF,
+     *  which is big-endian, as by compareTo, without copying it. */
+    int compareTo(ByteBuffer buf, int pos) {
+        int c = Long.compareUnsigned(_w1, buf.getLong(pos));
+        if (c == 0) {
+            c = Long.compareUnsigned(_w2, buf.getLong(pos + Long.BYTES));
+        }
+        if (c == 0) {
+            c = Integer.compareUnsigned(_w3,
+                                        buf.getInt(pos + 2 * Long.BYTES));
+        }
+        return c;
+    }
+
+    /** Return the hexadecimal digit for the low four bits of D. */
+    static char hexDigit(int d) {
+        return HEX_DIGITS[d & DIGIT_MASK];
+    }
+
+    /** The ID made of raw words W1, W2 and W3. */
+    private ObjectId(long w1, long w2, int w3) {
+        _w1 = w1;
+        _w2 = w2;
+        _w3 = w3;
+    }
+
+    /** Return the value of the N hex digits of HEX starting at START. */
+    private static long hexWord(String hex, int start, int n) {
+        long result = 0;
+        for (int i = start; i < start + n; i += 1) {
+            result = (result << DIGIT_BITS)
+                | Character.digit(hex.charAt(i), HEX_RADIX);
+        }
+        return result;
+    }
+
+    /** Write the N low hex digits of WORD to DEST starting at START. */
+    private static void putHex(char[] dest, int start, long word, int n) {
+        for (int i = start + n - 1; i >= start; i -= 1) {
+            dest[i] = hexDigit((int) word);
+            word >>>= DIGIT_BITS;
+        }
+    }
+
+    /** Return a new SHA-1 digest, for hashing that is interleaved with
+     *  other hashing on the same thread. */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                                               + "SHA-1");
+        }
+    }
+
+    /** Radix of the printed form. */
+    private static final int HEX_RADIX = 16;
+
+    /** Bits per hex digit. */
+    private static final int DIGIT_BITS = 4;
+
+    /** Mask selecting one hex digit. */
+    private static final int DIGIT_MASK = HEX_RADIX - 1;
+
+    /** Mask selecting one byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Hex digits in a long. */
+    private static final int WORD_DIGITS = 2 * Long.BYTES;
+
+    /** Hexadecimal digits by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef"
+        .toCharArray();
+
+    /** Each thread's SHA-1 digest. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(ObjectId::newDigest);
+
+    /** Each thread's buffer for hashing streams. */
+    private static final ThreadLocal<byte[]> BUFFER =
+        ThreadLocal.withInitial(() -> new byte[Utils.BUFFER_SIZE]);
+
+    /** The raw bytes, big-endian: bytes 0-7, 8-15 and 16-19. */
+    private final long _w1, _w2;
+
+    /** The last four raw bytes. */
+    private final int _w3;
+}
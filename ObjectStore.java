@@ -0,0 +1,570 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The object database of a repository.  Commits, trees and blobs are
+ *  kept either as loose files (one per object, under Repo.COMMITSDIR,
+ *  Repo.TREES and Repo.BLOBS) or in packfiles under Repo.PACKS.  A loose
+ *  object with ID xxyyyy... lives in the file xx/yyyy... of its directory,
+ *  so that no single directory grows with the size of the repository.
+ *  Callers read and write objects by ID without knowing where they live.
+ *  @author Bella Chang
+ */
+class ObjectStore {
+
+    /** Object kind of a commit. */
+    static final byte COMMIT = 1;
+
+    /** Object kind of a blob. */
+    static final byte BLOB = 2;
+
+    /** Object kind of a tree. */
+    static final byte TREE = 3;
+
+    /** Number of leading hex digits of an ID naming its shard. */
+    static final int SHARD_LENGTH = 2;
+
+    /** Return true iff the object of kind KIND with ID is present, loose
+     *  or packed. */
+    static boolean contains(byte kind, ObjectId id) {
+        if (_pending != null && _pending.contains(kind, id)) {
+            return true;
+        }
+        if (looseFile(kind, id).isFile()) {
+            return true;
+        }
+        for (Pack p : packs()) {
+            int k = p.find(id);
+            if (k >= 0 && p.kind(k) == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the stored contents of the object of kind KIND with ID.
+     *  Throws IllegalArgumentException if there is no such object. */
+    static byte[] read(byte kind, ObjectId id) {
+        if (_pending != null) {
+            byte[] data = _pending.read(kind, id);
+            if (data != null) {
+                return data;
+            }
+        }
+        File loose = looseFile(kind, id);
+        if (loose.isFile()) {
+            return Utils.readContents(loose);
+        }
+        for (Pack p : packs()) {
+            int k = p.find(id);
+            if (k >= 0 && p.kind(k) == kind) {
+                return p.read(k);
+            }
+        }
+        throw new IllegalArgumentException("no such object: " + id);
+    }
+
+    /** Store DATA as the loose object of kind KIND with ID (or in the
+     *  pending pack, if there is one), unless that object is already
+     *  present. */
+    static void write(byte kind, ObjectId id, byte[] data) {
+        if (!contains(kind, id)) {
+            if (_pending != null) {
+                _pending.add(kind, id, data);
+                return;
+            }
+            File loose = looseFile(kind, id);
+            loose.getParentFile().mkdirs();
+            Utils.writeContents(loose, data);
+        }
+    }
+
+    /** Return the commit with ID, checking that it is intact.  Commits
+     *  written by older versions with Java serialization are still
+     *  understood. */
+    static Commit readCommit(ObjectId id) {
+        return decodeCommit(id, read(COMMIT, id));
+    }
+
+    /** Return the commit with ID stored as DATA, in either encoding. */
+    static synchronized Commit decodeCommit(ObjectId id, byte[] data) {
+        if (CommitCodec.isEncoded(data)) {
+            return CODEC.decode(id, data);
+        }
+        return LegacyCommit.read(data).toCommit(id);
+    }
+
+    /** Return the stored form of COMMIT. */
+    static synchronized byte[] encodeCommit(Commit commit) {
+        return CODEC.encode(commit);
+    }
+
+    /** Store COMMIT under its ID. */
+    static void writeCommit(Commit commit) {
+        write(COMMIT, commit.getId(), encodeCommit(commit));
+    }
+
+    /** Return a stream of the contents of the blob with ID, decoded as it
+     *  is read.  Throws IllegalArgumentException if there is no such
+     *  blob. */
+    static InputStream openBlob(ObjectId id) {
+        byte[] cached = Delta.cached(id);
+        if (cached != null) {
+            return new ByteArrayInputStream(cached);
+        }
+        try {
+            return BlobCodec.decode(id, openStored(BLOB, id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the length of the delta chain of the blob with ID, which is
+     *  0 if it is stored whole. */
+    static int blobDepth(ObjectId id) {
+        try {
+            return BlobCodec.depth(openStored(BLOB, id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the blob with ID. */
+    static byte[] readBlob(ObjectId id) {
+        try (InputStream in = openBlob(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the blob with ID, or null if they are longer
+     *  than LIMIT bytes.  Decoding stops after LIMIT + 1 bytes, so a large
+     *  blob is not read in full only to be rejected. */
+    static byte[] readBlob(ObjectId id, int limit) {
+        try (InputStream in = openBlob(id)) {
+            byte[] result = in.readNBytes(limit + 1);
+            return result.length > limit ? null : result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the contents of the blob with ID to OUT, decoding them on
+     *  the fly.  Does not close OUT. */
+    static void copyBlobTo(ObjectId id, OutputStream out) {
+        try (InputStream in = openBlob(id)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Overwrite the file DEST with the contents of the blob with ID,
+     *  decoding them on the fly. */
+    static void copyBlobTo(ObjectId id, File dest) {
+        try (InputStream in = openBlob(id)) {
+            Files.copy(in, dest.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store CONTENTS as the blob with ID. */
+    static void writeBlob(ObjectId id, byte[] contents) {
+        if (!contains(BLOB, id)) {
+            write(BLOB, id, BlobCodec.encode(contents));
+        }
+    }
+
+    /** Store the contents of SOURCE as a blob and return its ID.  The file
+     *  is read once into a temporary file in the object store: compressed
+     *  and hashed as it is read or, when blobs are stored RAW, copied with
+     *  FileChannel.transferTo and hashed from the copy.  The temporary file
+     *  is then atomically renamed to its final name (or deleted, if that
+     *  blob is already present).  So the contents never pass through the
+     *  Java heap as a whole, a partial blob is never visible, and the blob
+     *  matches its ID even if SOURCE changes while it is read.  Large files
+     *  are split into content-defined chunks. */
+    static ObjectId writeBlob(File source) {
+        if (Chunker.wanted(source.length())) {
+            return Chunker.store(source);
+        }
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, Repo.BLOBS);
+            ObjectId id;
+            if (BlobCodec.encodingFor(BlobCodec.level()) == BlobCodec.RAW) {
+                id = copyRaw(source, tmp);
+            } else {
+                MessageDigest md = ObjectId.newDigest();
+                try (InputStream in = new DigestInputStream(
+                         Files.newInputStream(source.toPath()), md);
+                     OutputStream out = new BufferedOutputStream(
+                         Files.newOutputStream(tmp.toPath()),
+                         Utils.BUFFER_SIZE)) {
+                    BlobCodec.encode(in, out);
+                }
+                id = ObjectId.fromRaw(md.digest());
+            }
+            if (contains(BLOB, id)) {
+                tmp.delete();
+            } else {
+                File dest = looseFile(BLOB, id);
+                dest.getParentFile().mkdirs();
+                Files.move(tmp.toPath(), dest.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE);
+            }
+            return id;
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the contents of SOURCE to TMP as a RAW blob, copying them with
+     *  FileChannel.transferTo, and return the hash of what was copied,
+     *  read back through mappings of TMP. */
+    private static ObjectId copyRaw(File source, File tmp)
+        throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(),
+                 StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp.toPath(),
+                 StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            BlobCodec.writeHeader(header, BlobCodec.RAW);
+            out.write(ByteBuffer.wrap(header.toByteArray()));
+            long length = 0;
+            long n;
+            while ((n = in.transferTo(length, Long.MAX_VALUE, out)) > 0) {
+                length += n;
+            }
+            MessageDigest md = ObjectId.newDigest();
+            for (long pos = 0; pos < length; pos += Integer.MAX_VALUE) {
+                md.update(out.map(FileChannel.MapMode.READ_ONLY,
+                                  BlobCodec.HEADER_LENGTH + pos,
+                                  Math.min(length - pos, Integer.MAX_VALUE)));
+            }
+            return ObjectId.fromRaw(md.digest());
+        }
+    }
+
+    /** Return a stream over the stored contents of the object of kind KIND
+     *  with ID.  Throws IllegalArgumentException if there is no such
+     *  object. */
+    private static InputStream openStored(byte kind, ObjectId id)
+        throws IOException {
+        if (_pending != null) {
+            byte[] data = _pending.read(kind, id);
+            if (data != null) {
+                return new ByteArrayInputStream(data);
+            }
+        }
+        File loose = looseFile(kind, id);
+        if (loose.isFile()) {
+            return Files.newInputStream(loose.toPath());
+        }
+        for (Pack p : packs()) {
+            int k = p.find(id);
+            if (k >= 0 && p.kind(k) == kind) {
+                return p.open(k);
+            }
+        }
+        throw new IllegalArgumentException("no such object: " + id);
+    }
+
+    /** Store the contents of SOURCE as a blob and return its ID, as for
+     *  writeBlob(SOURCE).  If BASEID is not null, it names an earlier
+     *  version of the same file, and the blob is stored as a delta against
+     *  it when that is allowed and saves space. */
+    static ObjectId writeBlob(File source, ObjectId baseId) {
+        if (baseId != null && source.length()
+            <= Config.getInt(Config.DELTA_MAX_SIZE, Delta.DEFAULT_MAX_SIZE)) {
+            byte[] contents = Utils.readContents(source);
+            ObjectId id = ObjectId.hash(contents);
+            if (contains(BLOB, id)) {
+                return id;
+            }
+            byte[] payload =
+                baseId.equals(id) ? null : Delta.encode(baseId, contents);
+            if (payload != null) {
+                write(BLOB, id, BlobCodec.encodeDelta(payload));
+                return id;
+            }
+        }
+        return writeBlob(source);
+    }
+
+    /** Return the IDs of all objects of kind KIND, loose or packed, in
+     *  order. */
+    static List<ObjectId> ids(byte kind) {
+        TreeSet<ObjectId> result = new TreeSet<>(looseIds(kind));
+        for (Pack p : packs()) {
+            result.addAll(p.ids(kind));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Move any loose objects stored in the old flat layout (one file per
+     *  object directly in Repo.COMMITSDIR or Repo.BLOBS) into their
+     *  shards. */
+    static void shardLooseObjects() {
+        for (byte kind : KINDS) {
+            File dir = looseDir(kind);
+            List<String> flat = Utils.plainFilenamesIn(dir);
+            if (flat == null) {
+                continue;
+            }
+            for (String id : flat) {
+                File dest = looseFile(kind, id);
+                dest.getParentFile().mkdirs();
+                if (!Utils.join(dir, id).renameTo(dest)) {
+                    throw Utils.error("could not move object %s", id);
+                }
+            }
+        }
+    }
+
+    /** Give every blob stored without a header, by versions before
+     *  BlobCodec had one, a RAW header.  Loose blobs are rewritten in
+     *  place, and packs holding any such blob are rewritten whole. */
+    static void addBlobHeaders() {
+        try {
+            for (ObjectId id : looseIds(BLOB)) {
+                File f = looseFile(BLOB, id);
+                if (BlobCodec.isLegacy(id, Files.newInputStream(f.toPath()))) {
+                    File tmp = File.createTempFile("tmp-", null, Repo.BLOBS);
+                    try (OutputStream out = new BufferedOutputStream(
+                             Files.newOutputStream(tmp.toPath()),
+                             Utils.BUFFER_SIZE)) {
+                        BlobCodec.writeHeader(out, BlobCodec.RAW);
+                        Files.copy(f.toPath(), out);
+                    }
+                    Files.move(tmp.toPath(), f.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING,
+                               StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            for (Pack p : packs()) {
+                TreeSet<Integer> legacy = new TreeSet<>();
+                for (int k = 0; k < p.size(); k += 1) {
+                    if (p.kind(k) == BLOB
+                        && BlobCodec.isLegacy(p.id(k), p.open(k))) {
+                        legacy.add(k);
+                    }
+                }
+                if (legacy.isEmpty()) {
+                    continue;
+                }
+                PackWriter writer = new PackWriter(Repo.PACKS);
+                for (int k = 0; k < p.size(); k += 1) {
+                    byte[] data = p.read(k);
+                    if (legacy.contains(k)) {
+                        ByteArrayOutputStream stored =
+                            new ByteArrayOutputStream();
+                        BlobCodec.writeHeader(stored, BlobCodec.RAW);
+                        stored.write(data);
+                        data = stored.toByteArray();
+                    }
+                    writer.add(p.kind(k), p.id(k), data);
+                }
+                writer.finish();
+                p.indexFile().delete();
+                p.packFile().delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        closePacks();
+    }
+
+    /** Store every object written from now on in a new pack, rather than
+     *  as loose objects, until finishPack or abortPack.  Objects in the
+     *  pending pack can be read as soon as they are written. */
+    static void startPack() {
+        _pending = new PackWriter(Repo.PACKS);
+    }
+
+    /** Complete the pending pack started by startPack, making its objects
+     *  permanent. */
+    static void finishPack() {
+        PackWriter writer = _pending;
+        _pending = null;
+        writer.finish();
+        closePacks();
+    }
+
+    /** Discard the pending pack started by startPack and every object
+     *  written to it. */
+    static void abortPack() {
+        if (_pending != null) {
+            _pending.abort();
+            _pending = null;
+        }
+    }
+
+    /** Move all loose objects into a new pack, removing the emptied
+     *  shards.  Returns the number of objects packed. */
+    static int repack() {
+        PackWriter writer = new PackWriter(Repo.PACKS);
+        List<File> packed = new ArrayList<>();
+        for (byte kind : KINDS) {
+            for (ObjectId id : looseIds(kind)) {
+                File f = looseFile(kind, id);
+                writer.add(kind, id, Utils.readContents(f));
+                packed.add(f);
+            }
+        }
+        int n = writer.size();
+        writer.finish();
+        for (File f : packed) {
+            f.delete();
+            f.getParentFile().delete();
+        }
+        closePacks();
+        return n;
+    }
+
+    /** Delete every object of kind KIND, loose or packed, except those in
+     *  the pack whose index is KEEP.  Packs holding such objects are
+     *  rewritten without them. */
+    static void removeAll(byte kind, File keep) {
+        for (ObjectId id : looseIds(kind)) {
+            File f = looseFile(kind, id);
+            f.delete();
+            f.getParentFile().delete();
+        }
+        for (Pack p : packs()) {
+            if (p.ids(kind).isEmpty()
+                || p.indexFile().getName().equals(keep.getName())) {
+                continue;
+            }
+            PackWriter writer = new PackWriter(Repo.PACKS);
+            for (int k = 0; k < p.size(); k += 1) {
+                if (p.kind(k) != kind) {
+                    writer.add(p.kind(k), p.id(k), p.read(k));
+                }
+            }
+            writer.finish();
+            p.indexFile().delete();
+            p.packFile().delete();
+        }
+        closePacks();
+    }
+
+    /** Return the directory holding loose objects of kind KIND. */
+    private static File looseDir(byte kind) {
+        switch (kind) {
+        case COMMIT:
+            return Repo.COMMITSDIR;
+        case TREE:
+            return Repo.TREES;
+        default:
+            return Repo.BLOBS;
+        }
+    }
+
+    /** Return the file that holds the object of kind KIND with ID when it
+     *  is loose. */
+    private static File looseFile(byte kind, ObjectId id) {
+        return looseFile(kind, id.toString());
+    }
+
+    /** Return the file that holds the object of kind KIND whose ID has
+     *  hexadecimal form ID when it is loose. */
+    private static File looseFile(byte kind, String id) {
+        if (id.length() <= SHARD_LENGTH) {
+            return Utils.join(looseDir(kind), id);
+        }
+        return Utils.join(looseDir(kind), id.substring(0, SHARD_LENGTH),
+                          id.substring(SHARD_LENGTH));
+    }
+
+    /** Return the IDs of all loose objects of kind KIND.  Stray files
+     *  whose names are not IDs, such as temporary files, are skipped. */
+    private static List<ObjectId> looseIds(byte kind) {
+        List<ObjectId> result = new ArrayList<>();
+        String[] shards = looseDir(kind).list();
+        if (shards == null) {
+            return result;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            List<String> names =
+                Utils.plainFilenamesIn(Utils.join(looseDir(kind), shard));
+            if (names != null) {
+                for (String name : names) {
+                    if (ObjectId.isHex(shard + name)) {
+                        result.add(ObjectId.fromHex(shard + name));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Close the open packs if packs have been added or removed (by
+     *  another process) since they were opened. */
+    static synchronized void revalidate() {
+        if (_packs != null
+            && !Arrays.equals(_packsStamp, StatCache.stat(Repo.PACKS))) {
+            closePacks();
+        }
+    }
+
+    /** Close the open packs, if any, so that they are reopened when next
+     *  needed. */
+    private static synchronized void closePacks() {
+        if (_packs != null) {
+            for (Pack p : _packs) {
+                p.close();
+            }
+            _packs = null;
+        }
+    }
+
+    /** Return the packs of this repository, opening them if needed. */
+    private static synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packsStamp = StatCache.stat(Repo.PACKS);
+            _packs = Pack.openAll(Repo.PACKS);
+        }
+        return _packs;
+    }
+
+    /** Codec for commits. */
+    private static final CommitCodec CODEC = new CommitCodec();
+
+    /** All object kinds. */
+    private static final byte[] KINDS = { COMMIT, TREE, BLOB };
+
+    /** The pack receiving new objects, or null if they are stored
+     *  loose. */
+    private static PackWriter _pending;
+
+    /** The open packs, or null if not yet opened. */
+    private static List<Pack> _packs;
+
+    /** Stat data of Repo.PACKS when _packs was opened. */
+    private static long[] _packsStamp;
+}
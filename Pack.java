@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A read-only view of one packfile and its index.  The pack file
+ *  (pack-XXX.pack) holds a header (magic, version and an unused count)
+ *  followed by entries of the form <kind byte> <length int> <data>.  The
+ *  index (pack-XXX.idx) holds a header, a 256-entry fanout table whose
+ *  Kth entry is the number of objects whose first ID byte is <= K, the
+ *  sorted 20-byte object IDs, the 8-byte pack offset of each object and
+ *  its 1-byte kind.  The index is memory-mapped and searched in place.
+ *  A Pack holds the pack file open until it is closed.
+ *  @author Bella Chang
+ */
+class Pack implements Closeable {
+
+    /** Magic number at the start of a pack file. */
+    static final int PACK_MAGIC = 0x47504b31;
+
+    /** Magic number at the start of an index file. */
+    static final int IDX_MAGIC = 0x47494431;
+
+    /** Current format version of both files. */
+    static final int VERSION = 1;
+
+    /** Length of a raw object ID. */
+    static final int RAW_ID_LENGTH = 20;
+
+    /** Number of entries in the fanout table. */
+    static final int FANOUT = 256;
+
+    /** Size of the pack and index headers (magic, version, count). */
+    static final int HEADER_SIZE = 12;
+
+    /** Position in a header of the version and of the object count. */
+    static final int VERSION_POS = 4, COUNT_POS = 8;
+
+    /** Size of an entry header in the pack (kind, length). */
+    static final int ENTRY_HEADER_SIZE = 5;
+
+    /** Size of a pack offset in the index. */
+    static final int OFFSET_SIZE = 8;
+
+    /** Mask selecting the low byte of an int. */
+    static final int BYTE_MASK = 0xff;
+
+    /** Opens the pack whose index is IDXFILE.  Throws
+     *  IllegalArgumentException if the index is malformed. */
+    Pack(File idxFile) {
+        String name = idxFile.getName();
+        _idxFile = idxFile;
+        _packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length())
+                        + ".pack");
+        try (FileChannel ch = FileChannel.open(idxFile.toPath(),
+                StandardOpenOption.READ)) {
+            _idx = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            _pack = FileChannel.open(_packFile.toPath(),
+                    StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_idx.getInt(0) != IDX_MAGIC
+                || _idx.getInt(VERSION_POS) != VERSION) {
+            throw new IllegalArgumentException("bad pack index: " + name);
+        }
+        _count = _idx.getInt(COUNT_POS);
+        _idsStart = HEADER_SIZE + FANOUT * 4;
+        _offsetsStart = _idsStart + _count * RAW_ID_LENGTH;
+        _kindsStart = _offsetsStart + _count * OFFSET_SIZE;
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the position of the object ID in this pack, or -1 if it is
+     *  not present. */
+    int find(ObjectId id) {
+        int first = id.byteAt(0);
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = id.compareTo(_idx, _idsStart + mid * RAW_ID_LENGTH);
+            if (c > 0) {
+                lo = mid + 1;
+            } else if (c < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the ID of the Kth object in this pack. */
+    ObjectId id(int k) {
+        return ObjectId.fromRaw(_idx, _idsStart + k * RAW_ID_LENGTH);
+    }
+
+    /** Return the kind of the Kth object in this pack. */
+    byte kind(int k) {
+        return _idx.get(_kindsStart + k);
+    }
+
+    /** Return the IDs of all objects of kind KIND in this pack. */
+    List<ObjectId> ids(byte kind) {
+        List<ObjectId> result = new ArrayList<>();
+        for (int k = 0; k < _count; k += 1) {
+            if (kind(k) == kind) {
+                result.add(id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Return the stored contents of the Kth object in this pack. */
+    byte[] read(int k) {
+        long offset = _idx.getLong(_offsetsStart + k * OFFSET_SIZE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+            readFully(_pack, header, offset);
+            ByteBuffer data = ByteBuffer.allocate(header.getInt(1));
+            readFully(_pack, data, offset + ENTRY_HEADER_SIZE);
+            return data.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the stored contents of the Kth object in this
+     *  pack, read through a memory mapping of just that entry. */
+    InputStream open(int k) {
+        long offset = _idx.getLong(_offsetsStart + k * OFFSET_SIZE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+            readFully(_pack, header, offset);
+            MappedByteBuffer data =
+                _pack.map(FileChannel.MapMode.READ_ONLY,
+                          offset + ENTRY_HEADER_SIZE, header.getInt(1));
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return data.hasRemaining() ? data.get() & BYTE_MASK : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!data.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, data.remaining());
+                    data.get(b, off, n);
+                    return n;
+                }
+            };
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Close the pack file.  Streams already returned by open remain
+     *  readable. */
+    @Override
+    public void close() {
+        try {
+            _pack.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the index file of this pack. */
+    File indexFile() {
+        return _idxFile;
+    }
+
+    /** Return the pack file itself. */
+    File packFile() {
+        return _packFile;
+    }
+
+    /** Fill BUF from CH starting at POSITION. */
+    private static void readFully(FileChannel ch, ByteBuffer buf,
+                                  long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new IOException("truncated pack file");
+            }
+        }
+    }
+
+    /** Return fanout table entry K. */
+    private int fanout(int k) {
+        return _idx.getInt(HEADER_SIZE + k * 4);
+    }
+
+    /** Return the packs in DIR: those with an index pack-XXX.idx and a
+     *  matching pack-XXX.pack.  Other files, such as the temporary files
+     *  of a pack being written, are ignored.  Returns an empty list if DIR
+     *  does not exist. */
+    static List<Pack> openAll(File dir) {
+        List<Pack> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names == null) {
+            return result;
+        }
+        for (String name : names) {
+            if (!name.startsWith("pack-") || !name.endsWith(".idx")) {
+                continue;
+            }
+            String base = name.substring(0, name.length() - ".idx".length());
+            if (names.contains(base + ".pack")) {
+                result.add(new Pack(new File(dir, name)));
+            }
+        }
+        return result;
+    }
+
+    /** The index file. */
+    private final File _idxFile;
+
+    /** The pack file holding the object data. */
+    private final File _packFile;
+
+    /** Open channel on the pack file. */
+    private final FileChannel _pack;
+
+    /** The memory-mapped index. */
+    private final MappedByteBuffer _idx;
+
+    /** Number of objects in the pack. */
+    private final int _count;
+
+    /** Positions in _idx of the ID, offset and kind tables. */
+    private final int _idsStart, _offsetsStart, _kindsStart;
+}
@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Writes a new packfile and its index (see Pack) into a pack directory.
+ *  Objects are appended to the pack as they are added; only their IDs,
+ *  kinds and offsets are kept in memory.  The files are given their
+ *  final names, derived from the SHA-1 of the pack contents, by finish.
+ *  @author Bella Chang
+ */
+class PackWriter {
+
+    /** A writer that will create a new pack in DIR. */
+    PackWriter(File dir) {
+        dir.mkdirs();
+        _dir = dir;
+        try {
+            _tmpPack = File.createTempFile("tmp-", ".pack", dir);
+            _digest = MessageDigest.getInstance("SHA-1");
+            _out = new DataOutputStream(new DigestOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(_tmpPack.toPath())),
+                    _digest));
+            _out.writeInt(Pack.PACK_MAGIC);
+            _out.writeInt(Pack.VERSION);
+            _out.writeInt(0);
+            _position = Pack.HEADER_SIZE;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+    }
+
+    /** Append the object with ID and kind KIND whose stored contents are
+     *  DATA.  Objects already added are skipped. */
+    void add(byte kind, ObjectId id, byte[] data) {
+        if (_seen.containsKey(id)) {
+            return;
+        }
+        try {
+            Entry entry = new Entry(id, kind, _position);
+            _seen.put(id, entry);
+            _entries.add(entry);
+            _out.writeByte(kind);
+            _out.writeInt(data.length);
+            _out.write(data);
+            _position += Pack.ENTRY_HEADER_SIZE + data.length;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of objects added so far. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return true iff an object with ID has been added. */
+    boolean contains(ObjectId id) {
+        return _seen.containsKey(id);
+    }
+
+    /** Return true iff an object of kind KIND with ID has been added. */
+    boolean contains(byte kind, ObjectId id) {
+        Entry e = _seen.get(id);
+        return e != null && e._kind == kind;
+    }
+
+    /** Return the stored contents of the object of kind KIND with ID
+     *  added to this pack, or null if there is none.  Buffered output is
+     *  flushed first, so that the object can be read back from the
+     *  unfinished pack. */
+    byte[] read(byte kind, ObjectId id) {
+        Entry e = _seen.get(id);
+        if (e == null || e._kind != kind) {
+            return null;
+        }
+        try {
+            _out.flush();
+            if (_reader == null) {
+                _reader = FileChannel.open(_tmpPack.toPath(),
+                                           StandardOpenOption.READ);
+            }
+            ByteBuffer header = ByteBuffer.allocate(Pack.ENTRY_HEADER_SIZE);
+            readFully(header, e._offset);
+            ByteBuffer data = ByteBuffer.allocate(header.getInt(1));
+            readFully(data, e._offset + Pack.ENTRY_HEADER_SIZE);
+            return data.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Give up on this pack, deleting what has been written. */
+    void abort() {
+        try {
+            _out.close();
+            closeReader();
+        } catch (IOException excp) {
+            /* Ignore: the file is deleted anyway. */
+        }
+        _tmpPack.delete();
+    }
+
+    /** Move the pack to its final name and then write its index, whose
+     *  presence marks the pack as complete.  Returns
+     *  the new index file, or null (leaving nothing behind) if no objects
+     *  were added. */
+    File finish() {
+        try {
+            _out.close();
+            closeReader();
+            if (_entries.isEmpty()) {
+                _tmpPack.delete();
+                return null;
+            }
+            String name = "pack-" + Utils.toHex(_digest.digest());
+            File pack = new File(_dir, name + ".pack");
+            File idx = new File(_dir, name + ".idx");
+            Files.move(_tmpPack.toPath(), pack.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            writeIndex(idx);
+            return idx;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Fill BUF from the pack being written, starting at POSITION. */
+    private void readFully(ByteBuffer buf, long position)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            if (_reader.read(buf, position + buf.position()) < 0) {
+                throw new IOException("truncated pack");
+            }
+        }
+    }
+
+    /** Close the channel used by read, if open. */
+    private void closeReader() throws IOException {
+        if (_reader != null) {
+            _reader.close();
+            _reader = null;
+        }
+    }
+
+    /** Write the index for the current entries to IDX, going through a
+     *  temporary file so that a partially written index is never seen. */
+    private void writeIndex(File idx) throws IOException {
+        Entry[] sorted = _entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, (a, b) -> a._id.compareTo(b._id));
+        int[] fanout = new int[Pack.FANOUT];
+        for (Entry e : sorted) {
+            fanout[e._id.byteAt(0)] += 1;
+        }
+        for (int i = 1; i < fanout.length; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+        File tmp = File.createTempFile("tmp-", ".idx.tmp", _dir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(Pack.IDX_MAGIC);
+            out.writeInt(Pack.VERSION);
+            out.writeInt(sorted.length);
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (Entry e : sorted) {
+                out.write(e._id.raw());
+            }
+            for (Entry e : sorted) {
+                out.writeLong(e._offset);
+            }
+            for (Entry e : sorted) {
+                out.writeByte(e._kind);
+            }
+        }
+        Files.move(tmp.toPath(), idx.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Location of one object in the pack being written. */
+    private static class Entry {
+        /** An entry for the object with ID and kind KIND, stored at
+         *  OFFSET. */
+        Entry(ObjectId id, byte kind, long offset) {
+            _id = id;
+            _kind = kind;
+            _offset = offset;
+        }
+
+        /** Object ID. */
+        private final ObjectId _id;
+        /** Object kind. */
+        private final byte _kind;
+        /** Offset of the entry in the pack. */
+        private final long _offset;
+    }
+
+    /** Directory receiving the pack. */
+    private final File _dir;
+
+    /** Temporary file holding the pack while it is written. */
+    private final File _tmpPack;
+
+    /** Digest of everything written to the pack. */
+    private final MessageDigest _digest;
+
+    /** Stream onto _tmpPack. */
+    private final DataOutputStream _out;
+
+    /** Offset in the pack of the next entry. */
+    private long _position;
+
+    /** Entries written so far, in pack order. */
+    private final List<Entry> _entries = new ArrayList<>();
+
+    /** Entries written so far, by ID. */
+    private final Map<ObjectId, Entry> _seen = new HashMap<>();
+
+    /** Channel reading back from _tmpPack, or null if not open. */
+    private FileChannel _reader;
+}
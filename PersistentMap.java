@@ -0,0 +1,415 @@
+package gitlet;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** An immutable map implemented as a hash array mapped trie (HAMT).
+ *  Adding or removing a key copies only the O(log n) nodes on the path to
+ *  it and shares everything else with the original map, so many versions
+ *  of a large map (such as the file trackers of a run of commits) cost
+ *  little more than one.  The map is read-only through the Map interface;
+ *  use plus, minus and plusAll to derive new maps.  Keys must not be null
+ *  and must have consistent hashCode and equals methods.
+ *  @author Bella Chang
+ */
+class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+    /** Number of hash bits consumed at each level of the trie. */
+    static final int BITS = 5;
+
+    /** Mask selecting BITS bits. */
+    static final int MASK = (1 << BITS) - 1;
+
+    /** Number of bits in a hash code. */
+    static final int HASH_BITS = 32;
+
+    /** Return an empty map. */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /** Return a map with the same entries as MAP. */
+    static <K, V> PersistentMap<K, V> of(Map<K, V> map) {
+        if (map instanceof PersistentMap) {
+            return (PersistentMap<K, V>) map;
+        }
+        PersistentMap<K, V> empty = empty();
+        return empty.plusAll(map);
+    }
+
+    /** Return this map with KEY mapped to VALUE. */
+    PersistentMap<K, V> plus(K key, V value) {
+        int hash = hash(key);
+        Node node = _root == null ? BitmapNode.EMPTY : _root;
+        boolean present = node.find(hash, key, 0) != null;
+        Node root = node.plus(hash, new Leaf(key, value), 0);
+        if (root == _root) {
+            return this;
+        }
+        return new PersistentMap<>(root, present ? _size : _size + 1);
+    }
+
+    /** Return this map without KEY. */
+    PersistentMap<K, V> minus(Object key) {
+        int hash = hash(key);
+        if (_root == null || _root.find(hash, key, 0) == null) {
+            return this;
+        }
+        return new PersistentMap<>(_root.minus(hash, key, 0), _size - 1);
+    }
+
+    /** Return this map after applying CHANGES: each key mapped to null in
+     *  CHANGES is removed, and each other key is mapped to its value. */
+    PersistentMap<K, V> plusAll(Map<? extends K, ? extends V> changes) {
+        PersistentMap<K, V> result = this;
+        for (Map.Entry<? extends K, ? extends V> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                result = result.minus(e.getKey());
+            } else {
+                result = result.plus(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf leaf = _root == null ? null : _root.find(hash(key), key, 0);
+        return leaf == null ? null : (V) leaf.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return _root != null && _root.find(hash(key), key, 0) != null;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return _size;
+            }
+        };
+    }
+
+    /** A map whose trie is ROOT (null if empty), holding SIZE entries. */
+    private PersistentMap(Node root, int size) {
+        _root = root;
+        _size = size;
+    }
+
+    /** Return the hash of KEY, with its high bits folded into the low
+     *  ones used first. */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> (HASH_BITS / 2));
+    }
+
+    /** An entry of the map. */
+    private static class Leaf extends AbstractMap.SimpleImmutableEntry<
+        Object, Object> {
+        /** An entry mapping KEY to VALUE. */
+        Leaf(Object key, Object value) {
+            super(key, value);
+        }
+    }
+
+    /** A node of the trie.  Nodes are never changed once built. */
+    private abstract static class Node {
+        /** Return the leaf for KEY, with hash HASH, below this node at
+         *  SHIFT bits into the hash, or null if there is none. */
+        abstract Leaf find(int hash, Object key, int shift);
+
+        /** Return this node with LEAF, whose key has hash HASH, added or
+         *  replacing the leaf with the same key.  Returns this node if it
+         *  already holds an equal leaf. */
+        abstract Node plus(int hash, Leaf leaf, int shift);
+
+        /** Return this node without KEY, which it holds, or null if the
+         *  result is empty. */
+        abstract Node minus(int hash, Object key, int shift);
+
+        /** Return the number of children (leaves and nodes). */
+        abstract int width();
+
+        /** Return the Kth child, a Leaf or a Node. */
+        abstract Object child(int k);
+    }
+
+    /** A node with up to 32 children, present where its bitmap has a 1
+     *  bit, indexed by BITS bits of the hash. */
+    private static final class BitmapNode extends Node {
+        /** A node whose children are SLOTS, in the positions of the 1 bits
+         *  of BITMAP. */
+        BitmapNode(int bitmap, Object[] slots) {
+            _bitmap = bitmap;
+            _slots = slots;
+        }
+
+        @Override
+        Leaf find(int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            if ((_bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = _slots[index(bit)];
+            if (slot instanceof Leaf) {
+                Leaf leaf = (Leaf) slot;
+                return leaf.getKey().equals(key) ? leaf : null;
+            }
+            return ((Node) slot).find(hash, key, shift + BITS);
+        }
+
+        @Override
+        Node plus(int hash, Leaf leaf, int shift) {
+            int bit = bit(hash, shift);
+            int k = index(bit);
+            if ((_bitmap & bit) == 0) {
+                Object[] slots = new Object[_slots.length + 1];
+                System.arraycopy(_slots, 0, slots, 0, k);
+                slots[k] = leaf;
+                System.arraycopy(_slots, k, slots, k + 1, _slots.length - k);
+                return new BitmapNode(_bitmap | bit, slots);
+            }
+            Object slot = _slots[k];
+            Object replacement;
+            if (slot instanceof Node) {
+                replacement = ((Node) slot).plus(hash, leaf, shift + BITS);
+            } else if (((Leaf) slot).getKey().equals(leaf.getKey())) {
+                replacement = slot.equals(leaf) ? slot : leaf;
+            } else {
+                Leaf old = (Leaf) slot;
+                replacement = pair(hash(old.getKey()), old, hash, leaf,
+                                   shift + BITS);
+            }
+            if (replacement == slot) {
+                return this;
+            }
+            Object[] slots = _slots.clone();
+            slots[k] = replacement;
+            return new BitmapNode(_bitmap, slots);
+        }
+
+        @Override
+        Node minus(int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            int k = index(bit);
+            Object slot = _slots[k];
+            Object replacement = null;
+            if (slot instanceof Node) {
+                Node child = ((Node) slot).minus(hash, key, shift + BITS);
+                replacement = child;
+                if (child != null && child.width() == 1
+                    && child.child(0) instanceof Leaf) {
+                    replacement = child.child(0);
+                }
+            }
+            if (replacement != null) {
+                Object[] slots = _slots.clone();
+                slots[k] = replacement;
+                return new BitmapNode(_bitmap, slots);
+            }
+            if (_slots.length == 1) {
+                return null;
+            }
+            Object[] slots = new Object[_slots.length - 1];
+            System.arraycopy(_slots, 0, slots, 0, k);
+            System.arraycopy(_slots, k + 1, slots, k, slots.length - k);
+            return new BitmapNode(_bitmap & ~bit, slots);
+        }
+
+        @Override
+        int width() {
+            return _slots.length;
+        }
+
+        @Override
+        Object child(int k) {
+            return _slots[k];
+        }
+
+        /** Return the bit of the bitmap selected by HASH at SHIFT. */
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        /** Return the index in _slots of the child at bitmap bit BIT. */
+        private int index(int bit) {
+            return Integer.bitCount(_bitmap & (bit - 1));
+        }
+
+        /** Return a node at SHIFT holding leaves A and B, with different
+         *  keys whose hashes are HASHA and HASHB. */
+        private static Node pair(int hashA, Leaf a, int hashB, Leaf b,
+                                 int shift) {
+            if (shift >= HASH_BITS) {
+                return new CollisionNode(new Leaf[] { a, b });
+            }
+            int bitA = bit(hashA, shift), bitB = bit(hashB, shift);
+            if (bitA == bitB) {
+                return new BitmapNode(bitA, new Object[] {
+                    pair(hashA, a, hashB, b, shift + BITS) });
+            }
+            Object[] slots = Integer.compareUnsigned(bitA, bitB) < 0
+                ? new Object[] { a, b } : new Object[] { b, a };
+            return new BitmapNode(bitA | bitB, slots);
+        }
+
+        /** The node with no children. */
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        /** Bits marking the children present. */
+        private final int _bitmap;
+        /** Children present, in bit order. */
+        private final Object[] _slots;
+    }
+
+    /** A node holding leaves whose keys have the same full hash. */
+    private static final class CollisionNode extends Node {
+        /** A node holding LEAVES. */
+        CollisionNode(Leaf[] leaves) {
+            _leaves = leaves;
+        }
+
+        @Override
+        Leaf find(int hash, Object key, int shift) {
+            for (Leaf leaf : _leaves) {
+                if (leaf.getKey().equals(key)) {
+                    return leaf;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Node plus(int hash, Leaf leaf, int shift) {
+            for (int k = 0; k < _leaves.length; k += 1) {
+                if (_leaves[k].getKey().equals(leaf.getKey())) {
+                    if (_leaves[k].equals(leaf)) {
+                        return this;
+                    }
+                    Leaf[] leaves = _leaves.clone();
+                    leaves[k] = leaf;
+                    return new CollisionNode(leaves);
+                }
+            }
+            Leaf[] leaves = new Leaf[_leaves.length + 1];
+            System.arraycopy(_leaves, 0, leaves, 0, _leaves.length);
+            leaves[_leaves.length] = leaf;
+            return new CollisionNode(leaves);
+        }
+
+        @Override
+        Node minus(int hash, Object key, int shift) {
+            if (_leaves.length == 1) {
+                return null;
+            }
+            Leaf[] leaves = new Leaf[_leaves.length - 1];
+            int j = 0;
+            for (Leaf leaf : _leaves) {
+                if (!leaf.getKey().equals(key)) {
+                    leaves[j] = leaf;
+                    j += 1;
+                }
+            }
+            return new CollisionNode(leaves);
+        }
+
+        @Override
+        int width() {
+            return _leaves.length;
+        }
+
+        @Override
+        Object child(int k) {
+            return _leaves[k];
+        }
+
+        /** Leaves, in insertion order. */
+        private final Leaf[] _leaves;
+    }
+
+    /** An iterator over the entries of the map, depth first. */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        /** An iterator starting at the first entry. */
+        EntryIterator() {
+            if (_root != null) {
+                _nodes.push(_root);
+                _positions.push(0);
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (_next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf result = _next;
+            advance();
+            return (Map.Entry<K, V>) (Map.Entry<?, ?>) result;
+        }
+
+        /** Move _next to the next leaf, or null at the end. */
+        private void advance() {
+            _next = null;
+            while (!_nodes.isEmpty()) {
+                Node node = _nodes.peek();
+                int k = _positions.pop();
+                if (k == node.width()) {
+                    _nodes.pop();
+                    continue;
+                }
+                _positions.push(k + 1);
+                Object child = node.child(k);
+                if (child instanceof Leaf) {
+                    _next = (Leaf) child;
+                    return;
+                }
+                _nodes.push((Node) child);
+                _positions.push(0);
+            }
+        }
+
+        /** Nodes on the path to the current leaf. */
+        private final ArrayDeque<Node> _nodes = new ArrayDeque<>();
+        /** Index of the next child to visit in each node of _nodes. */
+        private final ArrayDeque<Integer> _positions = new ArrayDeque<>();
+        /** Next leaf to return, or null. */
+        private Leaf _next;
+    }
+
+    /** The empty map. */
+    private static final PersistentMap<Object, Object> EMPTY =
+        new PersistentMap<>(null, 0);
+
+    /** Root of the trie, or null if the map is empty. */
+    private final Node _root;
+
+    /** Number of entries. */
+    private final int _size;
+}
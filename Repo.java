@@ -1,14 +1,23 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Collections;
 import java.util.Set;
-import java.util.HashSet;
+import java.util.TreeSet;
 
 /** Repo class for my gitlet project.
  * @author Bella Chang
@@ -27,20 +36,60 @@ public class Repo {
     /** Blobs folder. */
     static final File BLOBS = Utils.join(GITLET, "blobs");
 
-    /** Adding map. */
+    /** Trees folder. */
+    static final File TREES = Utils.join(GITLET, "trees");
+
+    /** Packfiles folder. */
+    static final File PACKS = Utils.join(GITLET, "packs");
+
+    /** Commit graph file. */
+    static final File COMMIT_GRAPH = Utils.join(GITLET, "commit-graph");
+
+    /** Messages of the commits in the commit graph. */
+    static final File COMMIT_MESSAGES = Utils.join(GITLET, "commit-messages");
+
+    /** Sorted index of commit IDs. */
+    static final File COMMIT_IDS = Utils.join(GITLET, "commit-ids");
+
+    /** Index of the words and trigrams of commit messages. */
+    static final File MESSAGE_INDEX = Utils.join(GITLET, "message-index");
+
+    /** Stat data and IDs of working files. */
+    static final File STAT_CACHE = Utils.join(GITLET, "stat-cache");
+
+    /** Socket of the daemon, present while one is running. */
+    static final File DAEMON_SOCKET = Utils.join(GITLET, "daemon.sock");
+
+    /** Repository format version. */
+    static final File FORMAT = Utils.join(GITLET, "format");
+
+    /** Repository settings. */
+    static final File CONFIG = Utils.join(GITLET, "config");
+
+    /** Adding map, before the StagingIndex. */
     static final File ADDING = Utils.join(GITLET, "adding");
 
-    /** Removal map. */
+    /** Removal map, before the StagingIndex. */
     static final File REMOVAL = Utils.join(GITLET, "removal");
 
+    /** Staging area table (see StagingIndex). */
+    static final File STAGING = Utils.join(GITLET, "index");
+
+    /** Changes to the staging area since its table was written. */
+    static final File STAGING_JOURNAL = Utils.join(GITLET, "index.journal");
+
     /** Branches map. */
     static final File BRANCHES = Utils.join(GITLET, "branches");
 
     /** Current branch string. */
     static final File CURRBRANCH = Utils.join(GITLET, "currentBranch");
 
-    /** To avoid magic number thing. */
-    static final int A = 40;
+    /** Most candidates listed for an ambiguous abbreviated ID. */
+    static final int MAX_CANDIDATES = 10;
+
+    /** State of the repository for the command being run, or null if not
+     * yet needed. */
+    private Session _session;
 
     /** Creates a new Gitlet version-control system in the current directory.
      * This system will automatically start with one commit: a commit that
@@ -57,31 +106,28 @@ public class Repo {
      * to it. */
     public void init() throws IOException {
         if (GITLET.exists()) {
-            System.out.println("A Gitlet version-control system "
+            throw Utils.error("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            System.exit(0);
         } else {
             GITLET.mkdir();
             COMMITSDIR.mkdir();
             BLOBS.mkdir();
+            TREES.mkdir();
+            PACKS.mkdir();
+            Format.write(Format.CURRENT);
 
-            ADDING.createNewFile();
-            Utils.writeObject(ADDING, new LinkedHashMap<>());
-            REMOVAL.createNewFile();
-            Utils.writeObject(REMOVAL, new LinkedHashMap<>());
+            Commit initial = new Commit("initial commit", null);
+            ObjectStore.writeCommit(initial);
+            CommitGraph.add(initial);
 
-            Commit initial = new Commit("initial commit", "");
-            File commit0 = Utils.join(COMMITSDIR, initial.toString());
-            commit0.createNewFile();
-            Utils.writeObject(commit0, initial);
-
-            LinkedHashMap<String, String> branchesMap = new LinkedHashMap<>();
-            branchesMap.put("master", initial.toString());
+            LinkedHashMap<String, ObjectId> branchesMap =
+                    new LinkedHashMap<>();
+            branchesMap.put("master", initial.getId());
             BRANCHES.createNewFile();
-            Utils.writeObject(BRANCHES, branchesMap);
+            session().setBranches(branchesMap);
 
             CURRBRANCH.createNewFile();
-            Utils.writeObject(CURRBRANCH, "master");
+            session().setCurrentBranch("master");
         }
     }
 
@@ -98,44 +144,34 @@ public class Repo {
      * time of the command.
      * @param fileName file name;
      * */
-    @SuppressWarnings("unchecked")
     public void add(String fileName) throws IOException {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
 
         File filePath = Utils.join(CWD, fileName);
         if (!filePath.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+            throw Utils.error("File does not exist.");
         } else {
-            byte[] blobContents = Utils.readContents(filePath);
-            String blobID = Utils.sha1(blobContents);
-
-            LinkedHashMap addMap = getAdding();
-            LinkedHashMap removeMap = getRemoval();
-
-            Commit headCommit = getHead();
-            if (headCommit.getFileTracker().containsKey(fileName)
-                    && headCommit.getFileTracker().get(fileName)
-                    .equals(blobID)) {
-                if (addMap.containsKey(fileName)
-                        && addMap.containsValue(blobID)) {
-                    addMap.remove(fileName, blobID);
+            ObjectId blobID = workingId(fileName);
+
+            ObjectId headID = getHead().getFileTracker().get(fileName);
+            if (!blobID.equals(headID)
+                    && !ObjectStore.contains(ObjectStore.BLOB, blobID)) {
+                blobID = ObjectStore.writeBlob(filePath, headID);
+            }
+            if (blobID.equals(headID)) {
+                if (blobID.equals(session().staged(StagingIndex.ADD,
+                        fileName))) {
+                    session().stage(StagingIndex.ADD, fileName, null);
                 }
-                if (removeMap.containsKey(fileName)
-                        && removeMap.containsValue(blobID)) {
-                    removeMap.remove(fileName, blobID);
-                    Utils.writeObject(REMOVAL, removeMap);
+                if (blobID.equals(session().staged(StagingIndex.REMOVE,
+                        fileName))) {
+                    session().stage(StagingIndex.REMOVE, fileName, null);
                 }
             } else {
-                File blobPath = Utils.join(BLOBS, blobID);
-                blobPath.createNewFile();
-                Utils.writeContents(blobPath, blobContents);
-                addMap.put(fileName, blobID);
+                session().stage(StagingIndex.ADD, fileName, blobID);
             }
-            Utils.writeObject(ADDING, addMap);
         }
     }
 
@@ -158,45 +194,40 @@ public class Repo {
      * being staged for removal by the rm command (below).
      * @param message message;
      * */
-    @SuppressWarnings("unchecked")
     public void commit(String message) throws IOException {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
         if (message.isBlank()) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw Utils.error("Please enter a commit message.");
         }
         if (getAdding().isEmpty() && getRemoval().isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw Utils.error("No changes added to the commit.");
         }
 
-        Commit headClone = new Commit(message, new Date(),
-                getHead().toString(), getHead().getFileTracker());
-
-        for (Object fileName : getAdding().keySet()) {
-            String blobID = (String) getAdding().get(fileName);
-            headClone.addToFileTracker((String) fileName, blobID);
+        Commit head = getHead();
+        LinkedHashMap<String, ObjectId> changes = new LinkedHashMap<>();
+        LinkedHashMap<String, ObjectId> addMap = getAdding();
+        for (String fileName : addMap.keySet()) {
+            changes.put(fileName, addMap.get(fileName));
         }
-
-        for (Object fileToRemove : getRemoval().keySet()) {
-            String rBlobID = (String) getRemoval().get(fileToRemove);
-            headClone.removeFromFileTracker((String) fileToRemove, rBlobID);
+        LinkedHashMap<String, ObjectId> removeMap = getRemoval();
+        for (String fileToRemove : removeMap.keySet()) {
+            changes.put(fileToRemove, null);
         }
+        Commit headClone = new Commit(message, new Date(), head.getId(),
+                null, Tree.apply(head.getTree(), changes));
 
-        File commitsPath = Utils.join(COMMITSDIR, headClone.toString());
-        commitsPath.createNewFile();
-        Utils.writeObject(commitsPath, headClone);
+        ObjectStore.writeCommit(headClone);
+        CommitGraph.add(headClone);
 
-        Utils.writeObject(ADDING, new LinkedHashMap<>());
-        Utils.writeObject(REMOVAL, new LinkedHashMap<>());
+        session().setAdding(new LinkedHashMap<>());
+        session().setRemoval(new LinkedHashMap<>());
 
-        LinkedHashMap branchMap = getBranches();
-        String currBranchStr = Utils.readObject(CURRBRANCH, String.class);
-        branchMap.put(currBranchStr, headClone.toString());
-        Utils.writeObject(BRANCHES, branchMap);
+        LinkedHashMap<String, ObjectId> branchMap = getBranches();
+        String currBranchStr = session().currentBranch();
+        branchMap.put(currBranchStr, headClone.getId());
+        session().setBranches(branchMap);
     }
 
     /** Unstage the file if it is currently staged for addition.
@@ -206,35 +237,29 @@ public class Repo {
      * (do not remove it unless it is tracked in the current
      * @param fileName file name;
      * commit). */
-    @SuppressWarnings("unchecked")
     public void rm(String fileName) {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
-        LinkedHashMap addMap = getAdding();
-        LinkedHashMap removeMap = getRemoval();
+        ObjectId staged = session().staged(StagingIndex.ADD, fileName);
+        ObjectId headID = getHead().getFileTracker().get(fileName);
 
-        if (!addMap.containsKey(fileName)
-                && !getHead().getFileTracker().containsKey(fileName)) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+        if (staged == null && headID == null) {
+            throw Utils.error("No reason to remove the file.");
         }
 
-        if (addMap.containsKey(fileName)) {
-            addMap.remove(fileName);
+        if (staged != null) {
+            session().stage(StagingIndex.ADD, fileName, null);
         }
 
-        if (getHead().getFileTracker().containsKey(fileName)) {
-            removeMap.put(fileName, getHead().getFileTracker().get(fileName));
+        if (headID != null) {
+            session().stage(StagingIndex.REMOVE, fileName, headID);
 
             File cwdFile = Utils.join(CWD, fileName);
             if (cwdFile.exists()) {
                 cwdFile.delete();
             }
         }
-        Utils.writeObject(ADDING, addMap);
-        Utils.writeObject(REMOVAL, removeMap);
     }
 
     /** Starting at the current head commit, display information
@@ -247,31 +272,14 @@ public class Repo {
      * commit's history. For every node in this
      * history, the information it should display is the commit id,
      * the time the commit was made, and
-     * the commit message. */
-    public void log() {
+     * the commit message.  OPTIONS limit the entries shown; see Log.
+     * @param options options;
+     * */
+    public void log(String... options) {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
-        Formatter out = new Formatter();
-
-        Commit currCommit = getHead();
-        while (!currCommit.getParent().equals("")) {
-            out.format("===\n");
-            out.format("commit %s\n", currCommit);
-            out.format("Date: %s\n",
-                    currCommit.dateFormat(currCommit.getTimestamp()));
-            out.format("%s\n", currCommit.getMessage());
-            out.format("\n");
-            File commitPath = Utils.join(COMMITSDIR, currCommit.getParent());
-            currCommit = Utils.readObject(commitPath, Commit.class);
-        }
-        out.format("===\n");
-        out.format("commit %s\n", currCommit);
-        out.format("Date: %s\n",
-                currCommit.dateFormat(currCommit.getTimestamp()));
-        out.format("%s\n", currCommit.getMessage());
-        System.out.print(out);
+        new Log(options).firstParent(getHead());
     }
 
     /** Like log, except displays information about all
@@ -281,30 +289,9 @@ public class Repo {
      * iterate over files within a directory. */
     public void globalLog() {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
-        }
-        Formatter out = new Formatter();
-        Commit initial = null;
-        for (String commitName : Utils.plainFilenamesIn(COMMITSDIR)) {
-            Commit c = Utils.readObject(
-                    Utils.join(COMMITSDIR, commitName), Commit.class);
-            if (!c.getMessage().equals("initial commit")) {
-                out.format("===\n");
-                out.format("commit %s\n", c);
-                out.format("Date: %s\n", c.dateFormat(c.getTimestamp()));
-                out.format("%s\n", c.getMessage());
-                out.format("\n");
-            } else {
-                initial = c;
-            }
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
-        out.format("===\n");
-        out.format("commit %s\n", initial.toString());
-        out.format("Date: %s\n", initial.dateFormat(initial.getTimestamp()));
-        out.format("%s\n", "initial commit");
-
-        System.out.print(out);
+        new Log().all();
     }
 
     /** Displays what branches currently exist, and
@@ -315,22 +302,20 @@ public class Repo {
      *  listed in lexicographic order,
      *  using the Java string-comparison order
      *  (the asterisk doesn't count). */
-    @SuppressWarnings("unchecked")
     public void status() {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
         Formatter out = new Formatter();
-        LinkedHashMap branchesMap = getBranches();
-        LinkedHashMap addingMap = getAdding();
-        LinkedHashMap removalMap = getRemoval();
-        LinkedHashMap headMap = getHead().getFileTracker();
+        LinkedHashMap<String, ObjectId> branchesMap = getBranches();
+        LinkedHashMap<String, ObjectId> addingMap = getAdding();
+        LinkedHashMap<String, ObjectId> removalMap = getRemoval();
+        Map<String, ObjectId> headMap = getHead().getFileTracker();
         out.format("=== Branches ===\n");
         ArrayList<String> branchesList = new ArrayList<>();
         branchesList.addAll(branchesMap.keySet());
         Collections.sort(branchesList);
-        String currBranchStr = Utils.readObject(CURRBRANCH, String.class);
+        String currBranchStr = session().currentBranch();
         for (String branchName : branchesList) {
             if (branchName.equals(currBranchStr)) {
                 branchName = "*" + branchName;
@@ -366,35 +351,40 @@ public class Repo {
      * @param removalMap removal map;
      * @return;
      * */
-    public void status2(Formatter out, LinkedHashMap<String, String> headMap,
-                        LinkedHashMap<String, String> addingMap,
-                        LinkedHashMap<String, String> removalMap) {
+    public void status2(Formatter out, Map<String, ObjectId> headMap,
+                        LinkedHashMap<String, ObjectId> addingMap,
+                        LinkedHashMap<String, ObjectId> removalMap) {
         out.format("=== Modifications Not Staged For Commit ===\n");
         ArrayList<String> modificationsList = new ArrayList<>();
-        for (String f : Utils.plainFilenamesIn(CWD)) {
+        List<String> working = Utils.plainFilenamesIn(CWD);
+        session().statCache().retain(working);
+        List<String> tracked = new ArrayList<>();
+        for (String f : working) {
+            if (addingMap.containsKey(f)
+                    || headMap.containsKey(f) && !removalMap.containsKey(f)) {
+                tracked.add(f);
+            }
+        }
+        Map<String, ObjectId> ids = workingIds(tracked);
+        for (String f : tracked) {
             if (headMap.containsKey(f)
                     && !addingMap.containsKey(f)
-                    && !removalMap.containsKey(f)
-                    && !headMap.get(f).equals(
-                    Utils.sha1(Utils.readContents(
-                            Utils.join(CWD, f))))) {
+                    && !headMap.get(f).equals(ids.get(f))) {
                 modificationsList.add(f);
             } else if (addingMap.containsKey(f)
-                    && !addingMap.get(f).equals(
-                    Utils.sha1(Utils.readContents(
-                            Utils.join(CWD, f))))) {
+                    && !addingMap.get(f).equals(ids.get(f))) {
                 modificationsList.add(f);
             }
         }
-        for (Object addKey : addingMap.keySet()) {
-            if (!Utils.join(CWD, (String) addKey).exists()) {
-                modificationsList.add((String) addKey);
+        for (String addKey : addingMap.keySet()) {
+            if (!Utils.join(CWD, addKey).exists()) {
+                modificationsList.add(addKey);
             }
         }
-        for (Object k : headMap.keySet()) {
+        for (String k : headMap.keySet()) {
             if (!removalMap.containsKey(k)
-                    && !Utils.join(CWD, (String) k).exists()) {
-                modificationsList.add((String) k);
+                    && !Utils.join(CWD, k).exists()) {
+                modificationsList.add(k);
             }
         }
         Collections.sort(modificationsList);
@@ -404,7 +394,7 @@ public class Repo {
         out.format("\n");
         out.format("=== Untracked Files ===\n");
         ArrayList<String> untrackedList = new ArrayList<>();
-        for (String file : Utils.plainFilenamesIn(CWD)) {
+        for (String file : working) {
             if (!addingMap.containsKey(file) && !headMap.containsKey(file)) {
                 untrackedList.add(file);
             }
@@ -427,24 +417,27 @@ public class Repo {
      * @param message message;
      * */
     public void find(String message) {
+        find(MessageIndex.EXACT, message);
+    }
+
+    /** Prints out the ids of all commits whose message matches QUERY
+     * in MODE (one of MessageIndex.MODES), newest first, as found
+     * through the MessageIndex.
+     * @param mode mode;
+     * @param query query;
+     * */
+    public void find(String mode, String query) {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
-
         Formatter out = new Formatter();
-        for (String commitName : Utils.plainFilenamesIn(COMMITSDIR)) {
-            File commitPath = Utils.join(COMMITSDIR, commitName);
-            Commit commit = Utils.readObject(commitPath, Commit.class);
-            if (commit.getMessage().equals(message)) {
-                out.format(commit + "\n");
-            }
+        for (ObjectId id : MessageIndex.find(mode, query)) {
+            out.format("%s\n", id);
         }
         if (!out.toString().equals("")) {
             System.out.print(out);
         } else {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+            throw Utils.error("Found no commit with that message.");
         }
     }
 
@@ -478,61 +471,40 @@ public class Repo {
      (see Failure cases below).
      @param args args;
      */
-    @SuppressWarnings("unchecked")
     public void checkout(String[] args) {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
         if ((args.length == 3 && !args[1].equals("--"))
                 || (args.length == 4 && !args[2].equals("--"))) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw Utils.error("Incorrect operands.");
         }
 
         if (args[1].equals("--")) {
             String fileName = args[2];
 
             if (!getHead().getFileTracker().containsKey(fileName)) {
-                System.out.println("File does not exist in that commit.");
-                System.exit(0);
+                throw Utils.error("File does not exist in that commit.");
             }
 
-            String blobName = getHead().getFileTracker().get(fileName);
-            File blobPath = Utils.join(BLOBS, blobName);
-            byte[] blobContents = Utils.readContents(blobPath);
-
+            ObjectId blobName = getHead().getFileTracker().get(fileName);
             File cwdFile = Utils.join(CWD, fileName);
-            Utils.writeContents(cwdFile, blobContents);
+            ObjectStore.copyBlobTo(blobName, cwdFile);
         } else if (args.length == 4) {
-            String commitID = args[1];
-            if (commitID.length() < A) {
-                for (String c : Utils.plainFilenamesIn(COMMITSDIR)) {
-                    if (c.startsWith(commitID)) {
-                        commitID = c;
-                    }
-                }
-            }
+            ObjectId commitID = resolveRevision(args[1]);
             String fileName = args[3];
 
-            File desiredCommit = Utils.join(COMMITSDIR, commitID);
-            if (!desiredCommit.exists()) {
-                System.out.println("No commit with that id exists.");
-                System.exit(0);
+            if (commitID == null) {
+                throw Utils.error("No commit with that id exists.");
             }
-            Commit actualCommit = Utils.readObject(
-                    desiredCommit, Commit.class);
+            Commit actualCommit = session().commit(commitID);
             if (!actualCommit.getFileTracker().containsKey(fileName)) {
-                System.out.println("File does not exist in that commit.");
-                System.exit(0);
+                throw Utils.error("File does not exist in that commit.");
             }
-            String blobName = actualCommit.
+            ObjectId blobName = actualCommit.
                     getFileTracker().get(fileName);
-            File blobPath = Utils.join(BLOBS, blobName);
-            byte[] blobContents = Utils.readContents(blobPath);
-
             File cwdFile = Utils.join(CWD, fileName);
-            Utils.writeContents(cwdFile, blobContents);
+            ObjectStore.copyBlobTo(blobName, cwdFile);
         } else {
             checkoutBranch(args);
         }
@@ -544,59 +516,43 @@ public class Repo {
      * */
     private void checkoutBranch(String[] args) {
         String branchName = args[1];
-        LinkedHashMap branchesMap = Utils.readObject(
-                BRANCHES, LinkedHashMap.class);
+        LinkedHashMap<String, ObjectId> branchesMap = getBranches();
         if (!branchesMap.containsKey(branchName)) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
-        }
-        String currBranchStr = Utils.readObject(CURRBRANCH, String.class);
-        Commit currCommit = Utils.readObject(
-                Utils.join(COMMITSDIR, (String) branchesMap.get(
-                        currBranchStr)), Commit.class);
-        Commit otherBranchHead = Utils.readObject(Utils.join(
-                        COMMITSDIR, (String) branchesMap.get(branchName)),
-                Commit.class);
+            throw Utils.error("No such branch exists.");
+        }
+        String currBranchStr = session().currentBranch();
+        Commit currCommit = session().commit(
+                branchesMap.get(currBranchStr));
+        Commit otherBranchHead = session().commit(
+                branchesMap.get(branchName));
+        List<String> untracked = new ArrayList<>();
         for (String workingFile : Utils.plainFilenamesIn(CWD)) {
-            File filePath = Utils.join(CWD, workingFile);
-            byte[] fileContents = Utils.readContents(filePath);
-            String workingSHA1 = Utils.sha1(fileContents);
             if (!currCommit.getFileTracker().containsKey(workingFile)) {
-                if (!otherBranchHead.getFileTracker().get(
-                        workingFile).equals(workingSHA1)) {
-                    System.out.println("There is an untracked file "
-                            + "in the way; delete it, or add and "
-                            + "commit it first.");
-                    System.exit(0);
-                }
+                untracked.add(workingFile);
             }
         }
-        String desiredCommitID = (String) branchesMap.get(branchName);
-        File commitPath = Utils.join(COMMITSDIR, desiredCommitID);
-        Commit desiredCommit = Utils.readObject(commitPath, Commit.class);
-        Commit headCommit = getHead();
-        for (String trackedFile : headCommit.getFileTracker().keySet()) {
-            if (!desiredCommit.getFileTracker().containsKey(trackedFile)) {
-                File cwdPath = Utils.join(CWD, trackedFile);
-                cwdPath.delete();
+        Map<String, ObjectId> ids = workingIds(untracked);
+        for (String workingFile : untracked) {
+            if (!otherBranchHead.getFileTracker().get(
+                    workingFile).equals(ids.get(workingFile))) {
+                throw Utils.error("There is an untracked file "
+                        + "in the way; delete it, or add and "
+                        + "commit it first.");
             }
         }
-        for (String fileName : desiredCommit.getFileTracker().keySet()) {
-            File blobPath = Utils.join(BLOBS, desiredCommit.
-                    getFileTracker().get(fileName));
-            byte[] blobContents = Utils.readContents(blobPath);
-            File cwdFile = Utils.join(CWD, fileName);
-            Utils.writeContents(cwdFile, blobContents);
-        }
+        ObjectId desiredCommitID = branchesMap.get(branchName);
+        Commit desiredCommit = session().commit(desiredCommitID);
+        Commit headCommit = getHead();
+        Checkout.to(session().statCache(), desiredCommit.getFileTracker(),
+                headCommit.getFileTracker().keySet());
         if (currBranchStr.equals(branchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw Utils.error("No need to checkout the current branch.");
         } else {
-            Utils.writeObject(ADDING, new LinkedHashMap<>());
-            Utils.writeObject(REMOVAL, new LinkedHashMap<>());
+            session().setAdding(new LinkedHashMap<>());
+            session().setRemoval(new LinkedHashMap<>());
         }
-        Utils.writeObject(CURRBRANCH, branchName);
-        Utils.writeObject(BRANCHES, branchesMap);
+        session().setCurrentBranch(branchName);
+        session().setBranches(branchesMap);
     }
 
     /** Creates a new branch with the given name, and points
@@ -610,21 +566,18 @@ public class Repo {
      * with a default branch called "master".
      * @param branchName branch name;
      * */
-    @SuppressWarnings("unchecked")
     public void branch(String branchName) {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
 
-        LinkedHashMap branchesMap = getBranches();
+        LinkedHashMap<String, ObjectId> branchesMap = getBranches();
         if (branchesMap.containsKey(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw Utils.error("A branch with that name already exists.");
         }
-        String headSHA1 = getHead().toString();
+        ObjectId headSHA1 = getHead().getId();
         branchesMap.put(branchName, headSHA1);
-        Utils.writeObject(BRANCHES, branchesMap);
+        session().setBranches(branchesMap);
     }
 
     /** Deletes the branch with the given name.
@@ -635,24 +588,20 @@ public class Repo {
      * that.
      * @param branchName branch name;
      * */
-    @SuppressWarnings("unchecked")
     public void rmBranch(String branchName) {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
         if (!getBranches().containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw Utils.error("A branch with that name does not exist.");
         }
-        if (getBranches().get(branchName).equals(getHead().toString())) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+        if (getBranches().get(branchName).equals(getHead().getId())) {
+            throw Utils.error("Cannot remove the current branch.");
         }
 
-        LinkedHashMap branchMap = getBranches();
+        LinkedHashMap<String, ObjectId> branchMap = getBranches();
         branchMap.remove(branchName);
-        Utils.writeObject(BRANCHES, branchMap);
+        session().setBranches(branchMap);
     }
 
     /** Checks out all the files tracked by the given commit. Removes tracked
@@ -664,121 +613,103 @@ public class Repo {
      * current branch head.
      * @param commitID commit ID;
      * */
-    @SuppressWarnings("unchecked")
     public void reset(String commitID) {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
-        File commitPath = Utils.join(COMMITSDIR, commitID);
-        if (!commitPath.exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        ObjectId id = resolveRevision(commitID);
+        if (id == null) {
+            throw Utils.error("No commit with that id exists.");
         }
 
-        Commit commit = Utils.readObject(commitPath, Commit.class);
-        String commitSHA1 = commit.toString();
+        Commit commit = session().commit(id);
 
+        List<String> untracked = new ArrayList<>();
         for (String workingFile : Utils.plainFilenamesIn(CWD)) {
-            byte[] fileContents = Utils.readContents(
-                    Utils.join(CWD, workingFile));
-            String fileSHA1 = Utils.sha1(fileContents);
             if (!getAdding().containsKey(workingFile)
                     && !getHead().getFileTracker()
-                    .containsKey(workingFile)
-                    && !commit.getFileTracker().get(workingFile)
-                    .equals(fileSHA1)) {
-                System.out.println("There is an untracked file "
+                    .containsKey(workingFile)) {
+                untracked.add(workingFile);
+            }
+        }
+        Map<String, ObjectId> ids = workingIds(untracked);
+        for (String workingFile : untracked) {
+            if (!commit.getFileTracker().get(workingFile)
+                    .equals(ids.get(workingFile))) {
+                throw Utils.error("There is an untracked file "
                         + "in the way; delete it, or add and "
                         + "commit it first.");
-                System.exit(0);
             }
         }
 
-        for (String fileTracked : commit.getFileTracker().keySet()) {
-            String[] args = new String[4];
-            args[0] = "checkout";
-            args[1] = commitSHA1;
-            args[2] = "--";
-            args[3] = fileTracked;
-            checkout(args);
-        }
-        for (String f : Utils.plainFilenamesIn(CWD)) {
-            if (!commit.getFileTracker().containsKey(f)) {
-                File filePath = Utils.join(CWD, f);
-                filePath.delete();
-            }
-        }
+        Checkout.to(session().statCache(), commit.getFileTracker(),
+                Utils.plainFilenamesIn(CWD));
 
-        Utils.writeObject(ADDING, new LinkedHashMap<>());
-        Utils.writeObject(REMOVAL, new LinkedHashMap<>());
+        session().setAdding(new LinkedHashMap<>());
+        session().setRemoval(new LinkedHashMap<>());
 
-        LinkedHashMap branchesMap = getBranches();
-        String currBranchStr = Utils.readObject(CURRBRANCH, String.class);
-        branchesMap.put(currBranchStr, commitID);
-        Utils.writeObject(BRANCHES, branchesMap);
+        LinkedHashMap<String, ObjectId> branchesMap = getBranches();
+        String currBranchStr = session().currentBranch();
+        branchesMap.put(currBranchStr, commit.getId());
+        session().setBranches(branchesMap);
     }
 
     /** Merging 2 branches together: given and current.
      * @param branchName branch name;
      * */
-    @SuppressWarnings("unchecked")
     public void merge(String branchName) throws IOException {
         if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
-        if (!getBranches().containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        ObjectId givenId = resolveRevision(branchName);
+        if (givenId == null) {
+            throw Utils.error("A branch with that name does not exist.");
         }
-        String currBranchStr = Utils.readObject(CURRBRANCH, String.class);
-        File givenBranchPath = Utils.join(COMMITSDIR, (String)
-                getBranches().get(branchName));
-        File currBranchPath = Utils.join(COMMITSDIR, (String)
+        String currBranchStr = session().currentBranch();
+        Commit givenBranchCom = session().commit(givenId);
+        Commit currBranchCom = session().commit(
                 getBranches().get(currBranchStr));
-        Commit givenBranchCom = Utils.readObject(givenBranchPath,
-                Commit.class);
-        Commit currBranchCom = Utils.readObject(currBranchPath,
-                Commit.class);
         if (!getAdding().isEmpty() || !getRemoval().isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw Utils.error("You have uncommitted changes.");
         }
+        List<String> untracked = new ArrayList<>();
         for (String workingFile : Utils.plainFilenamesIn(CWD)) {
-            File filePath = Utils.join(CWD, workingFile);
-            byte[] fileContents = Utils.readContents(filePath);
-            String workingSHA1 = Utils.sha1(fileContents);
             if (!currBranchCom.getFileTracker().containsKey(workingFile)) {
-                if (!givenBranchCom.getFileTracker().get(workingFile)
-                        .equals(workingSHA1)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
-                }
+                untracked.add(workingFile);
             }
         }
-        if (!getBranches().containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        Map<String, ObjectId> ids = workingIds(untracked);
+        for (String workingFile : untracked) {
+            if (!givenBranchCom.getFileTracker().get(workingFile)
+                    .equals(ids.get(workingFile))) {
+                throw Utils.error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
         }
         if (branchName.equals(currBranchStr)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
-        }
-        Commit splitBranchCom = splitPoint(currBranchCom, givenBranchCom);
-        if (splitBranchCom.toString().equals(givenBranchCom.toString())) {
-            System.out.println("Given branch is an ancestor of the current "
+            throw Utils.error("Cannot merge a branch with itself.");
+        }
+        CommitGraph.add(currBranchCom);
+        CommitGraph.add(givenBranchCom);
+        Commit splitBranchCom = session().commit(MergeBase.find(
+                currBranchCom.getId(), givenBranchCom.getId()));
+        if (splitBranchCom.getId().equals(givenBranchCom.getId())) {
+            throw Utils.error("Given branch is an ancestor of the current "
                     + "branch.");
-            System.exit(0);
         }
-        if (splitBranchCom.toString().equals(currBranchCom.toString())) {
+        if (splitBranchCom.getId().equals(currBranchCom.getId())
+                && !getBranches().containsKey(branchName)) {
+            reset(givenId.toString());
+            System.out.println("Current branch fast-forwarded.");
+            return;
+        }
+        if (splitBranchCom.getId().equals(currBranchCom.getId())) {
             String[] checkoutArr = new String[2];
             checkoutArr[0] = "checkout";
             checkoutArr[1] = branchName;
             checkout(checkoutArr);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         }
         caseChecker(branchName, currBranchStr, currBranchCom,
                 splitBranchCom, givenBranchCom);
@@ -792,36 +723,41 @@ public class Repo {
      * @param givenBranchCom given branch commit;
      * @return
      * */
-    @SuppressWarnings("unchecked")
     private void caseChecker(String branchName, String currBranchStr,
                              Commit currBranchCom, Commit splitBranchCom,
                              Commit givenBranchCom) throws IOException {
-        LinkedHashMap<String, String> addingMap = getAdding();
-        LinkedHashMap<String, String> removalMap = getRemoval();
-        LinkedHashMap<String, String> mergeTrackedFiles = new LinkedHashMap<>();
-        for (String key : currBranchCom.getFileTracker().keySet()) {
-            mergeTrackedFiles.put(key, currBranchCom.getFileTracker().get(key));
-        }
-        for (String f : splitBranchCom.getFileTracker().keySet()) {
+        LinkedHashMap<String, ObjectId> addingMap = getAdding();
+        LinkedHashMap<String, ObjectId> removalMap = getRemoval();
+        LinkedHashMap<String, ObjectId> mergeChanges = new LinkedHashMap<>();
+        Set<String> changed = new TreeSet<>();
+        changed.addAll(Tree.diff(splitBranchCom.getTree(),
+                currBranchCom.getTree()).keySet());
+        changed.addAll(Tree.diff(splitBranchCom.getTree(),
+                givenBranchCom.getTree()).keySet());
+        for (String f : changed) {
+            if (!splitBranchCom.getFileTracker().containsKey(f)) {
+                continue;
+            }
             if (currBranchCom.getFileTracker().containsKey(f)
                     && currBranchCom.getFileTracker().get(f).equals(
                     splitBranchCom.getFileTracker().get(f))) {
                 if (!givenBranchCom.getFileTracker().containsKey(f)) {
-                    mergeTrackedFiles.remove(f);
+                    mergeChanges.put(f, null);
                 } else if (!givenBranchCom.getFileTracker().get(f).equals(
                         splitBranchCom.getFileTracker().get(f))) {
-                    mergeTrackedFiles.put(f, givenBranchCom.
+                    mergeChanges.put(f, givenBranchCom.
                             getFileTracker().get(f));
                 }
             } else if (currBranchCom.getFileTracker().containsKey(f)
                     && currBranchCom.getFileTracker().get(f).equals(
                     splitBranchCom.getFileTracker().get(f))
                     && !givenBranchCom.getFileTracker().containsKey(f)) {
-                mergeTrackedFiles.remove(f);
+                mergeChanges.put(f, null);
             }
         }
         caseChecker2(splitBranchCom, addingMap, removalMap, currBranchCom,
-                givenBranchCom, branchName, currBranchStr, mergeTrackedFiles);
+                givenBranchCom, branchName, currBranchStr, mergeChanges,
+                changed);
     }
 
     /** Helper to finish the cases.
@@ -832,67 +768,70 @@ public class Repo {
      * @param givenBranchCom given branch commit;
      * @param branchName branch name;
      * @param currBranchStr current branch string;
-     * @param mergeTrackedFiles map for merge commit files;
+     * @param mergeChanges changes from the current branch's files to the
+     *                     merge commit's;
+     * @param changed files changed since the split point on either branch;
      * @return
      * */
     private void caseChecker2(Commit splitBranchCom,
-                              LinkedHashMap<String, String> addingMap,
-                              LinkedHashMap<String, String> removalMap,
+                              LinkedHashMap<String, ObjectId> addingMap,
+                              LinkedHashMap<String, ObjectId> removalMap,
                               Commit currBranchCom,
                               Commit givenBranchCom, String branchName,
                               String currBranchStr,
-                              LinkedHashMap<String, String>
-                                      mergeTrackedFiles) throws IOException {
+                              LinkedHashMap<String, ObjectId> mergeChanges,
+                              Set<String> changed) throws IOException {
         boolean mergeConflict = false;
-        ArrayList<String> fileNames = new ArrayList<>();
-        fileNames.addAll(splitBranchCom.getFileTracker().keySet());
-        fileNames.addAll(currBranchCom.getFileTracker().keySet());
-        fileNames.addAll(givenBranchCom.getFileTracker().keySet());
-        Set<String> s = new HashSet<>(fileNames);
-        fileNames = new ArrayList<>(s);
-        for (String f : fileNames) {
-            String contents1; String contents2;
+        for (String f : changed) {
             if (modifiedInDifferentWays(givenBranchCom,
                     currBranchCom, splitBranchCom, f)) {
-                if (currBranchCom.getFileTracker().containsKey(f)) {
-                    File currBrPath = Utils.join(BLOBS, currBranchCom.
-                            getFileTracker().get(f));
-                    contents1 = Utils.readContentsAsString(currBrPath);
-                } else {
-                    contents1 = "";
-                }
-                if (givenBranchCom.getFileTracker().containsKey(f)) {
-                    File givenBrPath = Utils.join(BLOBS,
-                            givenBranchCom.getFileTracker().get(f));
-                    contents2 = Utils.readContentsAsString(givenBrPath);
-                } else {
-                    contents2 = "";
-                }
-                String newContents = "<<<<<<< HEAD\n" + contents1
-                        + "=======\n" + contents2 + ">>>>>>>\n";
-                byte[] newContentsBytes = newContents.getBytes();
-                File newFilePath = Utils.join(BLOBS,
-                        Utils.sha1(newContentsBytes));
-                newFilePath.createNewFile();
-                Utils.writeContents(newFilePath, newContentsBytes);
-                mergeTrackedFiles.put(f, Utils.sha1(newContentsBytes));
+                mergeChanges.put(f, writeConflict(f,
+                        currBranchCom.getFileTracker().get(f),
+                        givenBranchCom.getFileTracker().get(f)));
                 mergeConflict = true;
             }
         }
-        for (String f : givenBranchCom.getFileTracker().keySet()) {
-            if (!currBranchCom.getFileTracker().containsKey(f)
+        for (String f : changed) {
+            if (givenBranchCom.getFileTracker().containsKey(f)
+                    && !currBranchCom.getFileTracker().containsKey(f)
                     && !splitBranchCom.getFileTracker().containsKey(f)) {
-                mergeTrackedFiles.put(f, givenBranchCom.
+                mergeChanges.put(f, givenBranchCom.
                         getFileTracker().get(f));
                 String[] stringArr = new String[]{"checkout",
                         givenBranchCom.toString(), "--", f};
                 checkout(stringArr);
             }
         }
-        Utils.writeObject(ADDING, addingMap);
-        Utils.writeObject(REMOVAL, removalMap);
+        session().setAdding(addingMap);
+        session().setRemoval(removalMap);
         finishingMerge(mergeConflict, currBranchCom,
-                givenBranchCom, branchName, currBranchStr, mergeTrackedFiles);
+                givenBranchCom, branchName, currBranchStr, mergeChanges);
+    }
+
+    /** Writes the conflicted version of a file straight into the working
+     * directory, streaming both sides from the object store, and stores it
+     * as a blob.
+     * @param fileName file name;
+     * @param currBlob current branch blob ID, or null if absent;
+     * @param givenBlob given branch blob ID, or null if absent;
+     * @return blob ID of the conflicted file
+     * */
+    private ObjectId writeConflict(String fileName, ObjectId currBlob,
+                                   ObjectId givenBlob) throws IOException {
+        File cwdFile = Utils.join(CWD, fileName);
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(cwdFile.toPath()))) {
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (currBlob != null) {
+                ObjectStore.copyBlobTo(currBlob, out);
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (givenBlob != null) {
+                ObjectStore.copyBlobTo(givenBlob, out);
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        }
+        return ObjectStore.writeBlob(cwdFile);
     }
 
     /** Final helper for merge.
@@ -901,147 +840,74 @@ public class Repo {
      * @param givenBranchCom given branch commit;
      * @param branchName branch name;
      * @param currBranchStr current branch string;
-     * @param mergeTrackedFiles map for merge commit's tracked files;
+     * @param mergeChanges changes from the current branch's files to the
+     *                     merge commit's;
      * @return
      * */
-    @SuppressWarnings("unchecked")
     private void finishingMerge(boolean mergeConflict, Commit currBranchCom,
                                 Commit givenBranchCom, String branchName,
                                 String currBranchStr,
-                                LinkedHashMap<String, String> mergeTrackedFiles)
+                                LinkedHashMap<String, ObjectId> mergeChanges)
             throws IOException {
         String mergeMessage = "Merged " + branchName
                 + " into " + currBranchStr + ".";
         Commit mergeCommit = new Commit(mergeMessage,
                 new Date(),
-                currBranchCom.toString(),
-                givenBranchCom.toString(),
-                mergeTrackedFiles);
+                currBranchCom.getId(),
+                givenBranchCom.getId(),
+                Tree.apply(currBranchCom.getTree(), mergeChanges));
+        Map<String, ObjectId> mergeTrackedFiles = PersistentMap.of(
+                currBranchCom.getFileTracker()).plusAll(mergeChanges);
         if (mergeConflict) {
             System.out.println("Encountered a merge conflict.");
         }
-        for (String file : Utils.plainFilenamesIn(CWD)) {
-            File filePath = Utils.join(CWD, file);
-            if (!mergeTrackedFiles.containsKey(file)) {
-                filePath.delete();
-            } else {
-                byte[] fileContents = Utils.readContents(
-                        Utils.join(BLOBS, mergeTrackedFiles.get(file)));
-                Utils.writeContents(filePath, fileContents);
+        List<String> working = Utils.plainFilenamesIn(CWD);
+        LinkedHashMap<String, ObjectId> kept = new LinkedHashMap<>();
+        for (String file : working) {
+            if (mergeTrackedFiles.containsKey(file)) {
+                kept.put(file, mergeTrackedFiles.get(file));
             }
         }
+        Checkout.to(session().statCache(), kept, working);
 
-        File mergedCommitPath = Utils.join(COMMITSDIR, mergeCommit.toString());
-        mergedCommitPath.createNewFile();
-        Utils.writeObject(mergedCommitPath, mergeCommit);
+        ObjectStore.writeCommit(mergeCommit);
+        CommitGraph.add(mergeCommit);
 
-        LinkedHashMap branchesMap = getBranches();
-        branchesMap.put(currBranchStr, mergeCommit.toString());
-        Utils.writeObject(BRANCHES, branchesMap);
+        LinkedHashMap<String, ObjectId> branchesMap = getBranches();
+        branchesMap.put(currBranchStr, mergeCommit.getId());
+        session().setBranches(branchesMap);
     }
 
-    /** Helper to find the split point (commit) of two branches.
-     * Reminder for self: currBranch is our FOCUS the given branch
-     * is just for finding common ancestors.
-     * @param currCommit current commit;
-     * @param givenCommit given commit;
-     * @return
+    /** Reads commits and blobs from the fast-import stream (see
+     * FastImport) in the file NAME, or the standard input if NAME is null,
+     * into a new pack, and then moves the branches the stream names.  The
+     * working directory is left as it is.
+     * @param name file name, or null;
      * */
-    public Commit splitPoint(Commit currCommit, Commit givenCommit) {
-        LinkedHashMap<String, Integer> currAncestors = new LinkedHashMap<>();
-        int distanceFromHead = 0;
-        currAncestors.put(currCommit.toString(), distanceFromHead);
-        while (currCommit.hasParent()) {
-            distanceFromHead++;
-            currAncestors.put(currCommit.getParent(), distanceFromHead);
-
-            int mergedCount = distanceFromHead;
-            if (!currCommit.getMergedParent().equals("")) {
-                mergedCount++;
-                Commit mergedCommit = Utils.readObject(
-                        Utils.join(COMMITSDIR, currCommit.
-                                getMergedParent()), Commit.class);
-                currAncestors.put(mergedCommit.toString(), mergedCount);
-                while (mergedCommit.hasParent()) {
-                    mergedCount++;
-                    currAncestors.put(mergedCommit.getParent(), mergedCount);
-                    mergedCommit = Utils.readObject(Utils.join(COMMITSDIR,
-                            mergedCommit.getParent()), Commit.class);
-                }
-            }
-
-            currCommit = Utils.readObject(Utils.join(COMMITSDIR,
-                    currCommit.getParent()), Commit.class);
-        }
-        currAncestors.put(currCommit.toString(), distanceFromHead + 1);
-
-        ArrayList<String> givenAncestors = new ArrayList<>();
-        givenAncestors.add(givenCommit.toString());
-        while (givenCommit.hasParent()) {
-            givenAncestors.add(givenCommit.getParent());
-            if (!givenCommit.getMergedParent().equals("")) {
-                Commit mergedGivenCommit = Utils.readObject(
-                        Utils.join(COMMITSDIR, givenCommit.getMergedParent()),
-                        Commit.class);
-                givenAncestors.add(mergedGivenCommit.toString());
-                while (mergedGivenCommit.hasParent()) {
-                    givenAncestors.add(mergedGivenCommit.getParent());
-                    mergedGivenCommit = Utils.readObject(Utils.join(
-                                    COMMITSDIR, mergedGivenCommit.getParent()),
-                            Commit.class);
-                }
-            }
-            givenCommit = Utils.readObject(Utils.join(COMMITSDIR,
-                    givenCommit.getParent()), Commit.class);
-        }
-        givenAncestors.add(givenCommit.toString());
-        return splitPoint2(currAncestors, givenAncestors);
+    public void fastImport(String name) throws IOException {
+        if (!GITLET.exists()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        FastImport importer = new FastImport(getBranches(),
+                session().currentBranch());
+        LinkedHashMap<String, ObjectId> branches;
+        try (InputStream in = name == null ? System.in
+                : Files.newInputStream(CWD.toPath().resolve(name))) {
+            branches = importer.run(in);
+        } catch (NoSuchFileException excp) {
+            throw Utils.error("File does not exist.");
+        }
+        session().setBranches(branches);
     }
 
-    /** Continuing merge from a second split point.
-     * @param currAncestors current ancestors;
-     * @param givenAncestors given ancestors;
-     * @return
-     * */
-    private Commit splitPoint2(LinkedHashMap<String, Integer> currAncestors,
-                               ArrayList<String> givenAncestors) {
-        LinkedHashMap<String, Integer> commonAncestors = new LinkedHashMap<>();
-        for (String ancestor : currAncestors.keySet()) {
-            if (givenAncestors.contains(ancestor)) {
-                commonAncestors.put(ancestor, currAncestors.get(ancestor));
-            }
-        }
-
-        LinkedHashMap<String, Integer> allSplitPoints = new LinkedHashMap<>();
-        ArrayList<String> commonAncestorParents = new ArrayList<>();
-
-        for (String key : commonAncestors.keySet()) {
-            Commit ancestorCom = Utils.readObject(
-                    Utils.join(COMMITSDIR, key), Commit.class);
-            commonAncestorParents.add(ancestorCom.getParent());
-            if (!ancestorCom.getMergedParent().equals("")) {
-                commonAncestorParents.add(ancestorCom.getMergedParent());
-            }
-        }
-
-        for (String commonAncestor : commonAncestors.keySet()) {
-            if (!commonAncestorParents.contains(commonAncestor)) {
-                allSplitPoints.put(commonAncestor,
-                        commonAncestors.get(commonAncestor));
-            }
-        }
-
-        String splitPoint = "";
-        int currMin = Integer.MAX_VALUE;
-        for (String commitSplit : allSplitPoints.keySet()) {
-            if (allSplitPoints.get(commitSplit) < currMin) {
-                currMin = allSplitPoints.get(commitSplit);
-                splitPoint = commitSplit;
-            }
+    /** Folds all loose commits and blobs into a new packfile, so that
+     * later commands find them through one memory-mapped index instead of
+     * one file per object. */
+    public void repack() {
+        if (!GITLET.exists()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
-
-        return Utils.readObject(Utils.join(COMMITSDIR, splitPoint),
-                Commit.class);
+        ObjectStore.repack();
     }
 
     /** Helper method to determine "modified in diff ways".
@@ -1053,9 +919,9 @@ public class Repo {
      * */
     private boolean modifiedInDifferentWays(Commit commit1, Commit commit2,
                                             Commit split, String fileName) {
-        LinkedHashMap<String, String> commit1FT = commit1.getFileTracker();
-        LinkedHashMap<String, String> commit2FT = commit2.getFileTracker();
-        LinkedHashMap<String, String> splitFT = split.getFileTracker();
+        Map<String, ObjectId> commit1FT = commit1.getFileTracker();
+        Map<String, ObjectId> commit2FT = commit2.getFileTracker();
+        Map<String, ObjectId> splitFT = split.getFileTracker();
 
         if (commit1FT.containsKey(fileName)
                 && commit2FT.containsKey(fileName)
@@ -1086,32 +952,154 @@ public class Repo {
      * @return
      */
     private Commit getHead() {
-        LinkedHashMap branchesMap = Utils.readObject(BRANCHES,
-                LinkedHashMap.class);
-        String currBranchStr = Utils.readObject(CURRBRANCH, String.class);
-        String commitSHA1 = (String) branchesMap.get(currBranchStr);
-        File headPath = Utils.join(COMMITSDIR, commitSHA1);
-        return Utils.readObject(headPath, Commit.class);
+        return session().head();
+    }
+
+    /** Return the ID of the commit named by REV: a branch, a full ID, or
+     * an abbreviation of exactly one commit's ID, looked up in IdIndex.
+     * Return null if REV names no commit; throws GitletException if it
+     * abbreviates more than one.
+     * @param rev revision;
+     * @return
+     */
+    ObjectId resolveRevision(String rev) {
+        if (getBranches().containsKey(rev)) {
+            return getBranches().get(rev);
+        }
+        if (ObjectId.isHex(rev)) {
+            ObjectId id = ObjectId.fromHex(rev);
+            return ObjectStore.contains(ObjectStore.COMMIT, id) ? id : null;
+        }
+        if (rev.isEmpty() || rev.length() > ObjectId.HEX_LENGTH
+                || !rev.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return null;
+        }
+        List<ObjectId> found = IdIndex.withPrefix(
+                rev.toLowerCase(Locale.ROOT), MAX_CANDIDATES + 1);
+        if (found.size() > 1) {
+            StringBuilder msg = new StringBuilder();
+            msg.append("Commit id ").append(rev)
+                    .append(" is ambiguous; candidates are:");
+            for (ObjectId id : found.subList(0,
+                    Math.min(MAX_CANDIDATES, found.size()))) {
+                msg.append("\n  ").append(id);
+            }
+            if (found.size() > MAX_CANDIDATES) {
+                msg.append("\n  ...");
+            }
+            throw Utils.error("%s", msg);
+        }
+        return found.isEmpty() ? null : found.get(0);
     }
 
     /** Helper method to get the adding hash map.
      * @return
      */
-    private LinkedHashMap getAdding() {
-        return Utils.readObject(ADDING, LinkedHashMap.class);
+    private LinkedHashMap<String, ObjectId> getAdding() {
+        return session().adding();
     }
 
     /** Helper method to get the removal hash map.
      * @return
      */
-    private LinkedHashMap getRemoval() {
-        return Utils.readObject(REMOVAL, LinkedHashMap.class);
+    private LinkedHashMap<String, ObjectId> getRemoval() {
+        return session().removal();
     }
 
     /** Helper method to get the branches hash map.
      * @return
      */
-    private LinkedHashMap getBranches() {
-        return Utils.readObject(BRANCHES, LinkedHashMap.class);
+    private LinkedHashMap<String, ObjectId> getBranches() {
+        return session().branches();
+    }
+
+    /** Returns the ID of the contents of the working file NAME, reading
+     * it only if it has changed since it was last hashed.
+     * @param name file name;
+     * @return
+     * */
+    private ObjectId workingId(String name) {
+        return session().statCache().hash(name);
+    }
+
+    /** Returns the IDs of the working files NAMES, hashed on several
+     * threads.
+     * @param names file names;
+     * @return
+     * */
+    private Map<String, ObjectId> workingIds(List<String> names) {
+        return WorkTree.hash(session().statCache(), names);
+    }
+
+    /** Returns the session of the command being run, starting it if
+     * needed.
+     * @return
+     * */
+    private Session session() {
+        if (_session == null) {
+            _session = new Session();
+        }
+        return _session;
+    }
+
+    /** Writes back the refs and staging maps changed by the command that
+     * was run.  Called once, after the command succeeds. */
+    public void flush() {
+        if (_session != null) {
+            _session.flush();
+        }
+    }
+
+    /** Writes back the refs and staging maps changed so far, but not the
+     * stat cache.  Called between the commands of a batch. */
+    public void checkpoint() {
+        if (_session != null) {
+            _session.checkpoint();
+        }
+    }
+
+    /** Forgets the changes of a command that failed. */
+    public void discard() {
+        if (_session != null) {
+            _session.discard();
+        }
+    }
+
+    /** Forgets whatever the session has read from files that have since
+     * been changed by another process.  Called by the daemon before each
+     * command. */
+    public void revalidate() {
+        if (_session != null) {
+            _session.revalidate();
+        }
+    }
+
+    /** Reads a map from names to IDs (the staging maps or the branches)
+     * from FILE, which stores the IDs in hexadecimal so that its format
+     * does not depend on ObjectId.
+     * @param file file;
+     * @return
+     * */
+    @SuppressWarnings("unchecked")
+    static LinkedHashMap<String, ObjectId> readIds(File file) {
+        LinkedHashMap<String, String> stored =
+                Utils.readObject(file, LinkedHashMap.class);
+        LinkedHashMap<String, ObjectId> result = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : stored.entrySet()) {
+            result.put(e.getKey(), ObjectId.fromHex(e.getValue()));
+        }
+        return result;
+    }
+
+    /** Writes MAP, from names to IDs, to FILE as readIds expects.
+     * @param file file;
+     * @param map map;
+     * */
+    static void writeIds(File file, Map<String, ObjectId> map) {
+        LinkedHashMap<String, String> stored = new LinkedHashMap<>();
+        for (Map.Entry<String, ObjectId> e : map.entrySet()) {
+            stored.put(e.getKey(), e.getValue().toString());
+        }
+        Utils.writeObject(file, stored);
     }
 }
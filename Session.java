@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The state of a repository for the length of one command (or, in the
+ *  daemon, of many, revalidated before each one).  The refs
+ *  (branches and current branch) and the staging area are read once, when
+ *  first asked for, and changes to them are kept in memory and written
+ *  back once, by flush, when the command succeeds.  The staging area is
+ *  a StagingIndex, so single files are looked up and staged without
+ *  reading or writing the whole area.  A command that fails
+ *  part way leaves the files untouched.  Commits are read through a
+ *  bounded cache, so a command that asks for the same commit many times
+ *  (the head, say) decodes it once.
+ *  @author Bella Chang
+ */
+class Session {
+
+    /** Default number of decoded commits kept in the cache. */
+    static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /** Return the name of the current branch. */
+    String currentBranch() {
+        if (_currentBranch == null) {
+            stamp(Repo.CURRBRANCH);
+            _currentBranch = Utils.readObject(Repo.CURRBRANCH, String.class);
+        }
+        return _currentBranch;
+    }
+
+    /** Make BRANCH the current branch. */
+    void setCurrentBranch(String branch) {
+        _currentBranch = branch;
+        _currentBranchDirty = true;
+    }
+
+    /** Return the branches map (name to head commit ID).  Changes to it
+     *  are written back only after setBranches. */
+    LinkedHashMap<String, ObjectId> branches() {
+        if (_branches == null) {
+            stamp(Repo.BRANCHES);
+            _branches = Repo.readIds(Repo.BRANCHES);
+        }
+        return _branches;
+    }
+
+    /** Replace the branches map with BRANCHES. */
+    void setBranches(LinkedHashMap<String, ObjectId> branches) {
+        _branches = branches;
+        _branchesDirty = true;
+    }
+
+    /** Return the files staged for addition (name to blob ID).  Changes to
+     *  it are written back only after setAdding. */
+    LinkedHashMap<String, ObjectId> adding() {
+        if (_adding == null) {
+            _adding = staging().entries(StagingIndex.ADD);
+        }
+        return _adding;
+    }
+
+    /** Replace the files staged for addition with ADDING. */
+    void setAdding(LinkedHashMap<String, ObjectId> adding) {
+        staging().replace(StagingIndex.ADD, adding);
+        _adding = adding;
+    }
+
+    /** Return the files staged for removal (name to blob ID).  Changes to
+     *  it are written back only after setRemoval. */
+    LinkedHashMap<String, ObjectId> removal() {
+        if (_removal == null) {
+            _removal = staging().entries(StagingIndex.REMOVE);
+        }
+        return _removal;
+    }
+
+    /** Replace the files staged for removal with REMOVAL. */
+    void setRemoval(LinkedHashMap<String, ObjectId> removal) {
+        staging().replace(StagingIndex.REMOVE, removal);
+        _removal = removal;
+    }
+
+    /** Return the blob ID of NAME as staged for KIND (StagingIndex.ADD or
+     *  REMOVE), or null if it is not. */
+    ObjectId staged(byte kind, String name) {
+        return staging().get(kind, name);
+    }
+
+    /** Stage NAME for KIND (StagingIndex.ADD or REMOVE) with blob ID, or
+     *  unstage it if ID is null. */
+    void stage(byte kind, String name, ObjectId id) {
+        staging().put(kind, name, id);
+        LinkedHashMap<String, ObjectId> map =
+            kind == StagingIndex.ADD ? _adding : _removal;
+        if (map != null && id == null) {
+            map.remove(name);
+        } else if (map != null) {
+            map.put(name, id);
+        }
+    }
+
+    /** Return the head commit of the current branch. */
+    Commit head() {
+        return commit(branches().get(currentBranch()));
+    }
+
+    /** Return the commit with ID, from the cache if possible. */
+    Commit commit(ObjectId id) {
+        Commit result = _commits.get(id);
+        if (result == null) {
+            result = ObjectStore.readCommit(id);
+            _commits.put(id, result);
+        }
+        return result;
+    }
+
+    /** Return the stat cache of the working directory. */
+    StatCache statCache() {
+        if (_statCache == null) {
+            stamp(Repo.STAT_CACHE);
+            _statCache = new StatCache();
+        }
+        return _statCache;
+    }
+
+    /** Write back whatever this session has changed. */
+    void flush() {
+        if (_statCache != null) {
+            _statCache.write();
+            stamp(Repo.STAT_CACHE);
+        }
+        checkpoint();
+    }
+
+    /** Write back the changes this session has made to the refs and the
+     *  staging area, but not the stat cache, which only saves work and
+     *  is written whole, by flush.  Staged files are appended to the
+     *  journal of the staging area, so this is cheap when little has
+     *  changed. */
+    void checkpoint() {
+        if (_staging != null && _staging.changed()) {
+            _staging.write();
+            stamp(Repo.STAGING);
+            stamp(Repo.STAGING_JOURNAL);
+        }
+        if (_branchesDirty) {
+            Repo.writeIds(Repo.BRANCHES, _branches);
+            stamp(Repo.BRANCHES);
+            _branchesDirty = false;
+        }
+        if (_currentBranchDirty) {
+            Utils.writeObject(Repo.CURRBRANCH, _currentBranch);
+            stamp(Repo.CURRBRANCH);
+            _currentBranchDirty = false;
+        }
+    }
+
+    /** Forget everything read or changed since the last flush, except
+     *  the commits, which never change.  Used when a command fails, so
+     *  that a session outliving it (as in the daemon) does not keep its
+     *  half-made changes. */
+    void discard() {
+        _currentBranch = null;
+        _branches = _adding = _removal = null;
+        _staging = null;
+        _statCache = null;
+        _currentBranchDirty = _branchesDirty = false;
+    }
+
+    /** Forget each piece of state whose file has been changed (by another
+     *  process) since this session read or wrote it, so that it is read
+     *  again when next needed. */
+    void revalidate() {
+        if (!fresh(Repo.CURRBRANCH)) {
+            _currentBranch = null;
+        }
+        if (!fresh(Repo.BRANCHES)) {
+            _branches = null;
+        }
+        if (!fresh(Repo.STAGING) || !fresh(Repo.STAGING_JOURNAL)) {
+            _staging = null;
+            _adding = _removal = null;
+        }
+        if (!fresh(Repo.STAT_CACHE)) {
+            _statCache = null;
+        }
+    }
+
+    /** Return the staging area, reading it if needed. */
+    private StagingIndex staging() {
+        if (_staging == null) {
+            stamp(Repo.STAGING);
+            stamp(Repo.STAGING_JOURNAL);
+            _staging = new StagingIndex();
+        }
+        return _staging;
+    }
+
+    /** Record the current stat data of FILE. */
+    private void stamp(File file) {
+        _stamps.put(file, StatCache.stat(file));
+    }
+
+    /** Return true iff FILE has the stat data last recorded for it. */
+    private boolean fresh(File file) {
+        return _stamps.containsKey(file)
+            && Arrays.equals(_stamps.get(file), StatCache.stat(file));
+    }
+
+    /** Name of the current branch, or null if not read yet. */
+    private String _currentBranch;
+
+    /** Branches, staged additions and staged removals, each null if not
+     *  read yet. */
+    private LinkedHashMap<String, ObjectId> _branches, _adding, _removal;
+
+    /** The staging area, or null if not read yet. */
+    private StagingIndex _staging;
+
+    /** True for each piece of state changed since it was read. */
+    private boolean _currentBranchDirty, _branchesDirty;
+
+    /** The stat cache, or null if not read yet. */
+    private StatCache _statCache;
+
+    /** Stat data of the files read or written, as when last read or
+     *  written. */
+    private final HashMap<File, long[]> _stamps = new HashMap<>();
+
+    /** Number of commits kept in _commits. */
+    private final int _cacheSize =
+        Config.getInt(Config.CACHE_SIZE, DEFAULT_CACHE_SIZE);
+
+    /** Recently used commits by ID, least recent first. */
+    private final Map<ObjectId, Commit> _commits =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<ObjectId, Commit> eldest) {
+                return size() > _cacheSize;
+            }
+        };
+}
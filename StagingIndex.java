@@ -0,0 +1,372 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/** The staging area: the files staged for addition and for removal, each
+ *  with a blob ID.  It is kept as a table sorted by kind and name
+ *  (Repo.STAGING), which is looked into by binary search, plus a journal
+ *  of the changes made since the table was written
+ *  (Repo.STAGING_JOURNAL), so that staging a file appends one record
+ *  instead of rewriting the whole area.  The table is
+ *  <pre>
+ *    int MAGIC, int VERSION, int generation, int number of entries N
+ *    N ints, the position of each entry
+ *    N entries in increasing order (of kind, then name as UTF-8), each
+ *      byte kind, int length L, L bytes of name (UTF-8), raw blob ID
+ *  </pre>
+ *  and the journal is
+ *  <pre>
+ *    int MAGIC, int generation of the table it follows
+ *    records, each
+ *      byte kind, int length L, L bytes of name (UTF-8),
+ *      byte 1 and a raw blob ID (staged), or byte 0 (no longer staged)
+ *  </pre>
+ *  A journal for another generation, or a partial last record, is
+ *  ignored.  Once the journal is as long as the table, or the area is
+ *  cleared, the table is written afresh and the journal deleted.
+ *  @author Bella Chang
+ */
+class StagingIndex {
+
+    /** Magic number at the start of the table and journal. */
+    static final int MAGIC = 0x47534931;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Size of the table header. */
+    static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    /** Positions in the table header of its fields. */
+    static final int VERSION_POS = 4, GENERATION_POS = 8, COUNT_POS = 12;
+
+    /** Size of the journal header. */
+    static final int JOURNAL_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /** Fewest journal records that cause the table to be rewritten. */
+    static final int MIN_COMPACT = 256;
+
+    /** Kinds of entry: staged for addition and for removal. */
+    static final byte ADD = 'a', REMOVE = 'r';
+
+    /** The staging area as stored in Repo.STAGING and
+     *  Repo.STAGING_JOURNAL, either of which may not exist. */
+    StagingIndex() {
+        load();
+    }
+
+    /** Return the blob ID of NAME staged as KIND, or null if it is not. */
+    ObjectId get(byte kind, String name) {
+        String key = key(kind, name);
+        if (_changes.containsKey(key)) {
+            return _changes.get(key);
+        }
+        int i = search(kind, name.getBytes(StandardCharsets.UTF_8));
+        return i < 0 ? null : id(i);
+    }
+
+    /** Stage NAME as KIND with blob ID, or unstage it if ID is null. */
+    void put(byte kind, String name, ObjectId id) {
+        ObjectId old = get(kind, name);
+        if (Objects.equals(old, id)) {
+            return;
+        }
+        _size += (old == null ? 1 : 0) - (id == null ? 1 : 0);
+        String key = key(kind, name);
+        _changes.put(key, id);
+        _pending.add(key);
+    }
+
+    /** Return the files staged as KIND, by name. */
+    LinkedHashMap<String, ObjectId> entries(byte kind) {
+        LinkedHashMap<String, ObjectId> result = new LinkedHashMap<>();
+        for (int i = 0; i < _count; i += 1) {
+            if (_data.get(position(i)) == kind) {
+                result.put(name(i), id(i));
+            }
+        }
+        for (Map.Entry<String, ObjectId> e : _changes.entrySet()) {
+            if (e.getKey().charAt(0) == kind) {
+                String name = e.getKey().substring(1);
+                if (e.getValue() == null) {
+                    result.remove(name);
+                } else {
+                    result.put(name, e.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Make the files staged as KIND exactly STAGED. */
+    void replace(byte kind, Map<String, ObjectId> staged) {
+        if (staged.isEmpty() && _size == 0) {
+            return;
+        }
+        for (String name : entries(kind).keySet()) {
+            if (!staged.containsKey(name)) {
+                put(kind, name, null);
+            }
+        }
+        for (Map.Entry<String, ObjectId> e : staged.entrySet()) {
+            put(kind, e.getKey(), e.getValue());
+        }
+    }
+
+    /** Return true iff there are changes not yet written. */
+    boolean changed() {
+        return !_pending.isEmpty();
+    }
+
+    /** Write the changes made since the last write, appending them to the
+     *  journal or, if it has grown long enough or the area is now empty,
+     *  writing the table afresh. */
+    void write() {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        if (_size == 0 || _journalCount + _pending.size()
+                          >= Math.max(MIN_COMPACT, _count)) {
+            writeTable(entries(ADD), entries(REMOVE));
+            load();
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (_journalCount == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(_generation);
+                _journalEnd = 0;
+            }
+            for (String key : _pending) {
+                ObjectId id = _changes.get(key);
+                byte[] name = key.substring(1)
+                    .getBytes(StandardCharsets.UTF_8);
+                out.writeByte(key.charAt(0));
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeByte(id == null ? 0 : 1);
+                if (id != null) {
+                    out.write(id.raw());
+                }
+            }
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            try (FileChannel ch = FileChannel.open(
+                     Repo.STAGING_JOURNAL.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ch.truncate(_journalEnd);
+                while (buf.hasRemaining()) {
+                    _journalEnd += ch.write(buf, _journalEnd);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _journalCount += _pending.size();
+        _pending.clear();
+    }
+
+    /** Read the table and replay the journal, forgetting any changes not
+     *  written.  Replay stops at the first record that is not whole. */
+    private void load() {
+        _changes.clear();
+        _pending.clear();
+        _journalCount = 0;
+        _journalEnd = 0;
+        _data = map(Repo.STAGING);
+        if (_data.capacity() < HEADER_SIZE || _data.getInt(0) != MAGIC
+            || _data.getInt(VERSION_POS) != VERSION) {
+            _data = ByteBuffer.allocate(HEADER_SIZE);
+        }
+        _generation = _data.getInt(GENERATION_POS);
+        _count = _size = _data.getInt(COUNT_POS);
+        ByteBuffer journal = map(Repo.STAGING_JOURNAL);
+        if (journal.capacity() < JOURNAL_HEADER_SIZE
+            || journal.getInt() != MAGIC
+            || journal.getInt() != _generation) {
+            return;
+        }
+        try {
+            while (journal.hasRemaining()) {
+                byte kind = journal.get();
+                int length = journal.getInt();
+                if (length < 0 || length > journal.remaining()) {
+                    break;
+                }
+                byte[] name = new byte[length];
+                journal.get(name);
+                ObjectId id = journal.get() == 0 ? null
+                    : ObjectId.fromRaw(journal);
+                String key = key(kind, new String(name,
+                                                  StandardCharsets.UTF_8));
+                ObjectId old = get(kind, key.substring(1));
+                _size += (old == null ? 1 : 0) - (id == null ? 1 : 0);
+                _changes.put(key, id);
+                _journalCount += 1;
+                _journalEnd = journal.position();
+            }
+        } catch (BufferUnderflowException excp) {
+            return;
+        }
+    }
+
+    /** Write the table of ADDED and REMOVED, in the next generation. */
+    private void writeTable(Map<String, ObjectId> added,
+                            Map<String, ObjectId> removed) {
+        List<Map.Entry<byte[], ObjectId>> entries = new ArrayList<>();
+        for (byte kind : new byte[] { ADD, REMOVE }) {
+            for (Map.Entry<String, ObjectId> e
+                     : (kind == ADD ? added : removed).entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] key = new byte[name.length + 1];
+                key[0] = kind;
+                System.arraycopy(name, 0, key, 1, name.length);
+                entries.add(Map.entry(key, e.getValue()));
+            }
+        }
+        entries.sort((a, b) -> Arrays.compareUnsigned(a.getKey(),
+                                                      b.getKey()));
+        File tmp = new File(Repo.GITLET, "index.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp),
+                                          Utils.BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_generation + 1);
+            out.writeInt(entries.size());
+            int pos = HEADER_SIZE + entries.size() * Integer.BYTES;
+            for (Map.Entry<byte[], ObjectId> e : entries) {
+                out.writeInt(pos);
+                pos += Integer.BYTES + e.getKey().length
+                    + ObjectId.RAW_LENGTH;
+            }
+            for (Map.Entry<byte[], ObjectId> e : entries) {
+                byte[] key = e.getKey();
+                out.writeByte(key[0]);
+                out.writeInt(key.length - 1);
+                out.write(key, 1, key.length - 1);
+                out.write(e.getValue().raw());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), Repo.STAGING.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Repo.STAGING_JOURNAL.delete();
+    }
+
+    /** Return the contents of FILE, mapped, or an empty buffer if it does
+     *  not exist. */
+    private static ByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the key of NAME staged as KIND in _changes. */
+    private static String key(byte kind, String name) {
+        return (char) kind + name;
+    }
+
+    /** Return the index of the table entry for NAME (as UTF-8) staged as
+     *  KIND, or -1 if there is none. */
+    private int search(byte kind, byte[] name) {
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int pos = position(mid);
+            int c = Byte.compareUnsigned(_data.get(pos), kind);
+            if (c == 0) {
+                int len = _data.getInt(pos + 1);
+                byte[] other = new byte[len];
+                _data.get(pos + 1 + Integer.BYTES, other);
+                c = Arrays.compareUnsigned(other, name);
+            }
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the position in the table of entry I. */
+    private int position(int i) {
+        return _data.getInt(HEADER_SIZE + i * Integer.BYTES);
+    }
+
+    /** Return the name of table entry I. */
+    private String name(int i) {
+        int pos = position(i);
+        byte[] name = new byte[_data.getInt(pos + 1)];
+        _data.get(pos + 1 + Integer.BYTES, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /** Return the blob ID of table entry I. */
+    private ObjectId id(int i) {
+        int pos = position(i);
+        return ObjectId.fromRaw(_data, pos + 1 + Integer.BYTES
+                                + _data.getInt(pos + 1));
+    }
+
+    /** The mapped table, or an empty header if there is none. */
+    private ByteBuffer _data;
+
+    /** Generation of the table. */
+    private int _generation;
+
+    /** Number of entries in the table. */
+    private int _count;
+
+    /** Number of files staged, of either kind. */
+    private int _size;
+
+    /** Number of whole records in the journal. */
+    private int _journalCount;
+
+    /** Length of the journal up to the end of its last whole record. */
+    private long _journalEnd;
+
+    /** Changes since the table was written, by key: a blob ID, or null
+     *  for a file no longer staged. */
+    private final HashMap<String, ObjectId> _changes = new HashMap<>();
+
+    /** Keys changed since the last write, in order. */
+    private final LinkedHashSet<String> _pending = new LinkedHashSet<>();
+}
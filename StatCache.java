@@ -0,0 +1,293 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** The stat cache: for each working file whose ID has been computed, the
+ *  file's size, modification time (in nanoseconds) and inode when it was
+ *  hashed, and the resulting blob ID.  A file whose stat data still
+ *  match is not read again.  The file (Repo.STAT_CACHE) holds a header
+ *  (magic, version, count) followed by records of the form
+ *  <pre>
+ *    int length of the name, then the name in UTF-8
+ *    long size, long modification time, long inode
+ *    raw 20-byte blob ID
+ *  </pre>
+ *  Stat data cannot tell apart two versions of a file written within one
+ *  tick of the file system's clock, so an entry is trusted only if its
+ *  modification time is before that of the cache file itself (a file
+ *  changed after the cache was written has a newer time), and entries for
+ *  files modified within RACY_NANOS of being hashed are not kept at all.
+ *  Files written by checkout are cached without being read, and only
+ *  the first of those rules applies to them.
+ *  @author Bella Chang
+ */
+class StatCache {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x47535431;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Size of the header (magic, version, count). */
+    static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    /** Size of a record apart from its name. */
+    static final int RECORD_SIZE = Integer.BYTES + 3 * Long.BYTES
+        + ObjectId.RAW_LENGTH;
+
+    /** Files modified this recently, in nanoseconds, before being hashed
+     *  are not cached, since a change in the same clock tick would not
+     *  show in their stat data. */
+    static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** Return the ID of the contents of the working file NAME, reading it
+     *  only if its stat data differ from those cached. */
+    ObjectId hash(String name) {
+        File file = Utils.join(Repo.CWD, name);
+        long[] stat = stat(file);
+        ObjectId id = lookup(name, stat);
+        if (id == null) {
+            id = ObjectId.hash(file);
+            record(name, stat, id);
+        }
+        return id;
+    }
+
+    /** Return the cached ID of the file NAME, whose stat data are now
+     *  STAT, or null if it must be hashed. */
+    ObjectId lookup(String name, long[] stat) {
+        Entry entry = _entries.get(name);
+        if (stat != null && entry != null && entry.matches(stat)
+            && (entry._mtime < _written || entry._checked)) {
+            return entry._id;
+        }
+        return null;
+    }
+
+    /** Cache the stat data STAT of the file NAME, with contents ID, unless
+     *  STAT is null (the file is gone) or too recent to be trusted. */
+    void record(String name, long[] stat, ObjectId id) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (stat == null || stat[1] > now - RACY_NANOS) {
+            if (_entries.remove(name) != null) {
+                _dirty = true;
+            }
+            return;
+        }
+        Entry old = _entries.put(name, new Entry(stat[0], stat[1], stat[2],
+                                                 id, true));
+        if (old == null || !old.matches(stat) || !old._id.equals(id)) {
+            _dirty = true;
+        }
+    }
+
+    /** Cache the stat data STAT of the file NAME, which this command has
+     *  just written with contents ID.  The contents are known without
+     *  reading them, so the entry is kept however recent STAT is; but,
+     *  like an entry read from the file, it is trusted only once the
+     *  cache file is newer than it, so that a change made within the
+     *  same clock tick is still seen. */
+    void recordWritten(String name, long[] stat, ObjectId id) {
+        if (stat == null) {
+            if (_entries.remove(name) != null) {
+                _dirty = true;
+            }
+            return;
+        }
+        _entries.put(name, new Entry(stat[0], stat[1], stat[2], id, false));
+        _dirty = true;
+    }
+
+    /** Return the size, modification time in nanoseconds and inode of
+     *  FILE, or null if it does not exist. */
+    static long[] stat(File file) {
+        Path path = file.toPath();
+        try {
+            if (_unix) {
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(
+                        path, "unix:size,lastModifiedTime,ino");
+                    return new long[] {
+                        (Long) attrs.get("size"),
+                        nanos((FileTime) attrs.get("lastModifiedTime")),
+                        (Long) attrs.get("ino")
+                    };
+                } catch (UnsupportedOperationException excp) {
+                    _unix = false;
+                }
+            }
+            BasicFileAttributes attrs =
+                Files.readAttributes(path, BasicFileAttributes.class);
+            return new long[] {
+                attrs.size(), nanos(attrs.lastModifiedTime()), 0
+            };
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forget every file not in NAMES, the files now in the working
+     *  directory. */
+    void retain(Collection<String> names) {
+        HashSet<String> keep = new HashSet<>(names);
+        if (_entries.keySet().retainAll(keep)) {
+            _dirty = true;
+        }
+    }
+
+    /** Write the cache back if it has changed.  The file is written under
+     *  a temporary name and then renamed, so readers never see a partial
+     *  cache. */
+    void write() {
+        if (!_dirty) {
+            return;
+        }
+        int size = HEADER_SIZE;
+        Map<String, byte[]> names = new HashMap<>();
+        for (String name : _entries.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            names.put(name, bytes);
+            size += RECORD_SIZE + bytes.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(_entries.size());
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            byte[] name = names.get(e.getKey());
+            Entry entry = e.getValue();
+            out.putInt(name.length);
+            out.put(name);
+            out.putLong(entry._size);
+            out.putLong(entry._mtime);
+            out.putLong(entry._inode);
+            entry._id.putTo(out);
+        }
+        out.flip();
+        File tmp = new File(Repo.GITLET, "stat-cache.tmp");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                ch.write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), Repo.STAT_CACHE.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _dirty = false;
+    }
+
+    /** Reads the cache in Repo.STAT_CACHE.  A missing or unreadable file
+     *  is an empty cache, since everything in it can be recomputed. */
+    StatCache() {
+        _entries = new ConcurrentHashMap<>();
+        long[] stat = stat(Repo.STAT_CACHE);
+        if (stat == null) {
+            _written = Long.MIN_VALUE;
+            return;
+        }
+        _written = stat[1];
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(Repo.STAT_CACHE
+                                                    .toPath()));
+        } catch (IOException excp) {
+            return;
+        }
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC
+            || in.getInt() != VERSION) {
+            return;
+        }
+        try {
+            for (int n = in.getInt(); n > 0; n -= 1) {
+                byte[] name = new byte[in.getInt()];
+                in.get(name);
+                long size = in.getLong(), mtime = in.getLong(),
+                    inode = in.getLong();
+                _entries.put(new String(name, StandardCharsets.UTF_8),
+                             new Entry(size, mtime, inode,
+                                       ObjectId.fromRaw(in), false));
+            }
+        } catch (RuntimeException excp) {
+            _entries.clear();
+        }
+    }
+
+    /** The cached stat data and ID of one file. */
+    private static class Entry {
+        /** An entry for a file with stat data SIZE, MTIME and INODE and
+         *  contents ID, which were hashed by this command iff CHECKED. */
+        Entry(long size, long mtime, long inode, ObjectId id,
+              boolean checked) {
+            _size = size;
+            _mtime = mtime;
+            _inode = inode;
+            _id = id;
+            _checked = checked;
+        }
+
+        /** Return true iff STAT (as returned by stat) matches this
+         *  entry. */
+        boolean matches(long[] stat) {
+            return stat[0] == _size && stat[1] == _mtime
+                && stat[2] == _inode;
+        }
+
+        /** Size in bytes. */
+        private final long _size;
+        /** Modification time in nanoseconds since the epoch. */
+        private final long _mtime;
+        /** Inode number, or 0 where the file system has none. */
+        private final long _inode;
+        /** Blob ID of the contents. */
+        private final ObjectId _id;
+        /** True iff the contents were hashed by this command. */
+        private final boolean _checked;
+    }
+
+    /** Return TIME in nanoseconds since the epoch. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Entries by file name.  Files may be hashed from several threads
+     *  at once. */
+    private final ConcurrentHashMap<String, Entry> _entries;
+
+    /** Modification time of the cache file when read, in nanoseconds;
+     *  entries modified at or after it are not trusted. */
+    private final long _written;
+
+    /** True iff _entries has changed since it was read. */
+    private volatile boolean _dirty;
+
+    /** False once the "unix" attribute view has proved unsupported. */
+    private static volatile boolean _unix = true;
+}
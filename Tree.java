@@ -0,0 +1,424 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Snapshots of tracked files as Merkle trees.  Each directory is a tree
+ *  object listing its files by blob ID and its subdirectories by tree ID,
+ *  so a commit names all its files with one root tree ID, commits share
+ *  every subtree they do not change, and two snapshots are compared by
+ *  descending only into subtrees whose IDs differ.  A directory of more
+ *  than MAX_ENTRIES entries is stored instead as a tree of buckets keyed by
+ *  successive bytes of the SHA-1 of each entry's name, so that changing
+ *  one entry of a large directory rewrites only a few small trees.  The
+ *  shape depends only on the entries, so a set of files has exactly one
+ *  root tree ID however it was reached.  A tree is encoded as:
+ *  <pre>
+ *    'g' 't' VERSION
+ *    int number of entries, then for each in name order:
+ *        kind byte, int name length, name bytes (UTF-8), raw 20-byte ID,
+ *        and for a bucket, int number of directory entries in it
+ *  </pre>
+ *  Paths are separated by '/'.  Changes to a snapshot are given as maps
+ *  from paths to new blob IDs, with null for removed files.
+ *  @author Bella Chang
+ */
+class Tree {
+
+    /** Leading bytes of an encoded tree. */
+    static final byte[] MAGIC = { 'g', 't' };
+
+    /** Version of the encoding. */
+    static final byte VERSION = 1;
+
+    /** Entry kind of a file. */
+    static final byte FILE = 0;
+
+    /** Entry kind of a subdirectory. */
+    static final byte DIRECTORY = 1;
+
+    /** Entry kind of a bucket of a large directory. */
+    static final byte BUCKET = 2;
+
+    /** Largest number of entries kept in a single tree. */
+    static final int MAX_ENTRIES = 256;
+
+    /** Number of hex digits of a name's hash selecting its bucket. */
+    static final int BUCKET_DIGITS = 2;
+
+    /** Deepest level of buckets, where every byte of the hash is used. */
+    static final int MAX_DEPTH = ObjectId.RAW_LENGTH - 1;
+
+    /** Bits of a hash byte in the first hex digit of its bucket. */
+    private static final int BUCKET_DIGIT_BITS = 4;
+
+    /** Path separator. */
+    static final char SEPARATOR = '/';
+
+    /** ID of the empty tree, which is never stored. */
+    static final ObjectId EMPTY = ObjectId.hash(encode(new TreeMap<>()));
+
+    /** Return the files in the tree with ID ROOT, mapping each path to its
+     *  blob ID, in path order. */
+    static LinkedHashMap<String, ObjectId> files(ObjectId root) {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        collectFiles(root, "", 0, result);
+        return new LinkedHashMap<>(result);
+    }
+
+    /** Return the ID of the tree holding exactly FILES (path to blob ID),
+     *  storing any new trees. */
+    static ObjectId write(Map<String, ObjectId> files) {
+        return apply(EMPTY, files);
+    }
+
+    /** Return the ID of the tree resulting from applying CHANGES to the
+     *  tree with ID ROOT, storing the trees along the changed paths.
+     *  Every other subtree is shared with ROOT. */
+    static ObjectId apply(ObjectId root, Map<String, ObjectId> changes) {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        return applyDirectory(root, new TreeMap<>(changes));
+    }
+
+    /** Return the changes that turn the tree with ID FROM into the tree
+     *  TO, in path order.  Subtrees with equal IDs are skipped without
+     *  being read. */
+    static LinkedHashMap<String, ObjectId> diff(ObjectId from,
+                                                ObjectId to) {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        diffNodes(from, to, 0, "", result);
+        return new LinkedHashMap<>(result);
+    }
+
+    /** An entry of a tree. */
+    private static class Entry {
+        /** An entry of kind KIND naming the object with ID, holding COUNT
+         *  directory entries if it is a bucket. */
+        Entry(byte kind, ObjectId id, int count) {
+            _kind = kind;
+            _id = id;
+            _count = count;
+        }
+
+        /** Return true iff this entry and OTHER name the same object. */
+        boolean sameAs(Entry other) {
+            return other != null && _kind == other._kind
+                && _id.equals(other._id);
+        }
+
+        /** Kind of entry. */
+        private final byte _kind;
+        /** ID of the blob or tree named. */
+        private final ObjectId _id;
+        /** Number of directory entries in a bucket. */
+        private final int _count;
+    }
+
+    /** Return the ID of the directory tree DIR after applying CHANGES,
+     *  whose paths are relative to DIR.  A file may replace a directory of
+     *  the same name whose files are all removed. */
+    private static ObjectId applyDirectory(ObjectId dir,
+                                           SortedMap<String, ObjectId>
+                                           changes) {
+        TreeMap<String, Entry> direct = new TreeMap<>();
+        TreeMap<String, TreeMap<String, ObjectId>> below = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> change : changes.entrySet()) {
+            String path = change.getKey();
+            int sep = path.indexOf(SEPARATOR);
+            if (sep < 0) {
+                direct.put(path, change.getValue() == null ? null
+                           : new Entry(FILE, change.getValue(), 0));
+            } else {
+                below.computeIfAbsent(path.substring(0, sep),
+                                      k -> new TreeMap<>())
+                    .put(path.substring(sep + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, ObjectId>> sub
+                 : below.entrySet()) {
+            Entry old = find(dir, sub.getKey(), 0);
+            boolean wasDirectory = old != null && old._kind == DIRECTORY;
+            ObjectId id = applyDirectory(wasDirectory ? old._id : EMPTY,
+                                         sub.getValue());
+            if (!id.equals(EMPTY)) {
+                direct.put(sub.getKey(), new Entry(DIRECTORY, id, 0));
+            } else if (wasDirectory && !direct.containsKey(sub.getKey())) {
+                direct.put(sub.getKey(), null);
+            }
+        }
+        return applyNode(dir, 0, direct)._id;
+    }
+
+    /** Return the entry named NAME in the directory whose tree (or bucket
+     *  at DEPTH) is NODE, or null if there is none. */
+    private static Entry find(ObjectId node, String name, int depth) {
+        TreeMap<String, Entry> entries = read(node);
+        if (isBuckets(entries)) {
+            Entry bucket = entries.get(bucket(name, depth));
+            return bucket == null ? null : find(bucket._id, name, depth + 1);
+        }
+        return entries.get(name);
+    }
+
+    /** Return a bucket entry for the node that results from applying
+     *  DIRECT (entry name to new entry, or null to remove it) to the
+     *  directory tree, or bucket at DEPTH, NODE. */
+    private static Entry applyNode(ObjectId node, int depth,
+                                   SortedMap<String, Entry> direct) {
+        TreeMap<String, Entry> entries = read(node);
+        if (!isBuckets(entries)) {
+            for (Map.Entry<String, Entry> e : direct.entrySet()) {
+                if (e.getValue() == null) {
+                    entries.remove(e.getKey());
+                } else {
+                    entries.put(e.getKey(), e.getValue());
+                }
+            }
+            return build(depth, entries);
+        }
+        TreeMap<String, TreeMap<String, Entry>> byBucket = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : direct.entrySet()) {
+            byBucket.computeIfAbsent(bucket(e.getKey(), depth),
+                                     k -> new TreeMap<>())
+                .put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, TreeMap<String, Entry>> group
+                 : byBucket.entrySet()) {
+            Entry old = entries.get(group.getKey());
+            Entry changed = applyNode(old == null ? EMPTY : old._id,
+                                      depth + 1, group.getValue());
+            if (changed._count == 0) {
+                entries.remove(group.getKey());
+            } else {
+                entries.put(group.getKey(), changed);
+            }
+        }
+        int total = 0;
+        for (Entry e : entries.values()) {
+            total += e._count;
+        }
+        if (total > MAX_ENTRIES) {
+            return new Entry(BUCKET, store(entries), total);
+        }
+        TreeMap<String, Entry> flat = new TreeMap<>();
+        for (Entry e : entries.values()) {
+            collectEntries(e._id, depth + 1, flat);
+        }
+        return build(depth, flat);
+    }
+
+    /** Store ENTRIES, the entries of a directory, as a tree at bucket
+     *  depth DEPTH, splitting it into buckets if it is too large.  Return
+     *  a bucket entry for the result. */
+    private static Entry build(int depth, TreeMap<String, Entry> entries) {
+        if (entries.size() <= MAX_ENTRIES || depth >= MAX_DEPTH) {
+            return new Entry(BUCKET, store(entries), entries.size());
+        }
+        TreeMap<String, TreeMap<String, Entry>> byBucket = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            byBucket.computeIfAbsent(bucket(e.getKey(), depth),
+                                     k -> new TreeMap<>())
+                .put(e.getKey(), e.getValue());
+        }
+        TreeMap<String, Entry> buckets = new TreeMap<>();
+        for (Map.Entry<String, TreeMap<String, Entry>> group
+                 : byBucket.entrySet()) {
+            buckets.put(group.getKey(), build(depth + 1, group.getValue()));
+        }
+        return new Entry(BUCKET, store(buckets), entries.size());
+    }
+
+    /** Add the files of the directory whose tree (or bucket at DEPTH) is
+     *  NODE to RESULT, with PREFIX prepended to their paths. */
+    private static void collectFiles(ObjectId node, String prefix,
+                                     int depth,
+                                     Map<String, ObjectId> result) {
+        for (Map.Entry<String, Entry> e : read(node).entrySet()) {
+            Entry entry = e.getValue();
+            if (entry._kind == BUCKET) {
+                collectFiles(entry._id, prefix, depth + 1, result);
+            } else if (entry._kind == DIRECTORY) {
+                collectFiles(entry._id, prefix + e.getKey() + SEPARATOR, 0,
+                             result);
+            } else {
+                result.put(prefix + e.getKey(), entry._id);
+            }
+        }
+    }
+
+    /** Add the entries of the directory whose tree (or bucket at DEPTH) is
+     *  NODE to RESULT, looking through buckets. */
+    private static void collectEntries(ObjectId node, int depth,
+                                       Map<String, Entry> result) {
+        for (Map.Entry<String, Entry> e : read(node).entrySet()) {
+            if (e.getValue()._kind == BUCKET) {
+                collectEntries(e.getValue()._id, depth + 1, result);
+            } else {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Add to RESULT the changes turning the directory tree (or bucket at
+     *  DEPTH) FROM into TO, whose paths start with PREFIX. */
+    private static void diffNodes(ObjectId from, ObjectId to, int depth,
+                                  String prefix,
+                                  Map<String, ObjectId> result) {
+        if (from.equals(to)) {
+            return;
+        }
+        TreeMap<String, Entry> a = read(from), b = read(to);
+        if (isBuckets(a) && isBuckets(b)) {
+            TreeSet<String> buckets = new TreeSet<>(a.keySet());
+            buckets.addAll(b.keySet());
+            for (String name : buckets) {
+                diffNodes(a.containsKey(name) ? a.get(name)._id : EMPTY,
+                          b.containsKey(name) ? b.get(name)._id : EMPTY,
+                          depth + 1, prefix, result);
+            }
+            return;
+        }
+        if (isBuckets(a) || isBuckets(b)) {
+            a = new TreeMap<>();
+            b = new TreeMap<>();
+            collectEntries(from, depth, a);
+            collectEntries(to, depth, b);
+        }
+        TreeSet<String> names = new TreeSet<>(a.keySet());
+        names.addAll(b.keySet());
+        for (String name : names) {
+            Entry x = a.get(name), y = b.get(name);
+            if (x != null && x.sameAs(y)) {
+                continue;
+            }
+            String path = prefix + name;
+            if (x != null && y != null && x._kind == DIRECTORY
+                && y._kind == DIRECTORY) {
+                diffNodes(x._id, y._id, 0, path + SEPARATOR, result);
+                continue;
+            }
+            if (x != null && x._kind == DIRECTORY) {
+                for (String file : files(x._id).keySet()) {
+                    result.put(path + SEPARATOR + file, null);
+                }
+            } else if (x != null) {
+                result.put(path, null);
+            }
+            if (y != null && y._kind == DIRECTORY) {
+                LinkedHashMap<String, ObjectId> added = files(y._id);
+                for (String file : added.keySet()) {
+                    result.put(path + SEPARATOR + file, added.get(file));
+                }
+            } else if (y != null) {
+                result.put(path, y._id);
+            }
+        }
+    }
+
+    /** Return true iff ENTRIES are those of a tree split into buckets. */
+    private static boolean isBuckets(TreeMap<String, Entry> entries) {
+        return !entries.isEmpty() && entries.firstEntry().getValue()._kind
+            == BUCKET;
+    }
+
+    /** Return the name of the bucket holding the entry NAME at bucket
+     *  depth DEPTH. */
+    private static String bucket(String name, int depth) {
+        int b = ObjectId.hash(name.getBytes(StandardCharsets.UTF_8))
+            .byteAt(depth);
+        return new String(new char[] {
+            ObjectId.hexDigit(b >>> BUCKET_DIGIT_BITS), ObjectId.hexDigit(b)
+        });
+    }
+
+    /** Return the entries of the tree with ID, in name order. */
+    private static TreeMap<String, Entry> read(ObjectId id) {
+        TreeMap<String, Entry> result = new TreeMap<>();
+        if (id.equals(EMPTY)) {
+            return result;
+        }
+        TreeMap<String, Entry> cached = CACHE.get(id);
+        if (cached != null) {
+            result.putAll(cached);
+            return result;
+        }
+        ByteBuffer in = ByteBuffer.wrap(ObjectStore.read(ObjectStore.TREE,
+                                                         id));
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (magic[0] != MAGIC[0] || magic[1] != MAGIC[1]
+            || in.get() != VERSION) {
+            throw new IllegalArgumentException("unknown tree encoding");
+        }
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            byte kind = in.get();
+            byte[] name = new byte[in.getInt()];
+            in.get(name);
+            ObjectId entryId = ObjectId.fromRaw(in);
+            int count = kind == BUCKET ? in.getInt() : 0;
+            result.put(new String(name, StandardCharsets.UTF_8),
+                       new Entry(kind, entryId, count));
+        }
+        CACHE.put(id, new TreeMap<>(result));
+        return result;
+    }
+
+    /** Store the tree with ENTRIES, unless it is empty or present, and
+     *  return its ID. */
+    private static ObjectId store(TreeMap<String, Entry> entries) {
+        byte[] data = encode(entries);
+        ObjectId id = ObjectId.hash(data);
+        if (!entries.isEmpty()) {
+            ObjectStore.write(ObjectStore.TREE, id, data);
+        }
+        return id;
+    }
+
+    /** Return the encoding of the tree with ENTRIES. */
+    private static byte[] encode(TreeMap<String, Entry> entries) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(e.getValue()._kind);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(e.getValue()._id.raw());
+                if (e.getValue()._kind == BUCKET) {
+                    out.writeInt(e.getValue()._count);
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Recently read trees by ID, least recent first.  Trees never change,
+     *  so entries are never stale; callers get copies, which they may
+     *  change. */
+    private static final Map<ObjectId, TreeMap<String, Entry>> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<ObjectId, TreeMap<String, Entry>> eldest) {
+                return size() > Config.getInt(Config.CACHE_SIZE,
+                                              Session.DEFAULT_CACHE_SIZE);
+            }
+        };
+}
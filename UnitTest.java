@@ -4,22 +4,2321 @@ import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
-/** The suite of all JUnit tests for the gitlet package.
- *  @author
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/** The suite of all JUnit tests for the gitlet package.  Tests that need
+ *  a repository share one, made in a scratch directory that is Repo's
+ *  working directory, so each such test leaves nothing staged and assumes
+ *  nothing about what other tests have stored.
+ *  @author Bella Chang
  */
 public class UnitTest {
 
-    /** Run the JUnit tests in the loa package. Add xxxTest.class entries to
-     *  the arguments of runClasses to run other JUnit tests. */
+    /** Run the JUnit tests in the gitlet package. Add xxxTest.class
+     *  entries to the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(UnitTest.class));
     }
 
-    /** A dummy test to avoid complaint. */
+    /** Scratch directory of the tests.  Repo reads its working directory
+     *  from user.dir when it is loaded, so this is set up before any test
+     *  runs. */
+    static final File SCRATCH = scratch();
+
+    /* PACKS */
+
+    /** Objects written to a pack are found through the fanout table,
+     *  including IDs at either end of it, and read back intact, whole and
+     *  streamed.  IDs that are absent are not found. */
     @Test
-    public void placeholderTest() {
+    public void packRoundTrip() throws IOException {
+        File dir = newDir("packs");
+        List<ObjectId> ids = new ArrayList<>();
+        ids.add(ObjectId.fromHex("0".repeat(ObjectId.HEX_LENGTH)));
+        ids.add(ObjectId.fromHex("0".repeat(ObjectId.HEX_LENGTH - 1) + "1"));
+        ids.add(ObjectId.fromHex("f".repeat(ObjectId.HEX_LENGTH)));
+        ids.add(ObjectId.fromHex("7f" + "f".repeat(ObjectId.HEX_LENGTH - 2)));
+        ids.add(ObjectId.fromHex("80" + "0".repeat(ObjectId.HEX_LENGTH - 2)));
+        for (int i = 0; i < 500; i += 1) {
+            ids.add(ObjectId.hash(bytes("object " + i)));
+        }
+        PackWriter writer = new PackWriter(dir);
+        for (int i = 0; i < ids.size(); i += 1) {
+            writer.add(kind(i), ids.get(i), contents(i));
+        }
+        writer.add(ObjectStore.BLOB, ids.get(0), bytes("duplicate"));
+        assertEquals(ids.size(), writer.size());
+        File idx = writer.finish();
+
+        Pack pack = new Pack(idx);
+        assertEquals(ids.size(), pack.size());
+        for (int i = 0; i < ids.size(); i += 1) {
+            int k = pack.find(ids.get(i));
+            assertTrue("missing " + ids.get(i), k >= 0);
+            assertEquals(ids.get(i), pack.id(k));
+            assertEquals(kind(i), pack.kind(k));
+            assertArrayEquals(contents(i), pack.read(k));
+            try (InputStream in = pack.open(k)) {
+                assertArrayEquals(contents(i), in.readAllBytes());
+            }
+        }
+        for (String hex : new String[] {
+                "0".repeat(ObjectId.HEX_LENGTH - 1) + "2",
+                "7f" + "f".repeat(ObjectId.HEX_LENGTH - 3) + "e",
+                "f".repeat(ObjectId.HEX_LENGTH - 1) + "e" }) {
+            assertEquals(-1, pack.find(ObjectId.fromHex(hex)));
+        }
+        for (int i = 0; i < 100; i += 1) {
+            assertEquals(-1, pack.find(ObjectId.hash(bytes("absent " + i))));
+        }
+        pack.close();
     }
 
-}
+    /** Only complete packs are opened: stray and temporary index files,
+     *  and indexes whose pack is missing, are ignored. */
+    @Test
+    public void packOpenAllSkipsStrays() throws IOException {
+        File dir = newDir("strays");
+        PackWriter writer = new PackWriter(dir);
+        writer.add(ObjectStore.BLOB, ObjectId.hash(bytes("a")), bytes("a"));
+        File idx = writer.finish();
+        for (String name : new String[] {
+                "tmp-1.idx", "tmp-2.idx.tmp", "pack-dead.idx", "notes.idx" }) {
+            Files.write(new File(dir, name).toPath(), bytes("junk"));
+        }
+        List<Pack> packs = Pack.openAll(dir);
+        assertEquals(1, packs.size());
+        assertEquals(idx.getName(), packs.get(0).indexFile().getName());
+        packs.get(0).close();
+        assertTrue(Pack.openAll(new File(dir, "none")).isEmpty());
+    }
+
+    /** A stream opened on a packed object can still be read after the
+     *  pack is closed, and an empty writer leaves no files. */
+    @Test
+    public void packCloseAndEmpty() throws IOException {
+        File dir = newDir("close");
+        PackWriter writer = new PackWriter(dir);
+        byte[] data = contents(7);
+        writer.add(ObjectStore.TREE, ObjectId.hash(data), data);
+        Pack pack = new Pack(writer.finish());
+        InputStream in = pack.open(0);
+        pack.close();
+        assertArrayEquals(data, in.readAllBytes());
+
+        File empty = newDir("empty");
+        assertNull(new PackWriter(empty).finish());
+        assertEquals(0, empty.list().length);
+    }
+
+    /* LOOSE OBJECTS */
+
+    /** A loose object lives in the shard named by the first two digits of
+     *  its ID, and objects in the old flat layout are moved into their
+     *  shards.  Stray files in a shard are not taken for objects. */
+    @Test
+    public void looseObjectsAreSharded() throws IOException {
+        repo();
+        byte[] data = BlobCodec.encode(bytes("sharded " + System.nanoTime()));
+        ObjectId id = ObjectId.hash(data);
+        ObjectStore.write(ObjectStore.TREE, id, data);
+        String hex = id.toString();
+        File shard = Utils.join(Repo.TREES, hex.substring(0, 2));
+        assertTrue(new File(shard, hex.substring(2)).isFile());
+
+        byte[] flatData = bytes("flat " + System.nanoTime());
+        ObjectId flatId = ObjectId.hash(flatData);
+        File flat = Utils.join(Repo.TREES, flatId.toString());
+        Files.write(flat.toPath(), flatData);
+        ObjectStore.shardLooseObjects();
+        assertFalse(flat.exists());
+        assertTrue(ObjectStore.contains(ObjectStore.TREE, flatId));
+        assertArrayEquals(flatData, ObjectStore.read(ObjectStore.TREE, flatId));
+
+        Files.write(new File(shard, "tmp-123").toPath(), bytes("partial"));
+        List<ObjectId> ids = ObjectStore.ids(ObjectStore.TREE);
+        assertTrue(ids.contains(id));
+        assertTrue(ids.contains(flatId));
+        for (ObjectId other : ids) {
+            assertTrue(ObjectStore.contains(ObjectStore.TREE, other));
+        }
+        new File(shard, "tmp-123").delete();
+    }
 
+    /* BLOB INGEST */
+
+    /** A file is stored under the hash of its contents, whether it is
+     *  compressed or not, and reads back intact.  Storing it again, or
+     *  storing an empty file, leaves no temporary files behind. */
+    @Test
+    public void writeBlobFromFile() throws IOException {
+        repo();
+        for (String level : new String[] {"0", null}) {
+            setConfig(Config.COMPRESSION, level);
+            try {
+                for (byte[] data : new byte[][] {
+                        new byte[0], contents(101), randomBytes(200000, 3) }) {
+                    File file = writeFile("ingest.bin", data);
+                    ObjectId id = ObjectStore.writeBlob(file);
+                    assertEquals(ObjectId.hash(data), id);
+                    assertEquals(id, ObjectStore.writeBlob(file));
+                    assertArrayEquals(data, ObjectStore.readBlob(id));
+                }
+            } finally {
+                setConfig(Config.COMPRESSION, null);
+            }
+        }
+        for (String name : Repo.BLOBS.list()) {
+            assertFalse(name, name.startsWith("tmp-"));
+        }
+        new File(Repo.CWD, "ingest.bin").delete();
+    }
+
+    /* BLOB ENCODING */
+
+    /** Contents round-trip through the stored form at every compression
+     *  level, including contents that themselves look like a header, and
+     *  the stored form names its encoding. */
+    @Test
+    public void blobCodecRoundTrip() throws IOException {
+        byte[][] samples = {
+            new byte[0], bytes("hello\n"), randomBytes(70000, 4),
+            legacyLooking(BlobCodec.DEFLATE), bytes("a".repeat(50000)),
+        };
+        for (String level : new String[] {"0", "1", "9", "-1"}) {
+            setConfig(Config.COMPRESSION, level);
+            try {
+                for (byte[] data : samples) {
+                    byte[] stored = BlobCodec.encode(data);
+                    assertEquals(BlobCodec.encodingFor(Integer.parseInt(level)),
+                                 stored[BlobCodec.MAGIC.length]);
+                    try (InputStream in = BlobCodec.decode(
+                             ObjectId.hash(data),
+                             new ByteArrayInputStream(stored))) {
+                        assertArrayEquals(data, in.readAllBytes());
+                    }
+                }
+            } finally {
+                setConfig(Config.COMPRESSION, null);
+            }
+        }
+    }
+
+    /** Stored blobs without a header are recognized, even when their
+     *  contents start with the magic bytes, and are not decoded. */
+    @Test
+    public void blobCodecLegacy() throws IOException {
+        byte[] looksHeadered = legacyLooking(BlobCodec.RAW);
+        byte[] plain = bytes("plain old blob");
+        assertTrue(BlobCodec.isLegacy(ObjectId.hash(looksHeadered),
+                       new ByteArrayInputStream(looksHeadered)));
+        assertTrue(BlobCodec.isLegacy(ObjectId.hash(plain),
+                       new ByteArrayInputStream(plain)));
+        assertTrue(BlobCodec.isLegacy(ObjectId.hash(new byte[0]),
+                       new ByteArrayInputStream(new byte[0])));
+        byte[] stored = BlobCodec.encode(looksHeadered);
+        assertFalse(BlobCodec.isLegacy(ObjectId.hash(looksHeadered),
+                        new ByteArrayInputStream(stored)));
+        try {
+            BlobCodec.decode(ObjectId.hash(plain),
+                             new ByteArrayInputStream(plain));
+            fail("decoded a blob without a header");
+        } catch (IOException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** The upgrade to Format.BLOB_HEADERS gives loose and packed blobs
+     *  written without a header a RAW one, leaving other objects in the
+     *  rewritten pack as they were. */
+    @Test
+    public void formatAddsBlobHeaders() throws IOException {
+        repo();
+        String tag = " " + System.nanoTime();
+        byte[] loose = legacyLooking(BlobCodec.DEFLATE, tag);
+        byte[] packed = legacyLooking(BlobCodec.CHUNKED, tag);
+        byte[] plain = bytes("plain" + tag);
+        byte[] current = bytes("current" + tag);
+        byte[] tree = bytes("tree" + tag);
+        ObjectStore.write(ObjectStore.BLOB, ObjectId.hash(loose), loose);
+        ObjectStore.startPack();
+        ObjectStore.write(ObjectStore.BLOB, ObjectId.hash(packed), packed);
+        ObjectStore.write(ObjectStore.BLOB, ObjectId.hash(plain), plain);
+        ObjectStore.writeBlob(ObjectId.hash(current), current);
+        ObjectStore.write(ObjectStore.TREE, ObjectId.hash(tree), tree);
+        ObjectStore.finishPack();
+
+        Format.write(Format.STAGING_INDEX);
+        Format.upgrade();
+        assertEquals(Format.CURRENT, Format.read());
+        for (byte[] data : new byte[][] {loose, packed, plain, current}) {
+            ObjectId id = ObjectId.hash(data);
+            assertArrayEquals(data, ObjectStore.readBlob(id));
+            byte[] stored = ObjectStore.read(ObjectStore.BLOB, id);
+            assertFalse(BlobCodec.isLegacy(id,
+                            new ByteArrayInputStream(stored)));
+        }
+        assertArrayEquals(tree, ObjectStore.read(ObjectStore.TREE,
+                                                 ObjectId.hash(tree)));
+    }
+
+    /* DELTAS */
+
+    /** Successive versions of a file are stored as a chain of deltas, each
+     *  one deeper, until the chain reaches delta.maxDepth and a version is
+     *  stored whole.  Every version reads back exactly, whatever its line
+     *  endings and bytes, with no help from the cache. */
+    @Test
+    public void deltaChains() throws IOException {
+        repo();
+        setConfig(Config.DELTA_CACHE_SIZE, "0");
+        setConfig(Config.DELTA_MAX_DEPTH, "3");
+        try {
+            List<byte[]> lines = textLines(2000, "chain " + System.nanoTime());
+            int[] depths = {0, 1, 2, 3, 0, 1};
+            ObjectId previous = null;
+            for (int v = 0; v < depths.length; v += 1) {
+                lines.set(100 * v + 7, bytes("changed in version " + v + "\n"));
+                lines.add(300 * v, bytes("inserted " + v + "\r\n"));
+                lines.remove(1500 - v);
+                if (v == 2) {
+                    lines.set(lines.size() - 1, bytes("no newline at end"));
+                } else if (v == 3) {
+                    lines.set(lines.size() - 1, randomBytes(100, v));
+                }
+                byte[] data = concat(lines);
+                ObjectId id = ObjectStore.writeBlob(
+                    writeFile("delta.txt", data), previous);
+                assertEquals(ObjectId.hash(data), id);
+                assertEquals("depth of version " + v, depths[v],
+                             ObjectStore.blobDepth(id));
+                assertArrayEquals(data, ObjectStore.readBlob(id));
+                previous = id;
+            }
+        } finally {
+            setConfig(Config.DELTA_CACHE_SIZE, null);
+            setConfig(Config.DELTA_MAX_DEPTH, null);
+            new File(Repo.CWD, "delta.txt").delete();
+        }
+    }
+
+    /** A delta payload rebuilds its target, no delta is made against a
+     *  base larger than delta.maxSize or when it would not save enough,
+     *  and a blob read with a limit is given up once over it. */
+    @Test
+    public void deltaLimits() throws IOException {
+        repo();
+        List<byte[]> lines = textLines(3000, "limits " + System.nanoTime());
+        byte[] base = concat(lines);
+        ObjectId baseId = ObjectStore.writeBlob(writeFile("base.txt", base));
+        lines.set(10, bytes("edited\n"));
+        byte[] target = concat(lines);
+        byte[] payload = Delta.encode(baseId, target);
+        assertNotNull(payload);
+        assertArrayEquals(target, Delta.reconstruct(
+            ObjectId.hash(target), new ByteArrayInputStream(payload)));
+        assertNull(Delta.encode(baseId, randomBytes(target.length, 5)));
+
+        assertArrayEquals(base, ObjectStore.readBlob(baseId, base.length));
+        assertNull(ObjectStore.readBlob(baseId, base.length - 1));
+        setConfig(Config.DELTA_MAX_SIZE, Integer.toString(base.length - 1));
+        try {
+            byte[] small = concat(lines.subList(0, 20));
+            assertNull(Delta.encode(baseId, small));
+        } finally {
+            setConfig(Config.DELTA_MAX_SIZE, null);
+            new File(Repo.CWD, "base.txt").delete();
+        }
+    }
+
+    /* CHUNKING */
+
+    /** Chunk boundaries fall between the minimum and maximum chunk sizes,
+     *  except for a short final chunk, and depend only on the data. */
+    @Test
+    public void chunkerCutBounds() {
+        Chunker chunker = new Chunker(1024);
+        byte[] data = randomBytes(200000, 6);
+        List<Integer> first = new ArrayList<>();
+        for (int off = 0; off < data.length; ) {
+            int len = chunker.cut(data, off, data.length - off);
+            assertTrue(len <= chunker.maxSize());
+            assertTrue(len >= 1024 / Chunker.SPREAD
+                       || off + len == data.length);
+            first.add(len);
+            off += len;
+        }
+        assertTrue(first.size() > 50);
+        int off = 0;
+        for (int len : first) {
+            assertEquals(len, chunker.cut(data, off, data.length - off));
+            off += len;
+        }
+    }
+
+    /** A large file is stored as chunks under the hash of its contents and
+     *  reads back intact, and a version with a small edit or an insertion
+     *  at its start shares most of its chunks. */
+    @Test
+    public void chunkedBlobs() throws IOException {
+        repo();
+        setConfig(Config.CHUNK_THRESHOLD, "10000");
+        setConfig(Config.CHUNK_AVG_SIZE, "1024");
+        try {
+            byte[] data = randomBytes(300000, System.nanoTime());
+            byte[] edited = data.clone();
+            edited[150000] ^= 1;
+            byte[] prefixed = new byte[data.length + 10];
+            System.arraycopy(data, 0, prefixed, 10, data.length);
+            List<ObjectId> chunks = null;
+            for (byte[] version : new byte[][] {data, edited, prefixed}) {
+                ObjectId id =
+                    ObjectStore.writeBlob(writeFile("big.bin", version));
+                assertEquals(ObjectId.hash(version), id);
+                assertArrayEquals(version, ObjectStore.readBlob(id));
+                List<ObjectId> these = chunkIds(id);
+                if (chunks == null) {
+                    chunks = these;
+                } else {
+                    int shared = 0;
+                    for (ObjectId chunk : these) {
+                        shared += chunks.contains(chunk) ? 1 : 0;
+                    }
+                    assertTrue(shared >= these.size() - 3);
+                }
+            }
+        } finally {
+            setConfig(Config.CHUNK_THRESHOLD, null);
+            setConfig(Config.CHUNK_AVG_SIZE, null);
+            new File(Repo.CWD, "big.bin").delete();
+        }
+    }
+
+    /* COMMIT ENCODING */
+
+    /** Commits with any number of parents and any message, including an
+     *  empty one and one longer than the initial buffer, decode to what
+     *  was encoded, and encode to the same bytes again. */
+    @Test
+    public void commitCodecRoundTrip() {
+        CommitCodec codec = new CommitCodec();
+        ObjectId p1 = ObjectId.hash(bytes("p1"));
+        ObjectId p2 = ObjectId.hash(bytes("p2"));
+        ObjectId tree = ObjectId.hash(bytes("tree"));
+        String[] messages = {
+            "", "initial commit", "h\u00e9llo \u2713 \u65e5\u672c \ud83d\ude00",
+            "x".repeat(CommitCodec.INITIAL_SIZE * 3), "a\nb\0c" };
+        for (String message : messages) {
+            for (ObjectId[] parents : new ObjectId[][] {
+                    {null, null}, {p1, null}, {p1, p2} }) {
+                Commit commit = new Commit(message, new Date(1234567890123L),
+                                           parents[0], parents[1], tree);
+                byte[] data = codec.encode(commit);
+                assertTrue(CommitCodec.isEncoded(data));
+                Commit copy = codec.decode(commit.getId(), data);
+                assertEquals(message, copy.getMessage());
+                assertEquals(commit.getTimestamp(), copy.getTimestamp());
+                assertEquals(parents[0], copy.getParent());
+                assertEquals(parents[1], copy.getMergedParent());
+                assertEquals(tree, copy.getTree());
+                assertEquals(commit.getId(), copy.getId());
+                assertArrayEquals(data, codec.encode(copy));
+            }
+        }
+    }
+
+    /** Commits in the older encodings that list tracked files decode with
+     *  their files in full, and data in no known encoding is refused. */
+    @Test
+    public void commitCodecOlderVersions() {
+        CommitCodec codec = new CommitCodec();
+        ObjectId parent = ObjectId.hash(bytes("parent"));
+        ObjectId a = ObjectId.hash(bytes("a"));
+        ObjectId b = ObjectId.hash(bytes("b"));
+        for (byte version : new byte[] {
+                CommitCodec.FLAT_VERSION, CommitCodec.UNHASHED_VERSION }) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 10);
+            buf.put(CommitCodec.MAGIC).put(version);
+            putString(buf, "flat");
+            buf.putLong(42).put((byte) 1);
+            parent.putTo(buf);
+            buf.putInt(2);
+            putString(buf, "dir/z.txt");
+            a.putTo(buf);
+            putString(buf, "\u00e9.txt");
+            b.putTo(buf);
+            byte[] data = Arrays.copyOf(buf.array(), buf.position());
+            ObjectId id = version == CommitCodec.FLAT_VERSION
+                ? ObjectId.hash(data) : ObjectId.hash(bytes("old scheme"));
+            Commit commit = codec.decode(id, data);
+            assertEquals(id, commit.getId());
+            assertEquals("flat", commit.getMessage());
+            assertEquals(42, commit.getTimestamp().getTime());
+            assertEquals(parent, commit.getParent());
+            assertFalse(commit.hasMergedParent());
+            assertEquals(Map.of("dir/z.txt", a, "\u00e9.txt", b),
+                         new HashMap<>(commit.getFileTracker()));
+        }
+        for (byte[] data : new byte[][] {
+                {}, bytes("gc"), bytes("gc\u0009rest"),
+                bytes("not a commit") }) {
+            try {
+                codec.decode(ObjectId.hash(data), data);
+                fail("decoded " + Arrays.toString(data));
+            } catch (IllegalArgumentException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    /* COMMIT IDS */
+
+    /** A commit's ID is the hash of its encoding: commits made alike have
+     *  the same ID, and a change to any part of a commit changes it. */
+    @Test
+    public void commitIdsAreCanonical() {
+        ObjectId p1 = ObjectId.hash(bytes("p1"));
+        ObjectId p2 = ObjectId.hash(bytes("p2"));
+        Date date = new Date(1000);
+        Commit commit = new Commit("msg", date, p1, p2, Tree.EMPTY);
+        assertEquals(ObjectId.hash(ObjectStore.encodeCommit(commit)),
+                     commit.getId());
+        assertEquals(commit.getId(),
+                     new Commit("msg", new Date(1000), p1, p2, Tree.EMPTY)
+                     .getId());
+        Commit[] others = {
+            new Commit("msg.", date, p1, p2, Tree.EMPTY),
+            new Commit("msg", new Date(1001), p1, p2, Tree.EMPTY),
+            new Commit("msg", date, p2, p1, Tree.EMPTY),
+            new Commit("msg", date, p1, null, Tree.EMPTY),
+            new Commit("msg", date, p1, p2, p1),
+        };
+        for (Commit other : others) {
+            assertNotEquals(commit.getId(), other.getId());
+        }
+    }
+
+    /** A stored commit is checked against its ID when it is read: a
+     *  commit read under another ID, or whose stored form has any byte
+     *  changed, is refused. */
+    @Test
+    public void commitIdsAreVerified() throws IOException {
+        repo();
+        Commit commit = new Commit("verified " + System.nanoTime(),
+                                   new Date(), null, null, Tree.EMPTY);
+        ObjectStore.writeCommit(commit);
+        assertEquals(commit.getMessage(),
+                     ObjectStore.readCommit(commit.getId()).getMessage());
+        byte[] data = ObjectStore.encodeCommit(commit);
+        try {
+            ObjectStore.decodeCommit(ObjectId.hash(bytes("other")), data);
+            fail("decoded under the wrong ID");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+        for (int i = CommitCodec.MAGIC.length + 1; i < data.length; i += 1) {
+            byte[] tampered = data.clone();
+            tampered[i] ^= 1;
+            try {
+                ObjectStore.decodeCommit(commit.getId(), tampered);
+                fail("decoded with byte " + i + " changed");
+            } catch (IllegalArgumentException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    /* TREES */
+
+    /** Trees hold exactly the files written or applied to them, including
+     *  directories large enough to be bucketed; a set of files has one ID
+     *  however it was reached; and diff recovers the changes made, with
+     *  null for removed files. */
+    @Test
+    public void treeRoundTrip() throws IOException {
+        repo();
+        Random random = new Random(9);
+        TreeMap<String, ObjectId> model = new TreeMap<>();
+        for (int i = 0; i < 2 * Tree.MAX_ENTRIES; i += 1) {
+            model.put(randomPath(random, i), ObjectId.hash(bytes("f" + i)));
+        }
+        ObjectId root = Tree.write(model);
+        assertEquals(model, new TreeMap<>(Tree.files(root)));
+        assertEquals(List.copyOf(model.keySet()),
+                     List.copyOf(Tree.files(root).keySet()));
+        for (int round = 0; round < 20; round += 1) {
+            TreeMap<String, ObjectId> changes = new TreeMap<>();
+            for (int i = 0; i < 50; i += 1) {
+                String path = randomPath(random, random.nextInt(1000));
+                boolean remove =
+                    model.containsKey(path) && random.nextInt(2) == 0;
+                changes.put(path, remove ? null
+                            : ObjectId.hash(bytes(round + path)));
+            }
+            ObjectId next = Tree.apply(root, changes);
+            TreeMap<String, ObjectId> expected = new TreeMap<>(model);
+            TreeMap<String, ObjectId> effective = new TreeMap<>();
+            for (Map.Entry<String, ObjectId> e : changes.entrySet()) {
+                if (e.getValue() == null) {
+                    expected.remove(e.getKey());
+                } else {
+                    expected.put(e.getKey(), e.getValue());
+                }
+                if (e.getValue() != null || model.containsKey(e.getKey())) {
+                    effective.put(e.getKey(), e.getValue());
+                }
+            }
+            assertEquals(expected, new TreeMap<>(Tree.files(next)));
+            assertEquals(Tree.write(expected), next);
+            assertEquals(effective, new TreeMap<>(Tree.diff(root, next)));
+            model = expected;
+            root = next;
+        }
+        TreeMap<String, ObjectId> removeAll = new TreeMap<>();
+        for (String path : model.keySet()) {
+            removeAll.put(path, null);
+        }
+        assertEquals(Tree.EMPTY, Tree.apply(root, removeAll));
+        assertEquals(Tree.EMPTY, Tree.write(new TreeMap<>()));
+        assertTrue(Tree.files(Tree.EMPTY).isEmpty());
+        assertEquals(root, Tree.apply(root, new TreeMap<>()));
+    }
+
+    /** Replacing a file by a directory of the same name, and the reverse,
+     *  leave no trace of what was replaced. */
+    @Test
+    public void treeFileBecomesDirectory() throws IOException {
+        repo();
+        ObjectId a = ObjectId.hash(bytes("a"));
+        ObjectId b = ObjectId.hash(bytes("b"));
+        ObjectId root = Tree.write(Map.of("x", a, "y/z", b));
+        TreeMap<String, ObjectId> changes = new TreeMap<>();
+        changes.put("x", null);
+        changes.put("x/inner", b);
+        changes.put("y/z", null);
+        changes.put("y", a);
+        ObjectId swapped = Tree.apply(root, changes);
+        assertEquals(Map.of("x/inner", b, "y", a), Tree.files(swapped));
+        assertEquals(Tree.write(Map.of("x/inner", b, "y", a)), swapped);
+    }
+
+    /* PERSISTENT MAPS */
+
+    /** A PersistentMap behaves as a HashMap under random additions,
+     *  replacements and removals, including of keys whose hashes collide
+     *  in full or in their low bits, and every earlier version of it is
+     *  left as it was. */
+    @Test
+    public void persistentMapMatchesHashMap() {
+        Random random = new Random(10);
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        HashMap<Key, Integer> model = new HashMap<>();
+        List<PersistentMap<Key, Integer>> versions = new ArrayList<>();
+        List<Map<Key, Integer>> expected = new ArrayList<>();
+        for (int step = 0; step < 5000; step += 1) {
+            int n = random.nextInt(300);
+            int[] hashes = { n, n % 5, n << 20, n * 0x9e3779b1 };
+            Key key = new Key(n, hashes[random.nextInt(hashes.length)]);
+            if (random.nextInt(3) == 0) {
+                map = map.minus(key);
+                model.remove(key);
+            } else {
+                map = map.plus(key, step);
+                model.put(key, step);
+            }
+            if (step % 250 == 0) {
+                versions.add(map);
+                expected.add(new HashMap<>(model));
+            }
+            assertEquals(model.size(), map.size());
+            assertEquals(model.get(key), map.get(key));
+            assertEquals(model.containsKey(key), map.containsKey(key));
+        }
+        assertEquals(model, map);
+        assertEquals(model, new HashMap<>(map));
+        for (int i = 0; i < versions.size(); i += 1) {
+            assertEquals(expected.get(i), new HashMap<>(versions.get(i)));
+        }
+    }
+
+    /** Changes applied together remove the keys mapped to null and set the
+     *  others; removing an absent key changes nothing. */
+    @Test
+    public void persistentMapPlusAll() {
+        PersistentMap<String, String> map =
+            PersistentMap.of(Map.of("a", "1", "b", "2", "c", "3"));
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put("a", null);
+        changes.put("b", "20");
+        changes.put("d", "4");
+        changes.put("z", null);
+        PersistentMap<String, String> changed = map.plusAll(changes);
+        assertEquals(Map.of("b", "20", "c", "3", "d", "4"), changed);
+        assertEquals(Map.of("a", "1", "b", "2", "c", "3"), map);
+        assertSame(changed, changed.minus("absent"));
+        assertSame(changed, PersistentMap.of(changed));
+        assertTrue(PersistentMap.of(new HashMap<>()).isEmpty());
+    }
+
+    /* OBJECT IDS */
+
+    /** IDs convert to and from raw bytes and hexadecimal without loss, and
+     *  compare as their raw bytes do, read unsigned. */
+    @Test
+    public void objectIdConversions() {
+        Random random = new Random(11);
+        ObjectId previous = null;
+        byte[] previousRaw = null;
+        for (int i = 0; i < 1000; i += 1) {
+            byte[] raw = new byte[ObjectId.RAW_LENGTH];
+            random.nextBytes(raw);
+            if (i % 10 == 0) {
+                Arrays.fill(raw, 0, random.nextInt(raw.length), (byte) 0xff);
+            }
+            ObjectId id = ObjectId.fromRaw(raw);
+            String hex = HexFormat.of().formatHex(raw);
+            assertEquals(hex, id.toString());
+            assertArrayEquals(raw, id.raw());
+            assertEquals(id, ObjectId.fromHex(hex));
+            assertEquals(id, ObjectId.fromHex(hex.toUpperCase()));
+            assertEquals(id.hashCode(), ObjectId.fromHex(hex).hashCode());
+            for (int k = 0; k < raw.length; k += 1) {
+                assertEquals(raw[k] & Pack.BYTE_MASK, id.byteAt(k));
+            }
+            ByteBuffer buf = ByteBuffer.allocate(3 + raw.length);
+            buf.position(3);
+            id.putTo(buf);
+            assertEquals(id, ObjectId.fromRaw(buf, 3));
+            buf.position(3);
+            assertEquals(id, ObjectId.fromRaw(buf));
+            assertEquals(id, ObjectId.fromRaw(buf.array(), 3));
+            if (previous != null) {
+                int expected = Integer.signum(
+                    Arrays.compareUnsigned(raw, previousRaw));
+                assertEquals(expected, Integer.signum(id.compareTo(previous)));
+                assertEquals(expected, Integer.signum(
+                    id.compareTo(ByteBuffer.wrap(previousRaw), 0)));
+                assertEquals(expected == 0, id.equals(previous));
+            }
+            assertEquals(0, id.compareTo(id));
+            previous = id;
+            previousRaw = raw;
+        }
+    }
+
+    /** Only strings of exactly 40 hexadecimal digits are IDs. */
+    @Test
+    public void objectIdHexChecks() {
+        String zeros = "0".repeat(ObjectId.HEX_LENGTH);
+        assertTrue(ObjectId.isHex(zeros));
+        assertTrue(ObjectId.isHex("aBcDeF" + zeros.substring(6)));
+        for (String bad : new String[] {
+                "", zeros.substring(1), zeros + "0", "g" + zeros.substring(1),
+                " " + zeros.substring(1), "-" + zeros.substring(1) }) {
+            assertFalse(bad, ObjectId.isHex(bad));
+            try {
+                ObjectId.fromHex(bad);
+                fail("parsed " + bad);
+            } catch (IllegalArgumentException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    /** Every way of hashing gives the SHA-1 of what is hashed, as
+     *  Utils.sha1 does, however the hashes are interleaved. */
+    @Test
+    public void objectIdHashing() throws Exception {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        for (int n : new int[] {0, 1, 55, 64, Utils.BUFFER_SIZE + 1,
+                                100000}) {
+            byte[] data = randomBytes(n + 6, n);
+            byte[] middle = Arrays.copyOfRange(data, 3, n + 3);
+            ObjectId expected = ObjectId.fromRaw(sha1.digest(middle));
+            assertEquals(expected, ObjectId.hash(middle));
+            assertEquals(expected, ObjectId.hash(data, 3, n));
+            assertEquals(expected,
+                         ObjectId.hash(ByteBuffer.wrap(data, 3, n)));
+            assertEquals(expected,
+                         ObjectId.hash(new ByteArrayInputStream(middle)));
+            File file = new File(SCRATCH, "hashed.bin");
+            Files.write(file.toPath(), middle);
+            assertEquals(expected, ObjectId.hash(file));
+            assertEquals(expected.toString(), Utils.sha1(middle));
+            MessageDigest outer = ObjectId.newDigest();
+            outer.update(middle);
+            assertEquals(expected, ObjectId.hash(middle));
+            assertEquals(expected, ObjectId.fromRaw(outer.digest()));
+        }
+        assertEquals(ObjectId.hash(bytes("ab")).toString(),
+                     Utils.sha1("a", bytes("b")));
+        new File(SCRATCH, "hashed.bin").delete();
+    }
+
+    /* COMMIT GRAPH */
+
+    /** Commits added to the graph, with the ancestors they pull in from
+     *  the object store, are recorded after their parents with the right
+     *  parents, generations, times and messages, both as appended and when
+     *  the graph is rebuilt.  Commits not added are not found. */
+    @Test
+    public void commitGraphRecords() throws IOException {
+        repo();
+        List<Commit> history = randomHistory(new Random(12), 200, "graph");
+        for (Commit c : history) {
+            ObjectStore.writeCommit(c);
+        }
+        Commit absent = new Commit("graph absent " + System.nanoTime(),
+                                   new Date(), null, null, Tree.EMPTY);
+        CommitGraph.add(history.get(history.size() / 2));
+        CommitGraph.add(history);
+        checkGraph(history);
+        assertEquals(-1, CommitGraph.get().find(absent.getId()));
+        CommitGraph.build();
+        checkGraph(history);
+        assertEquals(-1, CommitGraph.get().find(absent.getId()));
+    }
+
+    /** Messages of any length and content are kept in the graph, survive
+     *  a torn record left by an interrupted append, and are rebuilt along
+     *  with it. */
+    @Test
+    public void commitGraphMessages() throws IOException {
+        repo();
+        String tag = "messages " + System.nanoTime();
+        String[] messages = {
+            "", tag, tag + "\nsecond line\n", "\u00e9t\u00e9 \u2603 " + tag,
+            tag.repeat(1000)
+        };
+        List<Commit> history = new ArrayList<>();
+        ObjectId parent = null;
+        for (String message : messages) {
+            Commit c = new Commit(message, new Date(), parent, null,
+                                  Tree.EMPTY);
+            ObjectStore.writeCommit(c);
+            history.add(c);
+            parent = c.getId();
+        }
+        CommitGraph.add(history.subList(0, 4));
+        checkGraph(history.subList(0, 4));
+        int size = CommitGraph.get().size();
+        Files.write(Repo.COMMIT_GRAPH.toPath(), new byte[7],
+                    StandardOpenOption.APPEND);
+        CommitGraph.revalidate();
+        assertEquals(size, CommitGraph.get().size());
+        checkGraph(history.subList(0, 4));
+        CommitGraph.add(history.get(4));
+        assertEquals(size + 1, CommitGraph.get().size());
+        assertEquals(CommitGraph.HEADER_SIZE
+                     + CommitGraph.get().size() * CommitGraph.RECORD_SIZE,
+                     Repo.COMMIT_GRAPH.length());
+        checkGraph(history);
+        CommitGraph.build();
+        checkGraph(history);
+    }
+
+    /** The global log lists every commit in the graph, newest first, with
+     *  its message read from the graph. */
+    @Test
+    public void globalLogListsGraph() throws IOException {
+        repo();
+        List<Commit> history = randomHistory(new Random(21), 40, "global");
+        for (Commit c : history) {
+            ObjectStore.writeCommit(c);
+        }
+        CommitGraph.add(history);
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true,
+                                      StandardCharsets.UTF_8));
+        try {
+            new Log().all();
+        } finally {
+            System.setOut(stdout);
+        }
+        String[] entries = captured.toString(StandardCharsets.UTF_8)
+            .split("\n\n(?====\n)");
+        CommitGraph graph = CommitGraph.get();
+        assertEquals(graph.size(), entries.length);
+        for (int k = 0; k < graph.size(); k += 1) {
+            assertEquals("===\ncommit " + graph.id(k) + "\nDate: "
+                         + Commit.dateFormat(new Date(graph.time(k)))
+                         + "\n" + graph.message(k) + "\n",
+                         entries[graph.size() - 1 - k]
+                         + (k == 0 ? "" : "\n"));
+        }
+        Commit last = history.get(history.size() - 1);
+        assertTrue(entries[0].startsWith("===\ncommit " + last.getId()));
+    }
+
+    /* MESSAGE INDEX */
+
+    /** Every query mode finds, newest first, exactly the commits a scan of
+     *  all the messages in the graph finds, both while new commits are
+     *  indexed only in memory and once the file has been rewritten to
+     *  cover them. */
+    @Test
+    public void messageIndexMatchesScan() throws IOException {
+        repo();
+        Random random = new Random(23);
+        String[] vocabulary = {
+            "fix", "fixes", "Fix", "merge", "Merge", "bug", "b\u00fcg",
+            "Stra\u00dfe", "readme", "README", "a1", "x", "\ud83d\ude00",
+            "\u0130stanbul", "re"
+        };
+        String[] separators = { " ", ", ", ": ", "\n", "-", "" };
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < MessageIndex.MIN_REWRITE + 200; i += 1) {
+            StringBuilder message = new StringBuilder();
+            for (int n = random.nextInt(5); n >= 0; n -= 1) {
+                message.append(vocabulary[random.nextInt(vocabulary.length)])
+                    .append(n == 0 ? ""
+                            : separators[random.nextInt(separators.length)]);
+            }
+            messages.add(message.toString());
+        }
+        String[] regexes = {
+            "fix(es)?", "^Merge", "b.g", "[Ss]tra", "readme$", "a1|x",
+            "(?i)merge", "fix\\b", "\\d", "re{1,2}adme", "RE+ADME",
+            "\\w+: bug", "\u00dfe", "fixe?s?", "b\\u00fcg", "x\\.?",
+            "\\Qa1\\E", "(readme)+", "\\p{Lu}\\p{Ll}"
+        };
+        List<Commit> first = new ArrayList<>();
+        for (String message : messages.subList(0, 200)) {
+            first.add(new Commit(message, new Date(), null, null,
+                                 Tree.EMPTY));
+        }
+        CommitGraph.add(first);
+        checkFind(random, messages, regexes);
+        List<Commit> rest = new ArrayList<>();
+        for (String message : messages.subList(200, messages.size())) {
+            rest.add(new Commit(message, new Date(), null, null,
+                                Tree.EMPTY));
+        }
+        CommitGraph.add(rest);
+        checkFind(random, messages, regexes);
+        assertTrue(Repo.MESSAGE_INDEX.isFile());
+        CommitGraph.add(first.subList(0, 1));
+        checkFind(random, messages, regexes);
+        try {
+            MessageIndex.find(MessageIndex.REGEX, "fix(");
+            fail("accepted a bad regular expression");
+        } catch (GitletException excp) {
+            assertEquals("Invalid regular expression: fix(",
+                         excp.getMessage());
+        }
+    }
+
+    /** The literals taken from a regular expression are runs every match
+     *  must contain. */
+    @Test
+    public void messageIndexLiterals() {
+        assertEquals(List.of("fix"), MessageIndex.literals("fix(es)?"));
+        assertEquals(List.of("Merge"), MessageIndex.literals("^Merge$"));
+        assertEquals(List.of("a", "c"), MessageIndex.literals("ab?c"));
+        assertEquals(List.of("r", "adme"),
+                     MessageIndex.literals("re{1,2}adme"));
+        assertEquals(List.of("a.b"), MessageIndex.literals("a\\.b"));
+        assertEquals(List.of("x", "y"), MessageIndex.literals("x\\d+y"));
+        assertEquals(List.of("x", "z"), MessageIndex.literals("x[yz]z"));
+        assertEquals(List.of(), MessageIndex.literals("a1|x"));
+        assertEquals(List.of(), MessageIndex.literals("(?i)merge"));
+        assertEquals(List.of(), MessageIndex.literals(".*"));
+    }
+
+    /* ID INDEX */
+
+    /** Abbreviated IDs find, in order and up to the limit, exactly the
+     *  commits a scan of the graph finds, and whole IDs their positions,
+     *  whether they are in the file, added since, or the file is
+     *  unusable.  (The file is replaced rather than written over, as
+     *  gitlet does, since an open graph maps it.) */
+    @Test
+    public void idIndexMatchesScan() throws IOException {
+        repo();
+        Random random = new Random(24);
+        List<Commit> history = randomHistory(random,
+                                             IdIndex.MIN_REWRITE + 300, "ids");
+        CommitGraph.add(history.subList(0, 300));
+        checkPrefixes(random);
+        CommitGraph.add(history);
+        assertTrue(Repo.COMMIT_IDS.isFile());
+        assertEquals(CommitGraph.get().size(),
+                     CommitGraph.get().ids().covered());
+        checkPrefixes(random);
+        addLoose("ids last");
+        assertEquals(CommitGraph.get().size() - 1,
+                     CommitGraph.get().ids().covered());
+        checkPrefixes(random);
+        byte[] ids = Files.readAllBytes(Repo.COMMIT_IDS.toPath());
+        Repo.COMMIT_IDS.delete();
+        Files.write(Repo.COMMIT_IDS.toPath(),
+                    Arrays.copyOf(ids, ids.length - 1));
+        addLoose("ids truncated");
+        checkPrefixes(random);
+        Repo.COMMIT_IDS.delete();
+        Files.write(Repo.COMMIT_IDS.toPath(), new byte[3]);
+        addLoose("ids garbled");
+        checkPrefixes(random);
+        Repo.COMMIT_IDS.delete();
+        addLoose("ids deleted");
+        checkPrefixes(random);
+    }
+
+    /** Add a root commit with MESSAGE to the graph. */
+    private static void addLoose(String message) {
+        CommitGraph.add(new Commit(message, new Date(), null, null,
+                                   Tree.EMPTY));
+    }
+
+    /** A revision is a branch, a whole ID of a stored commit, or an
+     *  abbreviation, in either case, of exactly one commit's ID. */
+    @Test
+    public void resolveRevisions() throws IOException {
+        Repo repo = repo();
+        List<Commit> history = randomHistory(new Random(25), 300, "resolve");
+        for (Commit c : history) {
+            ObjectStore.writeCommit(c);
+        }
+        CommitGraph.add(history);
+        for (Commit c : history.subList(0, 20)) {
+            String hex = c.getId().toString();
+            int n = 1;
+            while (IdIndex.withPrefix(hex.substring(0, n), 2).size() > 1) {
+                n += 1;
+            }
+            for (int len = n; len <= hex.length(); len += 13) {
+                assertEquals(c.getId(),
+                             repo.resolveRevision(hex.substring(0, len)));
+                assertEquals(c.getId(), repo.resolveRevision(
+                                 hex.substring(0, len).toUpperCase()));
+            }
+            assertEquals(c.getId(), repo.resolveRevision(hex));
+            String shared = hex.substring(0, n - 1);
+            if (!shared.isEmpty()) {
+                try {
+                    repo.resolveRevision(shared);
+                    fail("resolved ambiguous " + shared);
+                } catch (GitletException excp) {
+                    List<ObjectId> all = IdIndex.withPrefix(
+                        shared, Repo.MAX_CANDIDATES + 1);
+                    StringBuilder msg = new StringBuilder(
+                        "Commit id " + shared
+                        + " is ambiguous; candidates are:");
+                    for (ObjectId id : all.subList(
+                             0, Math.min(all.size(),
+                                         Repo.MAX_CANDIDATES))) {
+                        msg.append("\n  ").append(id);
+                    }
+                    if (all.size() > Repo.MAX_CANDIDATES) {
+                        msg.append("\n  ...");
+                    }
+                    assertEquals(msg.toString(), excp.getMessage());
+                    assertTrue(all.size() > 1);
+                }
+            }
+        }
+        assertEquals(new Session().branches().get("master"),
+                     repo.resolveRevision("master"));
+        Commit unstored = new Commit("resolve unstored", new Date(), null,
+                                     null, Tree.EMPTY);
+        assertNull(repo.resolveRevision(unstored.getId().toString()));
+        assertNull(repo.resolveRevision(""));
+        assertNull(repo.resolveRevision("xyz"));
+        assertNull(repo.resolveRevision("0".repeat(41)));
+    }
+
+    /* MERGE BASES */
+
+    /** On random histories with merges and several roots, the merge bases
+     *  and ancestry found through the graph are those found by comparing
+     *  full sets of ancestors. */
+    @Test
+    public void mergeBasesMatchBruteForce() throws IOException {
+        repo();
+        Random random = new Random(13);
+        List<Commit> history = randomHistory(random, 150, "bases");
+        for (Commit c : history) {
+            ObjectStore.writeCommit(c);
+        }
+        CommitGraph.add(history);
+        HashMap<ObjectId, HashSet<ObjectId>> ancestors = new HashMap<>();
+        for (Commit c : history) {
+            HashSet<ObjectId> all = new HashSet<>();
+            all.add(c.getId());
+            for (ObjectId p : new ObjectId[] {
+                    c.getParent(), c.getMergedParent() }) {
+                if (p != null) {
+                    all.addAll(ancestors.get(p));
+                }
+            }
+            ancestors.put(c.getId(), all);
+        }
+        for (int i = 0; i < 2000; i += 1) {
+            ObjectId a = history.get(random.nextInt(history.size())).getId();
+            ObjectId b = history.get(random.nextInt(history.size())).getId();
+            HashSet<ObjectId> common = new HashSet<>(ancestors.get(a));
+            common.retainAll(ancestors.get(b));
+            HashSet<ObjectId> best = new HashSet<>(common);
+            for (ObjectId c : common) {
+                for (ObjectId other : common) {
+                    if (!other.equals(c) && ancestors.get(other).contains(c)) {
+                        best.remove(c);
+                    }
+                }
+            }
+            List<ObjectId> found = MergeBase.all(a, b);
+            assertEquals(best, new HashSet<>(found));
+            assertEquals(best.size(), found.size());
+            assertEquals(found.isEmpty() ? null : found.get(0),
+                         MergeBase.find(a, b));
+            assertEquals(ancestors.get(b).contains(a),
+                         MergeBase.isAncestor(a, b));
+        }
+    }
+
+    /** After a criss-cross merge both bases are found, the later first,
+     *  and a commit is its own merge base with any descendant. */
+    @Test
+    public void mergeBasesCrissCross() throws IOException {
+        repo();
+        String tag = "criss-cross " + System.nanoTime() + " ";
+        Commit root = new Commit(tag + "root", new Date(1000), null, null,
+                                 Tree.EMPTY);
+        Commit x = new Commit(tag + "x", new Date(2000), root.getId(), null,
+                              Tree.EMPTY);
+        Commit y = new Commit(tag + "y", new Date(3000), root.getId(), null,
+                              Tree.EMPTY);
+        Commit xy = new Commit(tag + "xy", new Date(4000), x.getId(),
+                               y.getId(), Tree.EMPTY);
+        Commit yx = new Commit(tag + "yx", new Date(5000), y.getId(),
+                               x.getId(), Tree.EMPTY);
+        List<Commit> all = List.of(root, x, y, xy, yx);
+        for (Commit c : all) {
+            ObjectStore.writeCommit(c);
+        }
+        CommitGraph.add(all);
+        assertEquals(List.of(y.getId(), x.getId()),
+                     MergeBase.all(xy.getId(), yx.getId()));
+        assertEquals(y.getId(), MergeBase.find(xy.getId(), yx.getId()));
+        assertEquals(root.getId(), MergeBase.find(x.getId(), y.getId()));
+        assertEquals(x.getId(), MergeBase.find(x.getId(), yx.getId()));
+        assertEquals(xy.getId(), MergeBase.find(xy.getId(), xy.getId()));
+        assertTrue(MergeBase.isAncestor(root.getId(), yx.getId()));
+        assertFalse(MergeBase.isAncestor(xy.getId(), yx.getId()));
+    }
+
+    /* SESSIONS */
+
+    /** Changes made in a session are seen by other sessions only once
+     *  flushed, are dropped by discard, and are picked up by a session
+     *  that has read the old state once it revalidates. */
+    @Test
+    public void sessionFlushAndDiscard() throws IOException {
+        repo();
+        String branch = "session-" + System.nanoTime();
+        ObjectId blob = ObjectId.hash(bytes(branch));
+        Session reader = new Session();
+        Session writer = new Session();
+        ObjectId head = writer.branches().get(writer.currentBranch());
+        assertFalse(reader.branches().containsKey(branch));
+
+        LinkedHashMap<String, ObjectId> branches =
+            new LinkedHashMap<>(writer.branches());
+        branches.put(branch, head);
+        writer.setBranches(branches);
+        writer.stage(StagingIndex.ADD, branch + ".txt", blob);
+        assertEquals(blob, writer.staged(StagingIndex.ADD, branch + ".txt"));
+        assertFalse(new Session().branches().containsKey(branch));
+        assertNull(new Session().staged(StagingIndex.ADD, branch + ".txt"));
+        writer.discard();
+        assertFalse(writer.branches().containsKey(branch));
+        assertNull(writer.staged(StagingIndex.ADD, branch + ".txt"));
+
+        writer.setBranches(branches);
+        writer.stage(StagingIndex.ADD, branch + ".txt", blob);
+        writer.flush();
+        assertTrue(new Session().branches().containsKey(branch));
+        assertEquals(blob,
+                     new Session().staged(StagingIndex.ADD, branch + ".txt"));
+        assertEquals(blob, new Session().adding().get(branch + ".txt"));
+        assertFalse(reader.branches().containsKey(branch));
+        reader.revalidate();
+        assertTrue(reader.branches().containsKey(branch));
+
+        branches.remove(branch);
+        writer.setBranches(branches);
+        writer.stage(StagingIndex.ADD, branch + ".txt", null);
+        writer.flush();
+        assertFalse(new Session().branches().containsKey(branch));
+        assertTrue(new Session().adding().isEmpty());
+    }
+
+    /** A session decodes each commit once while it stays in its cache,
+     *  which holds no more than the configured number of commits. */
+    @Test
+    public void sessionCommitCache() throws IOException {
+        repo();
+        List<Commit> history = randomHistory(new Random(14), 3, "cache");
+        for (Commit c : history) {
+            ObjectStore.writeCommit(c);
+        }
+        Session session = new Session();
+        Commit first = session.commit(history.get(0).getId());
+        assertSame(first, session.commit(history.get(0).getId()));
+        setConfig(Config.CACHE_SIZE, "1");
+        try {
+            session = new Session();
+            first = session.commit(history.get(0).getId());
+            session.commit(history.get(1).getId());
+            Commit again = session.commit(history.get(0).getId());
+            assertNotSame(first, again);
+            assertEquals(first.getId(), again.getId());
+        } finally {
+            setConfig(Config.CACHE_SIZE, null);
+        }
+    }
+
+    /* STAT CACHE */
+
+    /** A file whose stat data are unchanged is not read again, in the same
+     *  cache or in one read back from disk, while a file whose size or
+     *  time has changed is. */
+    @Test
+    public void statCacheSkipsUnchanged() throws IOException {
+        repo();
+        String name = "stat-" + System.nanoTime() + ".txt";
+        File file = writeFile(name, bytes("before"));
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis()
+                                           - TimeUnit.HOURS.toMillis(1));
+        Files.setLastModifiedTime(file.toPath(), old);
+        ObjectId before = ObjectId.hash(bytes("before"));
+        StatCache cache = new StatCache();
+        assertEquals(before, cache.hash(name));
+
+        Files.write(file.toPath(), bytes("BEFORE"));
+        Files.setLastModifiedTime(file.toPath(), old);
+        assertEquals(before, cache.hash(name));
+        cache.write();
+        assertEquals(before, new StatCache().hash(name));
+
+        Files.setLastModifiedTime(file.toPath(),
+                                  FileTime.fromMillis(old.toMillis() + 1));
+        assertEquals(ObjectId.hash(bytes("BEFORE")), cache.hash(name));
+        Files.write(file.toPath(), bytes("after!!"));
+        Files.setLastModifiedTime(file.toPath(), old);
+        assertEquals(ObjectId.hash(bytes("after!!")), cache.hash(name));
+        file.delete();
+        assertNull(cache.lookup(name, StatCache.stat(file)));
+        cache.retain(List.of());
+        cache.write();
+    }
 
+    /** Files modified just before they are hashed are not cached, nor are
+     *  entries trusted that are not older than the cache file. */
+    @Test
+    public void statCacheRacyEntries() throws IOException {
+        repo();
+        String name = "racy-" + System.nanoTime() + ".txt";
+        File file = writeFile(name, bytes("racy"));
+        StatCache cache = new StatCache();
+        assertEquals(ObjectId.hash(bytes("racy")), cache.hash(name));
+        assertNull(cache.lookup(name, StatCache.stat(file)));
+
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis()
+                                           - TimeUnit.HOURS.toMillis(1));
+        Files.setLastModifiedTime(file.toPath(), old);
+        cache.hash(name);
+        assertNotNull(cache.lookup(name, StatCache.stat(file)));
+        cache.write();
+        Files.setLastModifiedTime(
+            Repo.STAT_CACHE.toPath(),
+            FileTime.fromMillis(old.toMillis() - 1));
+        assertNull(new StatCache().lookup(name, StatCache.stat(file)));
+        file.delete();
+        cache.retain(List.of());
+        cache.write();
+    }
+
+    /** A stat cache file that is not one, or is cut short, reads as an
+     *  empty cache. */
+    @Test
+    public void statCacheUnreadable() throws IOException {
+        repo();
+        String name = "unreadable-" + System.nanoTime() + ".txt";
+        File file = writeFile(name, bytes("x"));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(0));
+        StatCache cache = new StatCache();
+        cache.hash(name);
+        cache.write();
+        byte[] whole = Files.readAllBytes(Repo.STAT_CACHE.toPath());
+        for (byte[] data : new byte[][] {
+                bytes("junk"), Arrays.copyOf(whole, whole.length - 3) }) {
+            Files.write(Repo.STAT_CACHE.toPath(), data);
+            assertNull(new StatCache().lookup(name, StatCache.stat(file)));
+        }
+        file.delete();
+        Repo.STAT_CACHE.delete();
+    }
+
+    /* WORKING TREE */
+
+    /** Files hashed on one thread or several, with a bound on bytes in
+     *  flight smaller than some of the files, get the IDs of their
+     *  contents; missing files are left out; and files old enough are
+     *  recorded in the stat cache. */
+    @Test
+    public void workTreeHashing() throws IOException {
+        repo();
+        String prefix = "worktree-" + System.nanoTime() + "-";
+        List<String> names = new ArrayList<>();
+        Map<String, ObjectId> expected = new HashMap<>();
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis()
+                                           - TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 200; i += 1) {
+            byte[] data = randomBytes(i * 37 % 5000, i);
+            File file = writeFile(prefix + i, data);
+            if (i % 2 == 0) {
+                Files.setLastModifiedTime(file.toPath(), old);
+            }
+            names.add(prefix + i);
+            expected.put(prefix + i, ObjectId.hash(data));
+        }
+        names.add(prefix + "missing");
+        setConfig(Config.WORKTREE_MAX_BYTES, "1000");
+        try {
+            for (String threads : new String[] {"1", "4", "16"}) {
+                setConfig(Config.WORKTREE_THREADS, threads);
+                StatCache cache = new StatCache();
+                assertEquals(expected, WorkTree.hash(cache, names));
+                for (int i = 0; i < 200; i += 2) {
+                    File file = new File(Repo.CWD, prefix + i);
+                    assertEquals(expected.get(prefix + i),
+                                 cache.lookup(prefix + i,
+                                              StatCache.stat(file)));
+                }
+                assertEquals(Map.of(), WorkTree.hash(cache, List.of()));
+            }
+        } finally {
+            setConfig(Config.WORKTREE_THREADS, null);
+            setConfig(Config.WORKTREE_MAX_BYTES, null);
+            for (String name : names) {
+                new File(Repo.CWD, name).delete();
+            }
+        }
+    }
+
+    /* CHECKOUT */
+
+    /** Checking out a snapshot writes exactly the files whose contents
+     *  differ from it, leaves the others untouched, deletes the files
+     *  given for removal, and leaves no temporary files. */
+    @Test
+    public void checkoutWritesOnlyChanges() throws IOException {
+        repo();
+        String prefix = "checkout-" + System.nanoTime() + "-";
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis()
+                                           - TimeUnit.HOURS.toMillis(1));
+        try {
+            for (String threads : new String[] {"1", "8"}) {
+                setConfig(Config.WORKTREE_THREADS, threads);
+                TreeMap<String, ObjectId> first = new TreeMap<>();
+                for (int i = 0; i < 60; i += 1) {
+                    first.put(prefix + i, blob(prefix + i));
+                }
+                StatCache cache = new StatCache();
+                assertEquals(60, Checkout.to(cache, first, List.of()));
+                checkWorking(first);
+                for (String name : first.keySet()) {
+                    Files.setLastModifiedTime(
+                        new File(Repo.CWD, name).toPath(), old);
+                }
+
+                TreeMap<String, ObjectId> second = new TreeMap<>(first);
+                for (int i = 0; i < 5; i += 1) {
+                    second.put(prefix + i, blob(prefix + i + " changed"));
+                }
+                List<String> removed = new ArrayList<>();
+                for (int i = 5; i < 8; i += 1) {
+                    second.remove(prefix + i);
+                    removed.add(prefix + i);
+                }
+                second.put(prefix + "new1", blob("new1"));
+                second.put(prefix + "new2", blob("new2"));
+                Files.write(new File(Repo.CWD, prefix + 10).toPath(),
+                            bytes("edited"));
+                assertEquals(8, Checkout.to(cache, second, removed));
+                checkWorking(second);
+                for (String name : removed) {
+                    assertFalse(new File(Repo.CWD, name).exists());
+                }
+                for (int i = 11; i < 60; i += 1) {
+                    assertEquals(old, Files.getLastModifiedTime(
+                        new File(Repo.CWD, prefix + i).toPath()));
+                }
+                assertEquals(0, Checkout.to(cache, second, removed));
+                assertEquals(0, Checkout.to(cache, Map.of(), second.keySet()));
+                for (String name : second.keySet()) {
+                    assertFalse(new File(Repo.CWD, name).exists());
+                }
+                for (String name : Repo.GITLET.list()) {
+                    assertFalse(name, name.startsWith("checkout-"));
+                }
+            }
+        } finally {
+            setConfig(Config.WORKTREE_THREADS, null);
+        }
+    }
+
+    /** Files written by checkout are recorded in the stat cache, and are
+     *  not read again by a later command once the cache file is newer
+     *  than they are. */
+    @Test
+    public void checkoutRecordsStat() throws IOException {
+        repo();
+        String prefix = "recorded-" + System.nanoTime() + "-";
+        try {
+            for (String threads : new String[] {"1", "8"}) {
+                setConfig(Config.WORKTREE_THREADS, threads);
+                TreeMap<String, ObjectId> target = new TreeMap<>();
+                for (int i = 0; i < 20; i += 1) {
+                    target.put(prefix + i, blob(prefix + i));
+                }
+                StatCache cache = new StatCache();
+                assertEquals(20, Checkout.to(cache, target, List.of()));
+                cache.write();
+                File first = new File(Repo.CWD, prefix + 0);
+                long[] stat = StatCache.stat(first);
+                assertNull(cache.lookup(prefix + 0, stat));
+                Files.setLastModifiedTime(Repo.STAT_CACHE.toPath(),
+                                          FileTime.fromMillis(
+                                              TimeUnit.NANOSECONDS
+                                              .toMillis(stat[1])));
+                assertNull(new StatCache().lookup(prefix + 0, stat));
+
+                Files.setLastModifiedTime(Repo.STAT_CACHE.toPath(),
+                                          FileTime.fromMillis(
+                                              System.currentTimeMillis()
+                                              + 1000));
+                StatCache later = new StatCache();
+                for (Map.Entry<String, ObjectId> e : target.entrySet()) {
+                    File file = new File(Repo.CWD, e.getKey());
+                    assertEquals(e.getValue(),
+                                 later.lookup(e.getKey(),
+                                              StatCache.stat(file)));
+                }
+                FileTime mtime = Files.getLastModifiedTime(first.toPath());
+                Files.write(first.toPath(),
+                            bytes((prefix + 0).toUpperCase()));
+                Files.setLastModifiedTime(first.toPath(), mtime);
+                assertEquals(target.get(prefix + 0),
+                             later.hash(prefix + 0));
+                Checkout.to(later, Map.of(), target.keySet());
+                assertFalse(first.exists());
+                later.retain(List.of());
+                later.write();
+            }
+        } finally {
+            setConfig(Config.WORKTREE_THREADS, null);
+        }
+    }
+
+    /* DAEMON */
+
+    /** A daemon runs the commands sent to it, sending back what they
+     *  print; sees refs changed by other processes; refuses to start a
+     *  second daemon; and stops, removing its socket, when asked. */
+    @Test
+    public void daemonServesCommands() throws Exception {
+        repo();
+        assertEquals(-1, Daemon.forward("status"));
+        assertFalse(Daemon.running());
+        Thread server = new Thread(() -> {
+            try {
+                Daemon.serve();
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        });
+        server.start();
+        for (int i = 0; i < 500 && !Daemon.running(); i += 1) {
+            Thread.sleep(10);
+        }
+        String branch = "daemon-" + System.nanoTime();
+        try {
+            assertTrue(Daemon.running());
+            assertTrue(daemon("status").contains("=== Branches ==="));
+            assertEquals("No such branch exists.\n",
+                         daemon("checkout", branch));
+            assertEquals("", daemon("branch", branch));
+            assertTrue(new Session().branches().containsKey(branch));
+            assertTrue(daemon("status").contains(branch));
+
+            Repo other = new Repo();
+            Main.run(other, "branch", branch + "-other");
+            other.flush();
+            assertTrue(daemon("status").contains(branch + "-other"));
+            assertEquals("A daemon is already running.\n",
+                         daemon("daemon"));
+        } finally {
+            daemon("daemon", "--stop");
+            server.join(5000);
+            Session session = new Session();
+            LinkedHashMap<String, ObjectId> branches =
+                new LinkedHashMap<>(session.branches());
+            branches.remove(branch);
+            branches.remove(branch + "-other");
+            session.setBranches(branches);
+            session.flush();
+        }
+        assertFalse(server.isAlive());
+        assertFalse(Repo.DAEMON_SOCKET.exists());
+        assertFalse(Daemon.running());
+    }
+
+    /* BATCH */
+
+    /** Script lines split into words at blanks, except within quotes, in
+     *  which \ escapes the next character. */
+    @Test
+    public void batchSplit() {
+        assertArrayEquals(new String[] {"add", "a.txt"},
+                          Batch.split("add a.txt"));
+        assertArrayEquals(new String[] {"commit", "two  words"},
+                          Batch.split("  commit\t\"two  words\"  "));
+        assertArrayEquals(new String[] {"commit", "say \"hi\" \\ ok"},
+                          Batch.split("commit \"say \\\"hi\\\" \\\\ ok\""));
+        assertArrayEquals(new String[] {"ab cd", ""},
+                          Batch.split("a\"b c\"d \"\""));
+        assertArrayEquals(new String[] {"a\\b"}, Batch.split("a\\b"));
+        assertArrayEquals(new String[0], Batch.split(" \t "));
+        try {
+            Batch.split("commit \"open");
+            fail("split an unterminated quotation");
+        } catch (GitletException excp) {
+            assertEquals("Unterminated quotation: commit \"open",
+                         excp.getMessage());
+        }
+    }
+
+    /** A script runs its commands in order against one repository,
+     *  skipping blank lines and comments; a line that fails prints its
+     *  message and the script goes on; and what it does is on disk when
+     *  it ends. */
+    @Test
+    public void batchRunsScript() throws IOException {
+        repo();
+        String name = "batch-" + System.nanoTime() + ".txt";
+        writeFile(name, bytes("batched"));
+        writeFile("script.txt", bytes(String.join("\n",
+            "# a comment", "", "add " + name, "commit \"batch one\"",
+            "rm no-such-file.txt", "batch", "commit \"\"",
+            "rm " + name, "commit \"batch two\"")));
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true,
+                                      StandardCharsets.UTF_8));
+        try {
+            Batch.run(new Repo(), "batch", "script.txt");
+        } finally {
+            System.setOut(stdout);
+            new File(Repo.CWD, "script.txt").delete();
+        }
+        assertEquals("No reason to remove the file.\n"
+                     + "Cannot run batch in a batch.\n"
+                     + "Please enter a commit message.\n",
+                     captured.toString(StandardCharsets.UTF_8));
+        Session session = new Session();
+        Commit head = session.head();
+        assertEquals("batch two", head.getMessage());
+        Commit parent = session.commit(head.getParent());
+        assertEquals("batch one", parent.getMessage());
+        assertEquals(ObjectId.hash(bytes("batched")),
+                     parent.getFileTracker().get(name));
+        assertFalse(head.getFileTracker().containsKey(name));
+        assertTrue(session.adding().isEmpty());
+        assertTrue(session.removal().isEmpty());
+        assertFalse(new File(Repo.CWD, name).exists());
+
+        for (String[] args : new String[][] {
+                {"batch", "no-such-script.txt"}, {"batch", "a", "b"} }) {
+            try {
+                Batch.run(new Repo(), args);
+                fail("ran " + Arrays.toString(args));
+            } catch (GitletException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    /** A line that fails unexpectedly ends the script, but the changes of
+     *  the lines before it are kept. */
+    @Test
+    public void batchKeepsEarlierLines() throws IOException {
+        repo();
+        String name = "batch-" + System.nanoTime() + ".txt";
+        writeFile(name, bytes("kept"));
+        writeFile("script.txt", bytes("add " + name + "\nadd\nstatus\n"));
+        try {
+            Batch.run(new Repo(), "batch", "script.txt");
+            fail("ran a line with too few operands");
+        } catch (ArrayIndexOutOfBoundsException excp) {
+            /* Expected. */
+        } finally {
+            new File(Repo.CWD, "script.txt").delete();
+        }
+        try {
+            assertEquals(ObjectId.hash(bytes("kept")),
+                         new Session().staged(StagingIndex.ADD, name));
+        } finally {
+            Session session = new Session();
+            session.stage(StagingIndex.ADD, name, null);
+            session.flush();
+            new File(Repo.CWD, name).delete();
+        }
+    }
+
+    /* FAST IMPORT */
+
+    /** A stream with marks, blobs referred to by mark and by ID, inline
+     *  data, deletions, a new branch and a merge makes the commits it
+     *  describes, and moves only the branches it names. */
+    @Test
+    public void fastImportStream() throws IOException {
+        repo();
+        String branch = "import-" + System.nanoTime();
+        ObjectId hello = ObjectId.hash(bytes("hello " + branch));
+        String stream = String.join("\n",
+            "blob", "mark :1", "data " + ("hello " + branch).length(),
+            "hello " + branch, "# a comment", "",
+            "commit " + branch, "mark :2", "time 1000", "data 10",
+            "first\nline", "M :1 a.txt", "M inline b.txt", "data 3", "abc",
+            "commit " + branch + "-side", "mark :3", "time 2000", "data 4",
+            "side", "from :2", "D a.txt",
+            "commit " + branch, "time 3000", "data 5", "merge",
+            "merge :3", "M " + hello + " c.txt", "");
+        Session session = new Session();
+        FastImport importer =
+            new FastImport(session.branches(), session.currentBranch());
+        LinkedHashMap<String, ObjectId> branches =
+            importer.run(new ByteArrayInputStream(bytes(stream)));
+        for (Map.Entry<String, ObjectId> e : session.branches().entrySet()) {
+            assertEquals(e.getValue(), branches.get(e.getKey()));
+        }
+
+        Commit merge = ObjectStore.readCommit(branches.get(branch));
+        Commit side = ObjectStore.readCommit(branches.get(branch + "-side"));
+        Commit first = ObjectStore.readCommit(merge.getParent());
+        assertEquals("merge", merge.getMessage());
+        assertEquals("side", side.getMessage());
+        assertEquals("first\nline", first.getMessage());
+        assertEquals(side.getId(), merge.getMergedParent());
+        assertEquals(first.getId(), side.getParent());
+        assertEquals(session.head().getId(), first.getParent());
+        assertEquals(3000, merge.getTimestamp().getTime());
+        ObjectId abc = ObjectId.hash(bytes("abc"));
+        assertEquals(Map.of("a.txt", hello, "b.txt", abc),
+                     first.getFileTracker());
+        assertEquals(Map.of("b.txt", abc), side.getFileTracker());
+        assertEquals(Map.of("a.txt", hello, "b.txt", abc, "c.txt", hello),
+                     merge.getFileTracker());
+        assertArrayEquals(bytes("abc"), ObjectStore.readBlob(abc));
+        for (Commit c : new Commit[] {first, side, merge}) {
+            assertTrue(CommitGraph.get().find(c.getId()) >= 0);
+        }
+    }
+
+    /** A malformed stream is reported with the number of the line where
+     *  the problem was found, and stores nothing, not even what came
+     *  before the problem. */
+    @Test
+    public void fastImportMalformed() throws IOException {
+        repo();
+        String[][] cases = {
+            {"frobnicate", "unknown command: frobnicate"},
+            {"blob\nmark 1", "bad mark: 1"},
+            {"blob\nmark :1\nsize 3", "expected data"},
+            {"blob\ndata x", "bad number: x"},
+            {"blob\ndata -1", "bad data length: -1"},
+            {"blob\ndata 10", "unexpected end of data"},
+            {"commit ", "missing branch name"},
+            {"commit b\ndata 1\nm\nM :9 f.txt", "no such blob: :9"},
+            {"commit b\ndata 1\nm\nM inline d/f.txt", "bad file name: d/f.txt"},
+            {"commit b\ndata 1\nm\nM nospace", "bad file line: M nospace"},
+            {"commit b\ndata 1\nm\nfrom :4", "no such commit: :4"},
+        };
+        Session session = new Session();
+        List<String> packs = List.of(Repo.PACKS.list());
+        for (String[] c : cases) {
+            String unique = "prefix " + System.nanoTime();
+            String prefix = "blob\ndata " + unique.length() + "\n" + unique
+                + "\n\ncommit main-import\ndata 2\nm\n\n";
+            int line = (prefix + c[0]).split("\n", -1).length;
+            try {
+                new FastImport(session.branches(), session.currentBranch())
+                    .run(new ByteArrayInputStream(bytes(prefix + c[0])));
+                fail("imported " + c[0]);
+            } catch (GitletException excp) {
+                assertEquals("fast-import: line " + line + ": " + c[1],
+                             excp.getMessage());
+            }
+            assertFalse(ObjectStore.contains(ObjectStore.BLOB,
+                                             ObjectId.hash(bytes(unique))));
+            assertEquals(packs, List.of(Repo.PACKS.list()));
+        }
+    }
+
+    /* LOG */
+
+    /** The first-parent log, with any mix of options, prints the entries
+     *  of the history newest first, leaving out the skipped ones, at most
+     *  the number asked for, and none older than the date given. */
+    @Test
+    public void logOptions() throws IOException {
+        repo();
+        ZoneId zone = ZoneId.systemDefault();
+        long start = LocalDate.of(2020, 1, 1).atStartOfDay(zone)
+            .plusHours(12).toInstant().toEpochMilli();
+        String tag = "log " + System.nanoTime() + " ";
+        List<ObjectId> chain = new ArrayList<>();
+        ObjectId parent = null;
+        for (int i = 0; i < 30; i += 1) {
+            Commit side = new Commit(tag + "side " + i,
+                                     new Date(start + i * DAY - 1), parent,
+                                     null, Tree.EMPTY);
+            Commit c = new Commit(tag + i, new Date(start + i * DAY),
+                                  parent, i % 3 == 1 ? side.getId() : null,
+                                  Tree.EMPTY);
+            ObjectStore.writeCommit(side);
+            ObjectStore.writeCommit(c);
+            chain.add(0, c.getId());
+            parent = c.getId();
+        }
+        Commit head = ObjectStore.readCommit(parent);
+        assertEquals(chain, logIds(head));
+        assertEquals(chain.subList(0, 5), logIds(head, "-n", "5"));
+        assertEquals(chain.subList(0, 5), logIds(head, "--max-count=5"));
+        assertEquals(List.of(), logIds(head, "--max-count=0"));
+        assertEquals(chain.subList(3, 30), logIds(head, "--skip=3"));
+        assertEquals(chain.subList(3, 7),
+                     logIds(head, "--skip=3", "-n", "4"));
+        assertEquals(List.of(), logIds(head, "--skip=30"));
+        assertEquals(chain.subList(0, 10),
+                     logIds(head, "--since=2020-01-21"));
+        assertEquals(chain.subList(0, 10),
+                     logIds(head, "--since=2020-01-21T12:00"));
+        assertEquals(chain.subList(0, 9),
+                     logIds(head, "--since=2020-01-21 12:00:01"));
+        assertEquals(chain.subList(2, 6), logIds(head, "--since=2020-01-21",
+                                                 "--skip=2", "-n", "4"));
+
+        String entry = log(head, "-n", "2");
+        String date = Commit.dateFormat(head.getTimestamp());
+        assertTrue(entry.startsWith("===\ncommit " + head.getId()
+                                    + "\nDate: " + date + "\n" + tag
+                                    + "29\n\n===\ncommit "));
+        assertTrue(entry.endsWith(tag + "28\n"));
+    }
+
+    /** Malformed log options are refused. */
+    @Test
+    public void logBadOptions() {
+        for (String[] options : new String[][] {
+                {"-n"}, {"-n", "-1"}, {"-n", "x"}, {"--max-count="},
+                {"--skip=-2"}, {"--since=2020-13-01"}, {"--since=yesterday"},
+                {"--since=2020-01-01 25:00"}, {"--oneline"} }) {
+            try {
+                new Log(options);
+                fail("accepted " + Arrays.toString(options));
+            } catch (GitletException excp) {
+                assertEquals("Incorrect operands.", excp.getMessage());
+            }
+        }
+    }
+
+    /* STAGING AREA */
+
+    /** Random staging and unstaging, written and reloaded at random, and
+     *  through several compactions of the journal, leave the staging area
+     *  as a map of what was last written says it should be. */
+    @Test
+    public void stagingIndexMatchesModel() throws IOException {
+        repo();
+        Random random = new Random(26);
+        List<Map<String, ObjectId>> written = List.of(
+            new TreeMap<>(), new TreeMap<>());
+        List<Map<String, ObjectId>> model = List.of(
+            new TreeMap<>(), new TreeMap<>());
+        StagingIndex index = new StagingIndex();
+        int compactions = 0;
+        try {
+            for (int i = 0; i < 3000; i += 1) {
+                int kind = random.nextInt(2);
+                String name = stagedName(random);
+                ObjectId id = random.nextInt(4) == 0 ? null
+                    : ObjectId.hash(new byte[] {(byte) random.nextInt(8)});
+                index.put(STAGED_KINDS[kind], name, id);
+                if (id == null) {
+                    model.get(kind).remove(name);
+                } else {
+                    model.get(kind).put(name, id);
+                }
+                checkStaged(index, model);
+                switch (random.nextInt(20)) {
+                case 0:
+                    index = new StagingIndex();
+                    model = copyStaged(written);
+                    break;
+                case 1: case 2: case 3:
+                    boolean journaled = Repo.STAGING_JOURNAL.isFile();
+                    index.write();
+                    written = copyStaged(model);
+                    if (journaled && !Repo.STAGING_JOURNAL.isFile()) {
+                        compactions += 1;
+                    }
+                    assertFalse(index.changed());
+                    index = new StagingIndex();
+                    break;
+                default:
+                    break;
+                }
+                checkStaged(index, model);
+            }
+            assertTrue(compactions >= 2);
+        } finally {
+            clearStaged();
+        }
+    }
+
+    /** A torn last record of the journal is ignored, and overwritten by
+     *  the next one; a journal left from an older table is ignored. */
+    @Test
+    public void stagingIndexRecovers() throws IOException {
+        repo();
+        ObjectId a = ObjectId.hash(new byte[] {1});
+        ObjectId b = ObjectId.hash(new byte[] {2});
+        List<Map<String, ObjectId>> model = List.of(
+            new TreeMap<>(), new TreeMap<>());
+        try {
+            StagingIndex index = new StagingIndex();
+            for (int i = 0; i < 10; i += 1) {
+                index.put(StagingIndex.ADD, "f" + i, a);
+                model.get(0).put("f" + i, a);
+            }
+            index.write();
+            index.put(StagingIndex.REMOVE, "g\u00e9", b);
+            index.write();
+            model.get(1).put("g\u00e9", b);
+            byte[] journal = Files.readAllBytes(
+                Repo.STAGING_JOURNAL.toPath());
+            index.put(StagingIndex.ADD, "f3", b);
+            index.write();
+            byte[] longer = Files.readAllBytes(Repo.STAGING_JOURNAL.toPath());
+            for (int n = journal.length; n < longer.length; n += 1) {
+                Files.write(Repo.STAGING_JOURNAL.toPath(),
+                            Arrays.copyOf(longer, n));
+                checkStaged(new StagingIndex(), model);
+            }
+            index = new StagingIndex();
+            index.put(StagingIndex.ADD, "f4", b);
+            index.write();
+            model.get(0).put("f4", b);
+            checkStaged(new StagingIndex(), model);
+            assertEquals(longer.length,
+                         Repo.STAGING_JOURNAL.length());
+
+            byte[] stale = Files.readAllBytes(Repo.STAGING_JOURNAL.toPath());
+            index = new StagingIndex();
+            index.replace(StagingIndex.REMOVE, Map.of());
+            for (int i = 0; i < StagingIndex.MIN_COMPACT; i += 1) {
+                index.put(StagingIndex.ADD, "h" + i, a);
+                model.get(0).put("h" + i, a);
+            }
+            model.get(1).clear();
+            index.write();
+            assertFalse(Repo.STAGING_JOURNAL.isFile());
+            Files.write(Repo.STAGING_JOURNAL.toPath(), stale);
+            checkStaged(new StagingIndex(), model);
+            index = new StagingIndex();
+            index.put(StagingIndex.ADD, "f0", null);
+            index.write();
+            model.get(0).remove("f0");
+            checkStaged(new StagingIndex(), model);
+        } finally {
+            clearStaged();
+        }
+    }
+
+    /* UTILITIES */
+
+    /** A map key with a chosen hash code. */
+    private static class Key {
+        /** The key numbered N, whose hash code is HASH. */
+        Key(int n, int hash) {
+            _n = n;
+            _hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj)._n == _n
+                && ((Key) obj)._hash == _hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Number of this key. */
+        private final int _n;
+        /** Hash code of this key. */
+        private final int _hash;
+    }
+
+    /** Return a handle on the scratch repository, made first if there is
+     *  none. */
+    private static Repo repo() throws IOException {
+        if (!Repo.GITLET.exists()) {
+            Repo repo = new Repo();
+            Main.run(repo, "init");
+            repo.flush();
+        }
+        return new Repo();
+    }
+
+    /** Return a new temporary directory, made the working directory of
+     *  Repo and deleted when the tests finish. */
+    private static File scratch() {
+        try {
+            File dir = Files.createTempDirectory("gitlet-test").toFile();
+            System.setProperty("user.dir", dir.getPath());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                delete(dir);
+            }));
+            return dir;
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Delete FILE and, if it is a directory, everything in it. */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    /** Write DATA to the working file NAME and return it. */
+    private static File writeFile(String name, byte[] data)
+        throws IOException {
+        File file = new File(Repo.CWD, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    /** Set the setting KEY to VALUE for the rest of this run, or unset it
+     *  if VALUE is null. */
+    private static void setConfig(String key, String value) {
+        if (value == null) {
+            System.clearProperty("gitlet." + key);
+        } else {
+            System.setProperty("gitlet." + key, value);
+        }
+        Config.reload();
+    }
+
+    /** Return N pseudo-random bytes from SEED. */
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] result = new byte[n];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    /** Return the IDs of the chunks listed in the manifest of the chunked
+     *  blob with ID. */
+    private static List<ObjectId> chunkIds(ObjectId id) throws IOException {
+        byte[] stored = ObjectStore.read(ObjectStore.BLOB, id);
+        assertEquals(BlobCodec.CHUNKED, stored[BlobCodec.MAGIC.length]);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            stored, BlobCodec.HEADER_LENGTH,
+            stored.length - BlobCodec.HEADER_LENGTH));
+        in.readLong();
+        List<ObjectId> result = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i -= 1) {
+            result.add(ObjectId.fromRaw(in.readNBytes(ObjectId.RAW_LENGTH)));
+            in.readInt();
+        }
+        return result;
+    }
+
+    /** Append S to BUF as CommitCodec does: its UTF-8 length, then its
+     *  UTF-8 bytes. */
+    private static void putString(ByteBuffer buf, String s) {
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(data.length).put(data);
+    }
+
+    /** Return a path for file number I, in a directory chosen with RANDOM
+     *  among a few nested ones and a top level that is often bucketed. */
+    private static String randomPath(Random random, int i) {
+        String[] dirs = { "", "src/", "src/main/", "doc/", "a/b/c/d/" };
+        return dirs[random.nextInt(dirs.length)] + "file" + i;
+    }
+
+    /** Return N new commits, each after the ones it follows, with messages
+     *  starting with TAG.  The first is a root; each other has one or two
+     *  parents chosen with RANDOM, mostly among recent commits, and now
+     *  and then is another root. */
+    private static List<Commit> randomHistory(Random random, int n,
+                                              String tag) {
+        List<Commit> result = new ArrayList<>();
+        long time = System.currentTimeMillis() - n * 1000L;
+        String unique = tag + " " + System.nanoTime() + " ";
+        for (int i = 0; i < n; i += 1) {
+            ObjectId parent = null, merged = null;
+            if (i > 0 && random.nextInt(20) != 0) {
+                parent = result.get(recent(random, i)).getId();
+                if (random.nextInt(4) == 0) {
+                    merged = result.get(recent(random, i)).getId();
+                    merged = merged.equals(parent) ? null : merged;
+                }
+            }
+            time += random.nextInt(2000);
+            result.add(new Commit(unique + "\u00e9 " + i, new Date(time),
+                                  parent, merged, Tree.EMPTY));
+        }
+        return result;
+    }
+
+    /** Return, with RANDOM, the index of one of the last few of N
+     *  commits, or now and then of any. */
+    private static int recent(Random random, int n) {
+        if (random.nextInt(5) == 0) {
+            return random.nextInt(n);
+        }
+        return Math.max(0, n - 1 - random.nextInt(4));
+    }
+
+    /** Check that every commit in HISTORY is in the commit graph, after its
+     *  parents, with its parents, generation, time and message. */
+    private static void checkGraph(List<Commit> history) {
+        CommitGraph graph = CommitGraph.get();
+        HashMap<ObjectId, Integer> generations = new HashMap<>();
+        for (Commit c : history) {
+            int k = graph.find(c.getId());
+            assertTrue(k >= 0);
+            assertEquals(c.getId(), graph.id(k));
+            int generation = 1;
+            int[] positions = { graph.parent(k), graph.mergedParent(k) };
+            ObjectId[] parents = { c.getParent(), c.getMergedParent() };
+            for (int i = 0; i < 2; i += 1) {
+                if (parents[i] == null) {
+                    assertEquals(CommitGraph.NONE, positions[i]);
+                } else {
+                    assertTrue(positions[i] < k);
+                    assertEquals(parents[i], graph.id(positions[i]));
+                    generation = Math.max(generation,
+                                          generations.get(parents[i]) + 1);
+                }
+            }
+            generations.put(c.getId(), generation);
+            assertEquals(generation, graph.generation(k));
+            assertEquals(c.getTimestamp().getTime(), graph.time(k));
+            assertEquals(c.getMessage(), graph.message(k));
+        }
+    }
+
+    /** Send the command ARGS to the daemon and return what it prints to
+     *  its standard output, checking that it prints nothing else and
+     *  succeeds. */
+    private static String daemon(String... args) throws IOException {
+        try (SocketChannel ch = SocketChannel.open(
+                 UnixDomainSocketAddress.of(Repo.DAEMON_SOCKET.toPath()))) {
+            DataOutputStream out = new DataOutputStream(
+                Channels.newOutputStream(ch));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                Channels.newInputStream(ch));
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            for (byte kind = in.readByte(); kind != Daemon.END;
+                 kind = in.readByte()) {
+                assertEquals(Daemon.OUT, kind);
+                result.write(in.readNBytes(in.readInt()));
+            }
+            assertEquals(0, in.readInt());
+            return result.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Check that queries of each mode, made up from MESSAGES with RANDOM
+     *  or taken from REGEXES, find what a scan of the graph finds. */
+    private static void checkFind(Random random, List<String> messages,
+                                  String[] regexes) {
+        for (int i = 0; i < 60; i += 1) {
+            String m = messages.get(random.nextInt(messages.size()));
+            int a = random.nextInt(m.length() + 1);
+            int b = a + random.nextInt(m.length() - a + 1);
+            List<String> words = MessageIndex.words(m);
+            String word = words.isEmpty() ? ""
+                : words.get(random.nextInt(words.size()));
+            String prefix = word.substring(0, random.nextInt(
+                                               word.length() + 1));
+            checkFind(MessageIndex.EXACT, m, m::equals);
+            String token = word.toUpperCase() + " " + word;
+            checkFind(MessageIndex.TOKEN, token,
+                      s -> MessageIndex.words(s).containsAll(
+                               MessageIndex.words(token)));
+            checkFind(MessageIndex.PREFIX, prefix,
+                      s -> prefix.isEmpty() || MessageIndex.words(s)
+                               .stream().anyMatch(w -> w.startsWith(prefix)));
+            checkFind(MessageIndex.SUBSTRING, m.substring(a, b),
+                      s -> s.contains(m.substring(a, b)));
+        }
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex);
+            checkFind(MessageIndex.REGEX, regex, s -> p.matcher(s).find());
+        }
+    }
+
+    /** Check that the query QUERY in MODE finds the commits whose messages
+     *  satisfy MATCH, newest first. */
+    private static void checkFind(String mode, String query,
+                                  Predicate<String> match) {
+        CommitGraph graph = CommitGraph.get();
+        List<ObjectId> expected = new ArrayList<>();
+        for (int k = graph.size() - 1; k >= 0; k -= 1) {
+            if (match.test(graph.message(k))) {
+                expected.add(graph.id(k));
+            }
+        }
+        assertEquals(mode + " " + query, expected,
+                     MessageIndex.find(mode, query));
+    }
+
+    /** Check that prefixes of IDs in the graph, and random ones, of every
+     *  length, chosen with RANDOM, find through IdIndex what a scan of
+     *  the graph finds, and that each whole ID finds its position. */
+    private static void checkPrefixes(Random random) {
+        CommitGraph graph = CommitGraph.get();
+        List<String> all = new ArrayList<>();
+        for (int k = 0; k < graph.size(); k += 1) {
+            all.add(graph.id(k).toString());
+        }
+        all.sort(null);
+        for (int k = 0; k < graph.size(); k += 1) {
+            assertEquals(k, graph.find(graph.id(k)));
+        }
+        for (int i = 0; i < 200; i += 1) {
+            String hex = i % 2 == 0 ? all.get(random.nextInt(all.size()))
+                : ObjectId.hash(new byte[] { (byte) i }).toString();
+            String prefix = hex.substring(0, random.nextInt(8) == 0
+                                          ? random.nextInt(41)
+                                          : random.nextInt(5));
+            int limit = 1 + random.nextInt(i % 3 == 0 ? 3 : all.size());
+            List<ObjectId> expected = new ArrayList<>();
+            for (String id : all) {
+                if (id.startsWith(prefix) && expected.size() < limit) {
+                    expected.add(ObjectId.fromHex(id));
+                }
+            }
+            assertEquals(prefix, expected, IdIndex.withPrefix(prefix, limit));
+        }
+    }
+
+    /** Kinds of staged entry, in the order of the maps of checkStaged. */
+    private static final byte[] STAGED_KINDS = {
+        StagingIndex.ADD, StagingIndex.REMOVE
+    };
+
+    /** Return a random file name, chosen with RANDOM from a few hundred,
+     *  some not ASCII. */
+    private static String stagedName(Random random) {
+        String[] stems = { "a", "b.txt", "d\u00e9j\u00e0", "\u2603", "z" };
+        return stems[random.nextInt(stems.length)] + random.nextInt(80);
+    }
+
+    /** Check that INDEX has staged exactly what the maps EXPECTED, for
+     *  each of STAGED_KINDS, hold. */
+    private static void checkStaged(StagingIndex index,
+                                    List<Map<String, ObjectId>> expected) {
+        for (int kind = 0; kind < STAGED_KINDS.length; kind += 1) {
+            Map<String, ObjectId> staged = expected.get(kind);
+            assertEquals(staged, new TreeMap<>(
+                             index.entries(STAGED_KINDS[kind])));
+            for (String name : new String[] { "a1", "\u26032", "z79" }) {
+                assertEquals(staged.get(name),
+                             index.get(STAGED_KINDS[kind], name));
+            }
+        }
+    }
+
+    /** Return a copy of the maps STAGED. */
+    private static List<Map<String, ObjectId>> copyStaged(
+        List<Map<String, ObjectId>> staged) {
+        return List.of(new TreeMap<>(staged.get(0)),
+                       new TreeMap<>(staged.get(1)));
+    }
+
+    /** Unstage everything. */
+    private static void clearStaged() {
+        StagingIndex index = new StagingIndex();
+        for (byte kind : STAGED_KINDS) {
+            index.replace(kind, Map.of());
+        }
+        index.write();
+        assertTrue(new StagingIndex().entries(StagingIndex.ADD).isEmpty());
+        assertFalse(Repo.STAGING_JOURNAL.isFile());
+    }
+
+    /** Milliseconds in a day. */
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    /** Return what the first-parent log of HEAD with OPTIONS prints. */
+    private static String log(Commit head, String... options) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true,
+                                      StandardCharsets.UTF_8));
+        try {
+            new Log(options).firstParent(head);
+        } finally {
+            System.setOut(stdout);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Return the IDs of the commits in the first-parent log of HEAD with
+     *  OPTIONS, in the order printed. */
+    private static List<ObjectId> logIds(Commit head, String... options) {
+        List<ObjectId> result = new ArrayList<>();
+        for (String line : log(head, options).split("\n")) {
+            if (line.startsWith("commit ")) {
+                result.add(ObjectId.fromHex(line.substring(7)));
+            }
+        }
+        return result;
+    }
+
+    /** Store a blob holding S and return its ID. */
+    private static ObjectId blob(String s) {
+        ObjectId id = ObjectId.hash(bytes(s));
+        ObjectStore.writeBlob(id, bytes(s));
+        return id;
+    }
+
+    /** Check that each working file named in FILES holds the blob it is
+     *  mapped to. */
+    private static void checkWorking(Map<String, ObjectId> files)
+        throws IOException {
+        for (Map.Entry<String, ObjectId> e : files.entrySet()) {
+            File file = new File(Repo.CWD, e.getKey());
+            assertArrayEquals(ObjectStore.readBlob(e.getValue()),
+                              Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    /** Return N lines of text, each ending in a newline and mentioning
+     *  TAG. */
+    private static List<byte[]> textLines(int n, String tag) {
+        List<byte[]> result = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            result.add(bytes("line " + i + " of " + tag + "\n"));
+        }
+        return result;
+    }
+
+    /** Return the concatenation of PARTS. */
+    private static byte[] concat(List<byte[]> parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    /** Return contents that start like a stored blob with the encoding
+     *  ENCODING, followed by TAIL. */
+    private static byte[] legacyLooking(byte encoding, String tail) {
+        byte[] rest = bytes("not really encoded" + tail);
+        byte[] result = new byte[BlobCodec.HEADER_LENGTH + rest.length];
+        System.arraycopy(BlobCodec.MAGIC, 0, result, 0,
+                         BlobCodec.MAGIC.length);
+        result[BlobCodec.MAGIC.length] = encoding;
+        System.arraycopy(rest, 0, result, BlobCodec.HEADER_LENGTH,
+                         rest.length);
+        return result;
+    }
+
+    /** Return contents that start like a stored blob with the encoding
+     *  ENCODING. */
+    private static byte[] legacyLooking(byte encoding) {
+        return legacyLooking(encoding, "");
+    }
+
+    /** Return a new, empty directory in the scratch directory whose name
+     *  starts with NAME. */
+    private static File newDir(String name) throws IOException {
+        return Files.createTempDirectory(SCRATCH.toPath(), name).toFile();
+    }
+
+    /** Return S in UTF-8. */
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return the object kind used for test object I. */
+    private static byte kind(int i) {
+        return i % 3 == 0 ? ObjectStore.COMMIT
+            : i % 3 == 1 ? ObjectStore.BLOB : ObjectStore.TREE;
+    }
+
+    /** Return the contents of test object I, of varying length (some
+     *  empty). */
+    private static byte[] contents(int i) {
+        byte[] result = new byte[(i * 37) % 300];
+        new Random(i).nextBytes(result);
+        return result;
+    }
+}
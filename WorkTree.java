@@ -0,0 +1,133 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+
+/** Hashing of working files on several threads.  Files are split among
+ *  the workers of a ForkJoinPool; each worker checks a file's stat data
+ *  against the stat cache and reads only the files that have changed.
+ *  Reading is throttled so that at most a configured number of bytes of
+ *  files are being hashed at once, which keeps a tree of large files
+ *  from flooding the disk with parallel reads.
+ *  @author Bella Chang
+ */
+class WorkTree {
+
+    /** Default bound, in bytes, on files being hashed at once. */
+    static final int DEFAULT_MAX_BYTES = 64 << 20;
+
+    /** Fewest files worth handing to another worker. */
+    static final int MIN_SPLIT = 16;
+
+    /** Return the IDs of the contents of the working files NAMES, using and
+     *  updating CACHE.  Files that do not exist are left out. */
+    static Map<String, ObjectId> hash(StatCache cache, List<String> names) {
+        int threads = Config.getInt(Config.WORKTREE_THREADS,
+                                    Runtime.getRuntime()
+                                    .availableProcessors());
+        int maxBytes = Math.max(1, Config.getInt(Config.WORKTREE_MAX_BYTES,
+                                                 DEFAULT_MAX_BYTES));
+        Semaphore bytes = new Semaphore(maxBytes);
+        if (threads <= 1 || names.size() <= MIN_SPLIT) {
+            Map<String, ObjectId> result = new HashMap<>();
+            for (String name : names) {
+                ObjectId id = hash(cache, name, bytes, maxBytes);
+                if (id != null) {
+                    result.put(name, id);
+                }
+            }
+            return result;
+        }
+        Map<String, ObjectId> result = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new HashTask(cache, names, 0, names.size(), result,
+                                     bytes, maxBytes));
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** Return the ID of the working file NAME, or null if it does not
+     *  exist, using and updating CACHE.  While the file is read, permits
+     *  for its size (at most MAXBYTES) are held from BYTES. */
+    private static ObjectId hash(StatCache cache, String name,
+                                 Semaphore bytes, int maxBytes) {
+        File file = Utils.join(Repo.CWD, name);
+        long[] stat = StatCache.stat(file);
+        if (stat == null) {
+            return null;
+        }
+        ObjectId id = cache.lookup(name, stat);
+        if (id != null) {
+            return id;
+        }
+        int permits = (int) Math.min(stat[0], maxBytes);
+        bytes.acquireUninterruptibly(permits);
+        try {
+            id = ObjectId.hash(file);
+        } finally {
+            bytes.release(permits);
+        }
+        cache.record(name, stat, id);
+        return id;
+    }
+
+    /** Hashes a range of files. */
+    private static class HashTask extends RecursiveAction {
+
+        /** Hashes NAMES[FROM .. TO-1] with CACHE into RESULT, holding
+         *  permits from BYTES (of which there are MAXBYTES) for the size
+         *  of each file while it is read. */
+        HashTask(StatCache cache, List<String> names, int from, int to,
+                 Map<String, ObjectId> result, Semaphore bytes,
+                 int maxBytes) {
+            _cache = cache;
+            _names = names;
+            _from = from;
+            _to = to;
+            _result = result;
+            _bytes = bytes;
+            _maxBytes = maxBytes;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from > MIN_SPLIT) {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new HashTask(_cache, _names, _from, mid, _result,
+                                       _bytes, _maxBytes),
+                          new HashTask(_cache, _names, mid, _to, _result,
+                                       _bytes, _maxBytes));
+                return;
+            }
+            for (int i = _from; i < _to; i += 1) {
+                String name = _names.get(i);
+                ObjectId id = WorkTree.hash(_cache, name, _bytes, _maxBytes);
+                if (id != null) {
+                    _result.put(name, id);
+                }
+            }
+        }
+
+        /** The stat cache. */
+        private final StatCache _cache;
+        /** All files being hashed. */
+        private final List<String> _names;
+        /** The range of _names hashed by this task. */
+        private final int _from, _to;
+        /** IDs found, by file name. */
+        private final Map<String, ObjectId> _result;
+        /** Bytes that may still be read at once. */
+        private final Semaphore _bytes;
+        /** The number of permits of _bytes. */
+        private final int _maxBytes;
+    }
+}